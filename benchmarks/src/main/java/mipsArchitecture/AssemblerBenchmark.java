@@ -0,0 +1,59 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken to assemble a program, which is the parsing path
+ * MainApp takes before the simulator starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+   /**
+    * Name of the program to assemble, see Programs.source
+    */
+   @Param({"test1", "test2", "test3", "test4", "straight"})
+   public String program;
+
+   /**
+    * Source code of the program
+    */
+   private String source;
+
+   /**
+    * Reads the source code of the program
+    *
+    * @throws IOException if the program cannot be read
+    */
+   @Setup
+   public void setup() throws IOException {
+      source = Programs.source(program);
+   }
+
+   /**
+    * Assembles the program
+    *
+    * @return the assembled program
+    * @throws IOException never, as the source is read from memory
+    */
+   @Benchmark
+   public Program assemble() throws IOException {
+      return Programs.assemble(source);
+   }
+}
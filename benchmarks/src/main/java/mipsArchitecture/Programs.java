@@ -0,0 +1,101 @@
+package mipsArchitecture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Source code of the programs used by the benchmarks.
+ * The sample programs are read from the test_files directory, whose location
+ * is passed in the mips.testFiles system property by the jmh task. The
+ * synthetic programs are generated, so their size can be scaled.
+ */
+final class Programs {
+   /**
+    * Returns the source code of the named program. Names test1 through test4
+    * refer to the sample programs in test_files; "loop" is a synthetic loop
+    * running LOOP_ITERATIONS times, and "straight" is a synthetic straight-line
+    * program of STRAIGHT_LINES instructions.
+    *
+    * @param name the name of the program
+    * @return the source code
+    * @throws IOException if a sample program cannot be read
+    */
+   static String source(String name) throws IOException {
+      switch (name) {
+         case "loop":     return loop(LOOP_ITERATIONS);
+         case "straight": return straightLine(STRAIGHT_LINES);
+         default:
+            Path dir = Paths.get(System.getProperty("mips.testFiles",
+                    "test_files"));
+            return new String(Files.readAllBytes(dir.resolve(name + ".asm")));
+      }
+   }
+
+   /**
+    * Assembles the given source code
+    *
+    * @param source the source code
+    * @return the assembled program
+    * @throws IOException never, as the source is read from memory
+    */
+   static Program assemble(String source) throws IOException {
+      return Assembler.assemble(new BufferedReader(new StringReader(source)));
+   }
+
+   /**
+    * Generates a loop mixing arithmetic, logic, and memory instructions
+    *
+    * @param iterations number of times the loop body runs
+    * @return the source code
+    */
+   static String loop(int iterations) {
+      return "        addi $t0, $zero, 0\n" +
+             "        addi $t1, $zero, " + iterations + "\n" +
+             "        addi $s0, $zero, 0\n" +
+             "loop:   beq  $t0, $t1, done\n" +
+             "        add  $s0, $s0, $t0\n" +
+             "        sll  $t2, $t0, 2\n" +
+             "        and  $t3, $t2, $s0\n" +
+             "        or   $t4, $t3, $t0\n" +
+             "        sw   $t4, 8($zero)\n" +
+             "        lw   $t5, 8($zero)\n" +
+             "        sub  $t6, $t5, $t3\n" +
+             "        addi $t0, $t0, 1\n" +
+             "        j    loop\n" +
+             "done:   nop\n";
+   }
+
+   /**
+    * Generates a straight-line program with a comment on every line
+    *
+    * @param lines number of instructions
+    * @return the source code
+    */
+   static String straightLine(int lines) {
+      StringBuilder source = new StringBuilder(lines * 32);
+      for (int i = 0; i < lines; ++i)
+         source.append("addi $t").append(i % 8).append(", $t")
+               .append((i + 1) % 8).append(", ").append(i % 100)
+               .append("   # generated\n");
+      return source.toString();
+   }
+
+   /**
+    * Iterations of the synthetic loop
+    */
+   static final int LOOP_ITERATIONS = 100_000;
+
+   /**
+    * Instructions in the synthetic straight-line program
+    */
+   static final int STRAIGHT_LINES = 100_000;
+
+   /**
+    * Not instantiable
+    */
+   private Programs() { }
+}
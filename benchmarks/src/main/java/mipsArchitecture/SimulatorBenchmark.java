@@ -0,0 +1,93 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures simulated instructions per second for each execution strategy.
+ * Every invocation runs an already assembled program to completion on a new
+ * Simulator, the same work Simulator.begin() does minus the final output.
+ * The "instructions" counter reports the simulated instruction rate next to
+ * the invocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulatorBenchmark {
+   /**
+    * Name of the program to run, see Programs.source
+    */
+   @Param({"test1", "test2", "test3", "test4", "loop"})
+   public String program;
+
+   /**
+    * Execution strategy: the interpreter, the basic block cache, the basic
+    * block cache with hot blocks compiled, or the 5-stage pipeline model
+    */
+   @Param({"interpreter", "blocks", "jit", "pipeline"})
+   public String mode;
+
+   /**
+    * Simulated instructions executed, reported per second by JMH
+    */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class Counters {
+      public long instructions;
+
+      @Setup(Level.Iteration)
+      public void reset() { instructions = 0; }
+   }
+
+   /**
+    * The assembled program
+    */
+   private Program assembled;
+
+   /**
+    * Assembles the program once, outside of the measurement
+    *
+    * @throws IOException if the program cannot be read
+    */
+   @Setup
+   public void setup() throws IOException {
+      assembled = Programs.assemble(Programs.source(program));
+   }
+
+   /**
+    * Runs the program to completion
+    *
+    * @param counters counter of simulated instructions
+    * @return the simulator, so that its state is not optimized away
+    */
+   @Benchmark
+   public Simulator run(Counters counters) {
+      Simulator mips = new Simulator(assembled, false);
+      if (mode.equals("blocks"))
+         mips.useBlockCache(BlockCache.DEFAULT_CAPACITY);
+      else if (mode.equals("jit"))
+         mips.useJit(JitCompiler.DEFAULT_THRESHOLD);
+      else if (mode.equals("pipeline"))
+         mips.usePipeline();
+
+      mips.run();
+      counters.instructions += mips.getInstructionCount();
+      return mips;
+   }
+}
@@ -0,0 +1,1051 @@
+package mipsArchitecture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Translates the instructions in a .asm file into a Program.
+ * Assembly takes two passes. The first pass reads the input one line at a
+ * time, so the file is never held in memory as a single String. Each line is
+ * stripped of its # comment, split into tokens at whitespace, commas, and
+ * parentheses, and decoded on the spot, while labels are entered into the
+ * symbol table. The second pass resolves every jump and branch target, given
+ * as a label or as a byte address, to an index into the decoded instructions
+ * and checks that it lies within the program. Lines may also be given
+ * already split into tokens, which skips the first step.
+ *
+ * The .data and .text directives switch between the data and text segments.
+ * In the data segment, .word places words, .asciiz places zero-terminated
+ * strings, and .space reserves zeroed bytes, starting at Program.DATA_BASE,
+ * and labels name byte addresses that may be used as constant operands of
+ * instructions, as in lw $t0, table($zero). Strings are padded with zeros
+ * to a whole number of words, so the data that follows stays aligned.
+ *
+ * Every decoded instruction has a MIPS32 encoding. An instruction whose
+ * constant does not fit in its immediate field is expanded into several,
+ * with the constant loaded into $at first, and the finished program is
+ * encoded as machine words. Any operand of a computation may be a register
+ * or a constant, so addi and add, or sllv and sll, are the same instruction
+ * to the assembler. The three-operand mult of earlier versions is accepted
+ * as mul; with two operands, mult writes HI and LO.
+ */
+final class Assembler {
+   /**
+    * Assembles the .asm file at the given path
+    *
+    * @param file path of the .asm file
+    * @return the assembled program
+    * @throws IOException if the file cannot be read
+    */
+   static Program assemble(Path file) throws IOException {
+      try (BufferedReader in = Files.newBufferedReader(file)) {
+         return assemble(in);
+      }
+   }
+
+   /**
+    * Assembles the instructions read from the given reader
+    *
+    * @param in source of the instructions
+    * @return the assembled program
+    * @throws IOException if the input cannot be read
+    */
+   static Program assemble(BufferedReader in) throws IOException {
+      Assembler assembler = new Assembler();
+      String line;
+
+      while ((line = in.readLine()) != null) {
+         ++assembler.lineNumber;
+         assembler.assembleLine(line);
+      }
+
+      return assembler.finish();
+   }
+
+   /**
+    * Assembles source text held in memory
+    *
+    * @param source the assembly source, as in a .asm file
+    * @return the assembled program
+    */
+   static Program assemble(String source) {
+      try {
+         return assemble(new BufferedReader(new StringReader(source)));
+      } catch (IOException ioe) {
+         throw new IllegalStateException(ioe);
+      }
+   }
+
+   /**
+    * Assembles instructions that are already split into tokens, one list
+    * per line, as tokenize would split them: a memory operand such as
+    * 4($t0) is the two tokens 4 and $t0. A line may begin with labels,
+    * each a token ending in a colon.
+    *
+    * @param lines the tokens of each line
+    * @return the assembled program
+    */
+   static Program assemble(List<? extends List<String>> lines) {
+      Assembler assembler = new Assembler();
+      for (List<String> line : lines) {
+         ++assembler.lineNumber;
+         assembler.decode(assembler.tokens(line));
+      }
+      return assembler.finish();
+   }
+
+   /**
+    * Constructs Assembler object
+    */
+   private Assembler() { }
+
+   /**
+    * Tokenizes and decodes a single line of input
+    *
+    * @param line the line of input
+    */
+   private void assembleLine(String line) {
+      decode(tokenize(line));
+   }
+
+   /**
+    * Decodes the tokens of a single line
+    *
+    * @param count the number of tokens
+    */
+   private void decode(int count) {
+      if (count == 0)
+         return;
+
+      String op = tokens[0];
+
+      if (op.startsWith(".")) {
+         directive(count);
+         return;
+      }
+      if (data)
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": instruction " + op + " in the data segment");
+
+      atUsed = false;
+      switch (op) {
+         case "nop":
+            expectOperands(count, 0);
+            program.add(MachineCode.NOP);
+            break;
+
+         case "syscall":
+            expectOperands(count, 0);
+            program.add(MachineCode.SYSCALL);
+            break;
+
+         case "j":
+         case "jal":
+            expectOperands(count, 1);
+            addFixup(1, false);
+            program.add(new Instruction(Instruction.opcode(op),
+                    op.equals("jal") ? RA : 0, 0, 0, false, true, true));
+            break;
+
+         case "jr":
+            expectOperands(count, 1);
+            program.add(new Instruction(Instruction.JR, 0, source(1), 0,
+                    false, false, true));
+            break;
+
+         case "jalr":
+            if (count != 3)
+               expectOperands(count, 1);
+            int link = count == 3 ? destination(1) : RA;
+            program.add(new Instruction(Instruction.JALR, link,
+                    source(count - 1), 0, false, false, true));
+            break;
+
+         case "beq":
+         case "bne":
+            expectOperands(count, 3);
+            branch(Instruction.opcode(op), 2);
+            break;
+
+         case "blez":
+         case "bgtz":
+         case "bltz":
+         case "bgez":
+            expectOperands(count, 2);
+            branch(Instruction.opcode(op), 1);
+            break;
+
+         case "mfhi":
+         case "mflo":
+            expectOperands(count, 1);
+            program.add(new Instruction(Instruction.opcode(op),
+                    destination(1), op.equals("mfhi") ? Operations.HI
+                                                      : Operations.LO,
+                    0, false, false, true));
+            break;
+
+         case "mthi":
+         case "mtlo":
+            expectOperands(count, 1);
+            program.add(new Instruction(Instruction.opcode(op),
+                    op.equals("mthi") ? Operations.HI : Operations.LO,
+                    source(1), 0, false, false, true));
+            break;
+
+         case "lui":
+            expectOperands(count, 2);
+            program.add(new Instruction(Instruction.SLL, destination(1),
+                    operand(2) & 0xffff, 16, false, true, true));
+            break;
+
+         case "mult":
+         case "multu":
+         case "div":
+         case "divu":
+            if (count == 4 && op.equals("mult")) {
+               // the original three-operand mult is mul
+               compute(Instruction.MUL);
+               break;
+            }
+            expectOperands(count, 2);
+            int rs = source(1);
+            program.add(new Instruction(Instruction.opcode(op), 0, rs,
+                    source(2), false, false, false));
+            break;
+
+         default:
+            int opcode = opcode(op);
+            expectOperands(count, 3);
+            int kind = Instruction.KINDS[opcode];
+            if (kind == Instruction.LOAD || kind == Instruction.STORE ||
+                    kind == Instruction.ATOMIC)
+               memory(opcode);
+            else
+               compute(opcode);
+            break;
+      }
+   }
+
+   /**
+    * Emits a branch, comparing either two operands or one operand with 0. A
+    * constant operand is loaded into $at first, unless it is 0, and two
+    * constants are compared by loading their difference.
+    *
+    * @param opcode the branch
+    * @param operands number of operands compared, 1 or 2
+    */
+   private void branch(int opcode, int operands) {
+      int left, right;
+      if (operands == 1) {
+         left = source(1);
+         right = 0;
+      }
+      else if (isImmediate(1) && isImmediate(2) && !isDataLabel(1) &&
+              !isDataLabel(2)) {
+         left = load(operand(1) - operand(2));
+         right = 0;
+      }
+      else {
+         left = source(1);
+         right = source(2);
+      }
+
+      addFixup(operands + 1, true);
+      program.add(new Instruction(opcode, left, right, 0, false, false,
+              true));
+   }
+
+   /**
+    * Emits an arithmetic or logical instruction. The result of two constants
+    * is computed here, and a constant that does not fit the immediate field
+    * of the instruction is loaded into $at first.
+    *
+    * @param opcode the operation
+    */
+   private void compute(int opcode) {
+      int rd = destination(1);
+      int a = 2, b = 3;
+
+      if (isImmediate(a) && isImmediate(b) && !isDataLabel(a) &&
+              !isDataLabel(b)) {
+         int value = evaluate(opcode, operand(a), operand(b));
+         if (rd == 0)
+            program.add(MachineCode.NOP);
+         else
+            loadConstant(rd, value);
+         return;
+      }
+
+      boolean commutative = opcode == Instruction.ADD ||
+              opcode == Instruction.AND || opcode == Instruction.OR ||
+              opcode == Instruction.XOR || opcode == Instruction.NOR ||
+              opcode == Instruction.MUL;
+      if (commutative && isImmediate(a) && !isImmediate(b)) {
+         a = 3;
+         b = 2;
+      }
+
+      if (isImmediate(b) && !isDataLabel(b) && fits(opcode, operand(b))) {
+         int value = operand(b);
+         int rs = source(a);
+         if (opcode == Instruction.SUB) {
+            opcode = Instruction.ADD;
+            value = -value;
+         }
+         else if (opcode == Instruction.SLL || opcode == Instruction.SRL ||
+                 opcode == Instruction.SRA) {
+            value &= 0x1f;
+         }
+         program.add(new Instruction(opcode, rd, rs, value, false, false,
+                 true));
+         return;
+      }
+
+      int rs = source(a);
+      int rt = source(b);
+      program.add(new Instruction(opcode, rd, rs, rt, false, false, false));
+   }
+
+   /**
+    * Emits a load, store, or sc. The byte address is the sum of the last two
+    * operands; an address that is not a register plus a 16-bit offset is
+    * formed in $at first.
+    *
+    * @param opcode the load, store, or sc
+    */
+   private void memory(int opcode) {
+      int rd = Instruction.KINDS[opcode] == Instruction.LOAD ? destination(1)
+                                                             : source(1);
+      int offset = 2, base = 3;
+      if (isImmediate(base) && (!isImmediate(offset) || isDataLabel(base))) {
+         offset = 3;
+         base = 2;
+      }
+
+      if (!isImmediate(offset)) {
+         int at = reserveAt();
+         program.add(new Instruction(Instruction.ADD, at, register(offset),
+                 register(base), false, false, false));
+         program.add(new Instruction(opcode, rd, 0, at, false, true, false));
+         return;
+      }
+
+      if (isDataLabel(base))
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": address adds two labels");
+      int addend = isImmediate(base) ? operand(base) : 0;
+      int baseRegister = isImmediate(base) ? 0 : register(base);
+
+      if (!isDataLabel(offset) && fits(Instruction.ADD,
+              operand(offset) + addend)) {
+         program.add(new Instruction(opcode, rd, operand(offset) + addend,
+                 baseRegister, false, true, false));
+         return;
+      }
+
+      int high = program.size();
+      int at = reserveAt();
+      int address = isDataLabel(offset) ? 0 : operand(offset) + addend;
+      program.add(new Instruction(Instruction.SLL, at,
+              (address + 0x8000) >>> 16, 16, false, true, true));
+      if (baseRegister != 0)
+         program.add(new Instruction(Instruction.ADD, at, at, baseRegister,
+                 false, false, false));
+      program.add(new Instruction(opcode, rd, (short) address, at, false,
+              true, false));
+
+      if (isDataLabel(offset))
+         fixups.add(new Fixup(high, lineNumber, tokens[offset], addend,
+                 program.size() - 1));
+   }
+
+   /**
+    * Returns the register holding an operand, loading a constant operand
+    * into $at first. The constant 0 is read from $zero instead.
+    *
+    * @param index token index of the operand
+    * @return the register number
+    */
+   private int source(int index) {
+      if (!isImmediate(index))
+         return register(index);
+
+      if (isDataLabel(index)) {
+         int at = reserveAt();
+         fixups.add(new Fixup(program.size(), lineNumber, tokens[index], 0,
+                 program.size() + 1));
+         program.add(new Instruction(Instruction.SLL, at, 0, 16, false,
+                 true, true));
+         program.add(new Instruction(Instruction.OR, at, at, 0, false,
+                 false, true));
+         return at;
+      }
+
+      return load(operand(index));
+   }
+
+   /**
+    * Loads a constant into $at, unless it is 0
+    *
+    * @param value the constant
+    * @return the register number of $at, or of $zero
+    */
+   private int load(int value) {
+      if (value == 0)
+         return 0;
+
+      int at = reserveAt();
+      loadConstant(at, value);
+      return at;
+   }
+
+   /**
+    * Emits the shortest sequence that loads a constant into a register:
+    * addi or ori for 16-bit constants, and lui followed by ori otherwise
+    *
+    * @param register the register number
+    * @param value the constant
+    */
+   private void loadConstant(int register, int value) {
+      if (fits(Instruction.ADD, value)) {
+         program.add(new Instruction(Instruction.ADD, register, 0, value,
+                 false, false, true));
+      }
+      else if (fits(Instruction.OR, value)) {
+         program.add(new Instruction(Instruction.OR, register, 0, value,
+                 false, false, true));
+      }
+      else {
+         program.add(new Instruction(Instruction.SLL, register, value >>> 16,
+                 16, false, true, true));
+         if ((value & 0xffff) != 0)
+            program.add(new Instruction(Instruction.OR, register, register,
+                    value & 0xffff, false, false, true));
+      }
+   }
+
+   /**
+    * Claims $at for the current instruction, which can hold only one
+    * constant that does not fit in the instruction itself
+    *
+    * @return the register number of $at
+    */
+   private int reserveAt() {
+      if (atUsed)
+         throw new IllegalArgumentException("Line " + lineNumber + ": " +
+                 tokens[0] + " has too many large constants");
+      atUsed = true;
+      return AT;
+   }
+
+   /**
+    * Checks whether a constant fits in the immediate field of an instruction
+    *
+    * @param opcode the operation
+    * @param value the constant
+    * @return true if the constant can be encoded in the instruction
+    */
+   private static boolean fits(int opcode, int value) {
+      switch (opcode) {
+         case Instruction.ADD:
+         case Instruction.SLT:
+         case Instruction.SLTU: return value == (short) value;
+         case Instruction.SUB:  return -value == (short) -value;
+         case Instruction.AND:
+         case Instruction.OR:
+         case Instruction.XOR:  return (value & 0xffff) == value;
+         case Instruction.SLL:
+         case Instruction.SRL:
+         case Instruction.SRA:  return true;
+         default:               return false;
+      }
+   }
+
+   /**
+    * Computes the result of an operation on two constants, as the
+    * simulator would
+    *
+    * @param opcode the operation
+    * @param rs 1st operand
+    * @param rt 2nd operand
+    * @return the result
+    */
+   private static int evaluate(int opcode, int rs, int rt) {
+      return Operations.FUNCTIONS[opcode].apply(rs, rt);
+   }
+
+   /**
+    * Handles an assembler directive
+    *
+    * @param count number of tokens on the line
+    */
+   private void directive(int count) {
+      switch (tokens[0]) {
+         case ".text":
+            expectOperands(count, 0);
+            data = false;
+            break;
+
+         case ".data":
+            expectOperands(count, 0);
+            data = true;
+            break;
+
+         case ".globl":
+         case ".align":
+            // every label is visible and every word is aligned
+            break;
+
+         case ".word":
+            expectData();
+            for (int i = 1; i < count; ++i)
+               addData(operand(i));
+            break;
+
+         case ".asciiz":
+            expectData();
+            expectOperands(count, 1);
+            addString(tokens[1]);
+            break;
+
+         case ".space":
+            expectData();
+            expectOperands(count, 1);
+            int bytes = operand(1);
+            if (bytes < 0)
+               throw new IllegalArgumentException("Line " + lineNumber +
+                       ": negative .space");
+            for (int i = 0; i < bytes; i += 4)
+               addData(0);
+            break;
+
+         default:
+            throw new IllegalArgumentException("Line " + lineNumber +
+                    ": unknown directive " + tokens[0]);
+      }
+   }
+
+   /**
+    * Checks that the current directive is in the data segment
+    */
+   private void expectData() {
+      if (!data)
+         throw new IllegalArgumentException("Line " + lineNumber + ": " +
+                 tokens[0] + " outside of the data segment");
+   }
+
+   /**
+    * Appends a word to the data segment
+    *
+    * @param word the word
+    */
+   private void addData(int word) {
+      if (dataSize == dataWords.length)
+         dataWords = Arrays.copyOf(dataWords, dataSize * 2);
+      dataWords[dataSize++] = word;
+   }
+
+   /**
+    * Appends a string literal to the data segment, little-endian, followed
+    * by a terminating 0 and padded to a whole number of words. The escapes
+    * \n, \t, \0, \", and \\ are recognized.
+    *
+    * @param literal the string token, including its quotes
+    */
+   private void addString(String literal) {
+      if (literal.length() < 2 || literal.charAt(0) != '"')
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": .asciiz expects a quoted string");
+
+      int word = 0, shift = 0;
+      for (int i = 1; i < literal.length(); ++i) {
+         char c = literal.charAt(i);
+         if (i == literal.length() - 1) {
+            c = 0;
+         }
+         else if (c == '\\') {
+            switch (literal.charAt(++i)) {
+               case 'n':  c = '\n'; break;
+               case 't':  c = '\t'; break;
+               case '0':  c = 0;    break;
+               case '"':  c = '"';  break;
+               case '\\': c = '\\'; break;
+               default:
+                  throw new IllegalArgumentException("Line " + lineNumber +
+                          ": unknown escape \\" + literal.charAt(i));
+            }
+         }
+         else if (c > 0xff) {
+            throw new IllegalArgumentException("Line " + lineNumber +
+                    ": character " + c + " is not a byte");
+         }
+
+         word |= c << shift;
+         shift += 8;
+         if (shift == 32 || i == literal.length() - 1) {
+            addData(word);
+            word = 0;
+            shift = 0;
+         }
+      }
+   }
+
+   /**
+    * Resolves recorded jump and branch targets to instruction indices, and
+    * checks that every target lies within the program. A target just past
+    * the last instruction is allowed, and halts the program. Data labels
+    * used as constants are resolved to their addresses. The time taken to
+    * assemble the program is recorded in the runtime metrics.
+    *
+    * @return the assembled program
+    */
+   private Program finish() {
+      Instruction[] result = program.toArray(new Instruction[0]);
+
+      for (Fixup fixup : fixups) {
+         if (fixup.low != 0) {
+            resolveConstant(result, fixup);
+            continue;
+         }
+
+         int index = fixup.target;
+         if (fixup.label != null) {
+            Integer symbol = symbols.get(fixup.label);
+            if (symbol == null)
+               throw new IllegalArgumentException("Line " + fixup.line +
+                       ": undefined label " + fixup.label);
+            index = symbol;
+         }
+
+         if (index < 0 || index > result.length)
+            throw new IllegalArgumentException("Line " + fixup.line +
+                    ": target is outside of the program");
+
+         Instruction old = result[fixup.index];
+         result[fixup.index] = new Instruction(old.opcode, old.rd, old.rs,
+                 index, old.rdImmediate, old.rsImmediate, true);
+      }
+
+      int[] text = new int[result.length];
+      for (int i = 0; i < result.length; ++i)
+         text[i] = MachineCode.encode(result[i], i);
+
+      Program assembled = new Program(text, symbols,
+              Arrays.copyOf(dataWords, dataSize), dataSymbols);
+      Metrics.loaded(Metrics.SOURCE, System.nanoTime() - started,
+              assembled);
+      return assembled;
+   }
+
+   /**
+    * Fills in the address of a data label used as a constant operand. The
+    * lui receives the upper half of the address, and the ori, lw, or sw that
+    * follows it the lower half. Since lw and sw sign-extend their offset,
+    * the upper half is rounded to make up for a negative lower half.
+    *
+    * @param result the decoded instructions
+    * @param fixup the operand waiting to be resolved
+    */
+   private void resolveConstant(Instruction[] result, Fixup fixup) {
+      Integer symbol = dataSymbols.get(fixup.label);
+      if (symbol == null)
+         throw new IllegalArgumentException("Line " + fixup.line +
+                 ": undefined label " + fixup.label);
+
+      int address = symbol + fixup.target;
+      Instruction high = result[fixup.index];
+      Instruction low = result[fixup.low];
+      if (low.opcode == Instruction.OR) {
+         result[fixup.low] = new Instruction(low.opcode, low.rd, low.rs,
+                 address & 0xffff, false, false, true);
+      }
+      else {
+         result[fixup.low] = new Instruction(low.opcode, low.rd,
+                 (short) address, low.rt, false, true, false);
+         address += 0x8000;
+      }
+      result[fixup.index] = new Instruction(high.opcode, high.rd,
+              address >>> 16, high.rt, false, true, true);
+   }
+
+   /**
+    * Splits a line into tokens, ignoring everything after a # comment.
+    * Tokens are separated by whitespace, commas, and parentheses. Labels at
+    * the start of the line are entered into the symbol table instead. A
+    * string literal in double quotes is a single token, kept as written.
+    *
+    * @param line the line of input
+    * @return the number of tokens found
+    */
+   private int tokenize(String line) {
+      int count = 0;
+      int begin = -1;
+
+      for (int i = 0; i <= line.length(); ++i) {
+         char c = i < line.length() ? line.charAt(i) : '#';
+         boolean separator = c == '#' || c == ',' || c == '(' || c == ')' ||
+                 Character.isWhitespace(c);
+
+         if (c == '"' && begin < 0) {
+            int end = i + 1;
+            while (end < line.length() && line.charAt(end) != '"')
+               end += line.charAt(end) == '\\' ? 2 : 1;
+            if (end >= line.length())
+               throw new IllegalArgumentException("Line " + lineNumber +
+                       ": unterminated string");
+            if (count == tokens.length)
+               tokens = Arrays.copyOf(tokens, count * 2);
+            tokens[count++] = line.substring(i, end + 1);
+            i = end;
+            continue;
+         }
+
+         if (c == ':') {
+            if (begin < 0 || count > 0)
+               throw new IllegalArgumentException("Line " + lineNumber +
+                       ": misplaced label");
+            defineLabel(line.substring(begin, i).toLowerCase(Locale.ROOT));
+            begin = -1;
+         }
+         else if (separator && begin >= 0) {
+            if (count == tokens.length && !tokens[0].startsWith("."))
+               throw new IllegalArgumentException("Line " + lineNumber +
+                       ": too many operands");
+            if (count == tokens.length)
+               tokens = Arrays.copyOf(tokens, count * 2);
+            tokens[count++] = line.substring(begin, i).toLowerCase(Locale.ROOT);
+            begin = -1;
+         }
+         else if (!separator && begin < 0) {
+            begin = i;
+         }
+
+         if (c == '#')
+            break;
+      }
+
+      return count;
+   }
+
+   /**
+    * Takes the tokens of a line that is already split, entering its labels
+    * into the symbol table, as tokenize does
+    *
+    * @param line the tokens of the line
+    * @return the number of tokens taken
+    */
+   private int tokens(List<String> line) {
+      int count = 0;
+      for (String token : line) {
+         if (count == 0 && token.endsWith(":")) {
+            defineLabel(token.substring(0, token.length() - 1)
+                             .toLowerCase(Locale.ROOT));
+            continue;
+         }
+         if (count == tokens.length && !tokens[0].startsWith("."))
+            throw new IllegalArgumentException("Line " + lineNumber +
+                    ": too many operands");
+         if (count == tokens.length)
+            tokens = Arrays.copyOf(tokens, count * 2);
+         tokens[count++] = token.startsWith("\"") ? token
+                 : token.toLowerCase(Locale.ROOT);
+      }
+      return count;
+   }
+
+   /**
+    * Checks that the current instruction has the expected number of operands
+    *
+    * @param count number of tokens on the line
+    * @param operands expected number of operands
+    */
+   private void expectOperands(int count, int operands) {
+      if (count != operands + 1)
+         throw new IllegalArgumentException("Line " + lineNumber + ": " +
+                 tokens[0] + " expects " + operands + " operand(s)");
+   }
+
+   /**
+    * Enters a label into the symbol table. In the text segment the label
+    * refers to the next instruction read, and in the data segment to the
+    * address of the next word.
+    *
+    * @param label the label name
+    */
+   private void defineLabel(String label) {
+      if (!isLabel(label))
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": invalid label " + label);
+      if (symbols.containsKey(label) || dataSymbols.containsKey(label))
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": duplicate label " + label);
+
+      if (data)
+         dataSymbols.put(label, Program.DATA_BASE + 4 * dataSize);
+      else
+         symbols.put(label, program.size());
+   }
+
+   /**
+    * Checks whether a token is a valid label name. Labels begin with a letter,
+    * underscore, or period, followed by letters, digits, underscores, or
+    * periods.
+    *
+    * @param token the token
+    * @return true if the token is a valid label name
+    */
+   private static boolean isLabel(String token) {
+      for (int i = 0; i < token.length(); ++i) {
+         char c = token.charAt(i);
+         boolean valid = (c >= 'a' && c <= 'z') || c == '_' || c == '.' ||
+                 (i > 0 && c >= '0' && c <= '9');
+         if (!valid)
+            return false;
+      }
+
+      return !token.isEmpty();
+   }
+
+   /**
+    * Records the jump or branch target of the current instruction to be
+    * resolved once the whole input has been read. A target is either a label
+    * or a byte address, with every instruction taking 4 bytes. Jump addresses
+    * are absolute, while branch addresses are relative to the instruction
+    * after the branch, as in MIPS.
+    *
+    * @param index token index of the target operand
+    * @param relative true if a byte address is relative to the next
+    *                 instruction
+    */
+   private void addFixup(int index, boolean relative) {
+      String token = tokens[index];
+      if (isLabel(token)) {
+         fixups.add(new Fixup(program.size(), lineNumber, token, 0, 0));
+         return;
+      }
+
+      int address = operand(index);
+      if (address % 4 != 0)
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": target " + address + " is not a multiple of 4");
+
+      int target = address / 4 + (relative ? program.size() + 1 : 0);
+      fixups.add(new Fixup(program.size(), lineNumber, null, target, 0));
+   }
+
+   /**
+    * Translates the mnemonic of a computation, load, or store to its opcode.
+    * The immediate, unsigned, and variable shift forms of a computation
+    * share the opcode of its register form; the operands decide which
+    * encoding is used.
+    *
+    * @param op the operation mnemonic
+    * @return the opcode of the operation
+    */
+   private int opcode(String op) {
+      int opcode = Instruction.opcode(ALIASES.getOrDefault(op, op));
+      int kind = opcode < 0 ? -1 : Instruction.KINDS[opcode];
+      if (kind != 0 && kind != Instruction.LOAD && kind != Instruction.STORE &&
+              kind != Instruction.ATOMIC)
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": unknown instruction " + op);
+      return opcode;
+   }
+
+   /**
+    * Decodes the destination operand of an instruction. A constant
+    * destination discards the result, as if it were $zero.
+    *
+    * @param index token index of the operand
+    * @return the register number
+    */
+   private int destination(int index) {
+      return isImmediate(index) ? 0 : register(index);
+   }
+
+   /**
+    * Checks whether the operand token at the given index is a constant
+    *
+    * @param index token index of the operand
+    * @return true if the operand is not a register
+    */
+   private boolean isImmediate(int index) {
+      return !tokens[index].startsWith("$");
+   }
+
+   /**
+    * Decodes a register or constant operand
+    *
+    * @param index token index of the operand
+    * @return the register number, or the value of the constant
+    */
+   private int register(int index) {
+      String name = tokens[index];
+      if (!name.startsWith("$"))
+         return operand(index);
+
+      int number = Simulator.registerNumber(name);
+      if (number < 0)
+         throw new IllegalArgumentException("Line " + lineNumber +
+                 ": unknown register " + name);
+
+      return number;
+   }
+
+   /**
+    * Checks whether the operand token at the given index is a data label,
+    * whose address is only known once the whole input has been read
+    *
+    * @param index token index of the operand
+    * @return true if the operand is a label
+    */
+   private boolean isDataLabel(int index) {
+      return isLabel(tokens[index]);
+   }
+
+   /**
+    * Decodes a decimal or 0x hexadecimal constant operand. A hexadecimal
+    * constant may be given unsigned, as 0xffffffff for -1.
+    *
+    * @param index token index of the operand
+    * @return the value of the constant
+    */
+   private int operand(int index) {
+      String token = tokens[index];
+      try {
+         if (!token.toLowerCase().contains("0x"))
+            return Integer.parseInt(token);
+         long value = Long.decode(token);
+         if (value >= Integer.MIN_VALUE && value <= 0xffffffffL)
+            return (int) value;
+      } catch (NumberFormatException nfe) {
+         // reported below
+      }
+      throw new IllegalArgumentException("Line " + lineNumber +
+              ": invalid constant " + token);
+   }
+
+   /**
+    * A jump or branch target, or a data label used as a constant, waiting
+    * to be resolved
+    */
+   private static final class Fixup {
+      Fixup(int index, int line, String label, int target, int low) {
+         this.index = index;
+         this.line = line;
+         this.label = label;
+         this.target = target;
+         this.low = low;
+      }
+
+      /**
+       * Index of the instruction that needs the target, or of the lui that
+       * loads the upper half of a data address
+       */
+      final int index;
+
+      /**
+       * Line of input the instruction was read from
+       */
+      final int line;
+
+      /**
+       * The target label, or null if the target was given as an address
+       */
+      final String label;
+
+      /**
+       * Instruction index of the target, if it was given as an address, or
+       * the constant added to a data address
+       */
+      final int target;
+
+      /**
+       * Index of the ori, lw, or sw that takes the lower half of a data
+       * address, or 0 for a jump or branch target
+       */
+      final int low;
+   }
+
+   /**
+    * Register number of $at, which holds constants for the assembler, and
+    * of $ra, which holds return addresses
+    */
+   private static final int AT = 1;
+   private static final int RA = 31;
+
+   /**
+    * Mnemonics that share the opcode of another instruction, keyed by
+    * mnemonic
+    */
+   private static final HashMap<String, String> ALIASES = new HashMap<>();
+
+   static {
+      String[] aliases = {
+         "addi", "add", "addu", "add", "addiu", "add", "subu", "sub",
+         "andi", "and", "ori", "or", "xori", "xor", "slti", "slt",
+         "sltiu", "sltu", "sllv", "sll", "srlv", "srl", "srav", "sra"
+      };
+      for (int i = 0; i < aliases.length; i += 2)
+         ALIASES.put(aliases[i], aliases[i + 1]);
+   }
+
+   /**
+    * Decoded instructions read so far
+    */
+   private ArrayList<Instruction> program = new ArrayList<>();
+
+   /**
+    * Instruction index of each label read so far
+    */
+   private HashMap<String, Integer> symbols = new HashMap<>();
+
+   /**
+    * Byte address of each data label read so far
+    */
+   private HashMap<String, Integer> dataSymbols = new HashMap<>();
+
+   /**
+    * Words of the data segment read so far
+    */
+   private int[] dataWords = new int[64];
+   private int dataSize;
+
+   /**
+    * True while reading the data segment
+    */
+   private boolean data;
+
+   /**
+    * True once $at holds a constant for the current instruction
+    */
+   private boolean atUsed;
+
+   /**
+    * Targets and data labels waiting to be resolved
+    */
+   private ArrayList<Fixup> fixups = new ArrayList<>();
+
+   /**
+    * Tokens of the current line
+    */
+   private String[] tokens = new String[4];
+
+   /**
+    * Number of the current line of input
+    */
+   private int lineNumber;
+
+   /**
+    * System.nanoTime() at which assembly began
+    */
+   private final long started = System.nanoTime();
+}
@@ -0,0 +1,235 @@
+package mipsArchitecture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Simulates many programs at once, one per available processor.
+ * Every program is assembled and run by its own Simulator, with its own data
+ * cache, so the runs share no mutable state. Results are written to the
+ * results file by the calling thread as each run finishes, one line per
+ * program, in JSON lines format, or in CSV format if the file name ends in
+ * .csv. The aggregate throughput is printed once every program has run.
+ * Programs never read the console or write to it: their system calls read
+ * and write files named after the program's path relative to the batch
+ * directory, or to the manifest's directory, in the given input and output
+ * directories, or have no input and discard their output. The same step
+ * and time limits apply to every program, and a program that reaches one,
+ * or faults, is reported as failed with the reason as its status.
+ */
+final class BatchRunner {
+   /**
+    * Constructs BatchRunner object
+    *
+    * @param options execution options applied to every program
+    * @param inputs directory holding the input of each program, as
+    *               dir/name.in for the program dir/name.asm, or null
+    * @param outputs directory receiving the output of each program, as
+    *                dir/name.out, or null to discard the output
+    */
+   BatchRunner(RunOptions options, Path inputs, Path outputs) {
+      this.options = options;
+      this.inputs = inputs;
+      this.outputs = outputs;
+   }
+
+   /**
+    * Lists the programs named by a directory or manifest. Every .asm file in
+    * a directory and its subdirectories is run, in path order. A manifest
+    * lists one program per line, relative to the manifest's directory;
+    * blank lines and lines starting with # are ignored.
+    *
+    * @param input the directory or manifest
+    * @return paths of the programs
+    * @throws IOException if the directory or manifest cannot be read
+    */
+   static List<Path> programs(Path input) throws IOException {
+      if (Files.isDirectory(input)) {
+         try (Stream<Path> files = Files.walk(input)) {
+            return files.filter(p -> p.toString().endsWith(".asm"))
+                        .filter(Files::isRegularFile)
+                        .sorted()
+                        .collect(Collectors.toList());
+         }
+      }
+
+      List<Path> programs = new ArrayList<>();
+      Path base = input.toAbsolutePath().getParent();
+      try (BufferedReader reader = Files.newBufferedReader(input)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+               programs.add(base.resolve(line));
+         }
+      }
+      return programs;
+   }
+
+   /**
+    * Runs every program in a directory or manifest and writes the results as
+    * they finish
+    *
+    * @param input the directory or manifest
+    * @param results path of the results file
+    * @throws IOException if the directory or manifest cannot be read, or the
+    *                     results file cannot be written
+    */
+   void run(Path input, Path results) throws IOException {
+      List<Path> programs = programs(input);
+      root = (Files.isDirectory(input) ? input
+              : input.toAbsolutePath().getParent()).toAbsolutePath()
+              .normalize();
+      int threads = Runtime.getRuntime().availableProcessors();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      CompletionService<RunResult> done =
+              new ExecutorCompletionService<>(executor);
+
+      long begin = System.nanoTime();
+      long failed, instructions;
+      try (RunResult.Writer out = new RunResult.Writer(results, "program")) {
+         for (Path program : programs)
+            done.submit(task(program));
+
+         for (int i = 0; i < programs.size(); ++i)
+            out.write(RunResult.take(done, "Batch"));
+         failed = out.getFailed();
+         instructions = out.getInstructions();
+      } finally {
+         executor.shutdownNow();
+      }
+      long elapsed = System.nanoTime() - begin;
+
+      double seconds = elapsed / 1e9;
+      System.out.printf("Batch: %d programs (%d failed) on %d threads in " +
+              "%.3f s, %.1f programs/s, %.0f instructions/s\n",
+              programs.size(), failed, threads, seconds,
+              programs.size() / seconds, instructions / seconds);
+   }
+
+   /**
+    * Creates the task that assembles and runs a single program. Errors in
+    * the program are reported in its result rather than thrown.
+    *
+    * @param program path of the program
+    * @return the task
+    */
+   private Callable<RunResult> task(Path program) {
+      return () -> {
+         RunResult result = new RunResult(program);
+         long begin = System.nanoTime();
+         Syscalls system = null;
+         try {
+            Simulator mips = new Simulator(ProgramImage.load(program), false);
+            system = syscalls(program);
+            mips.useSyscalls(system);
+            options.apply(mips);
+
+            try {
+               int status = mips.run();
+               if (status == Simulator.FAULT)
+                  result.error = mips.getFault().describe();
+               else if (status != Simulator.HALTED)
+                  result.error = Simulator.STATUS_NAMES[status];
+            } finally {
+               result.instructions = mips.getInstructionCount();
+               result.registers = mips.getRegisters();
+               result.words = words(mips.getMemory());
+            }
+         } catch (IOException ioe) {
+            result.error = "cannot read file: " + ioe.getMessage();
+         } catch (RuntimeException re) {
+            result.fail(re);
+         } finally {
+            try {
+               if (system != null)
+                  system.close();
+            } catch (IOException ioe) {
+               if (result.error == null)
+                  result.error = "cannot write output: " + ioe.getMessage();
+            }
+         }
+         result.nanos = System.nanoTime() - begin;
+         return result;
+      };
+   }
+
+   /**
+    * Opens the input and output files of a program's system calls. The files
+    * are named after the program's path relative to the batch root, so that
+    * programs of the same name in different subdirectories do not share
+    * them.
+    *
+    * @param program path of the program
+    * @return the system calls
+    * @throws IOException if a file cannot be opened
+    */
+   private Syscalls syscalls(Path program) throws IOException {
+      if (inputs == null && outputs == null)
+         return Syscalls.files(null, null);
+
+      Path relative = root.relativize(program.toAbsolutePath().normalize());
+      if (relative.startsWith(".."))
+         throw new IllegalArgumentException("Program outside the batch " +
+                 "directory: " + program);
+      String name = relative.toString();
+      int dot = name.lastIndexOf('.');
+      if (dot > name.length() - relative.getFileName().toString().length())
+         name = name.substring(0, dot);
+
+      Path input = inputs == null ? null : inputs.resolve(name + ".in");
+      if (input != null && !Files.isRegularFile(input))
+         input = null;
+      Path output = null;
+      if (outputs != null) {
+         output = outputs.resolve(name + ".out");
+         Files.createDirectories(output.getParent());
+      }
+      return Syscalls.files(input, output);
+   }
+
+   /**
+    * Lists the non-zero words of every touched memory page
+    *
+    * @param memory the memory of the run
+    * @return pairs of byte address and value, in address order
+    */
+   private static List<int[]> words(Memory memory) {
+      List<int[]> words = new ArrayList<>();
+      for (int number : memory.touchedPages()) {
+         int[] page = memory.page(number);
+         for (int i = 0; i < page.length; ++i)
+            if (page[i] != 0)
+               words.add(new int[] {
+                       (number << Memory.PAGE_BITS) + i * 4, page[i] });
+      }
+      return words;
+   }
+
+   /**
+    * Execution options applied to every program
+    */
+   private final RunOptions options;
+
+   /**
+    * Directories of the programs' input and output files, or null
+    */
+   private final Path inputs;
+   private final Path outputs;
+
+   /**
+    * Directory the names of the input and output files are relative to
+    */
+   private Path root;
+}
@@ -0,0 +1,367 @@
+package mipsArchitecture;
+
+import java.util.Arrays;
+
+/**
+ * A basic block of decoded instructions, translated for fast execution.
+ * A block is a straight-line run of instructions that ends with a jump,
+ * branch, or syscall, or at the end of the program. The instructions before
+ * it are translated into a chain of operations specialized to their operand
+ * kinds, with each operation taken from the tables of Operations once, so
+ * that executing the block needs no opcode dispatch at all. The
+ * blocks that follow this one are linked to it once they are known, so that
+ * the simulator can move from block to block without a cache lookup.
+ */
+final class Block {
+   /**
+    * A single translated instruction
+    */
+   interface Op {
+      /**
+       * Executes the instruction
+       *
+       * @param r the register file
+       * @param m the memory
+       */
+      void run(int[] r, Memory m);
+   }
+
+   /**
+    * Translates the basic block beginning at the given instruction
+    *
+    * @param instructions decoded instructions of the program
+    * @param start index of the first instruction of the block
+    * @return the translated block
+    */
+   static Block translate(Instruction[] instructions, int start) {
+      int end = start;
+      while (end < instructions.length && !instructions[end].isControl())
+         ++end;
+
+      Instruction exit = end < instructions.length ? instructions[end] : null;
+
+      int count = 0;
+      Op[] body = new Op[end - start];
+      int[] indices = new int[end - start];
+      for (int i = start; i < end; ++i) {
+         Op op = translate(instructions[i]);
+         if (op != null) {
+            indices[count] = i;
+            body[count++] = op;
+         }
+      }
+      if (count < body.length) {
+         body = Arrays.copyOf(body, count);
+         indices = Arrays.copyOf(indices, count);
+      }
+
+      return new Block(start, exit == null ? end : end + 1, body, indices,
+              exit, instructions.length);
+   }
+
+   /**
+    * Translates a single instruction into an operation. Instructions that
+    * only write register $zero have no effect and are dropped.
+    *
+    * @param in the decoded instruction
+    * @return the operation, or null if the instruction has no effect
+    */
+   private static Op translate(Instruction in) {
+      final int rd = in.rd, rs = in.rs, rt = in.rt;
+      boolean regReg = !in.rsImmediate && !in.rtImmediate;
+      boolean regImm = !in.rsImmediate && in.rtImmediate;
+      int kind = in.kind();
+
+      boolean writesZero = !in.rdImmediate && rd == 0;
+      if (writesZero && kind == 0)
+         return null;
+
+      switch (kind) {
+         case Instruction.LOAD:
+            Operations.Load load = Operations.LOADS[in.opcode];
+            if (in.rsImmediate && !in.rtImmediate && rd != 0)
+               return (r, m) -> r[rd] = load.apply(m, rs + r[rt]);
+            break;
+
+         case Instruction.STORE:
+            Operations.Store store = Operations.STORES[in.opcode];
+            if (in.rsImmediate && !in.rtImmediate && !in.rdImmediate)
+               return (r, m) -> store.apply(m, rs + r[rt], r[rd]);
+            break;
+
+         case Instruction.ATOMIC:
+            Operations.Atomic atomic = Operations.ATOMICS[in.opcode];
+            if (in.rsImmediate && !in.rtImmediate && !in.rdImmediate)
+               return (r, m) -> {
+                  int result = atomic.apply(m, rs + r[rt], r[rd]);
+                  if (rd != 0)
+                     r[rd] = result;
+               };
+            break;
+
+         case Instruction.HI_LO:
+            final int opcode = in.opcode;
+            if (regReg)
+               return (r, m) -> Operations.hiLo(r, opcode, r[rs], r[rt]);
+            break;
+
+         default:
+            Operations.Function f = Operations.FUNCTIONS[in.opcode];
+            if (in.rdImmediate)
+               return null;
+            if (regReg) return (r, m) -> r[rd] = f.apply(r[rs], r[rt]);
+            if (regImm) return (r, m) -> r[rd] = f.apply(r[rs], rt);
+            break;
+      }
+
+      return generic(in);
+   }
+
+   /**
+    * Translates an instruction with an unusual combination of register and
+    * constant operands into an operation that checks each operand kind
+    *
+    * @param in the decoded instruction
+    * @return the operation
+    */
+   private static Op generic(Instruction in) {
+      final int opcode = in.opcode;
+      final int kind = in.kind();
+      final int rd = in.rd, rs = in.rs, rt = in.rt;
+      final boolean rdImm = in.rdImmediate, rsImm = in.rsImmediate,
+                    rtImm = in.rtImmediate;
+      final Operations.Function f = Operations.FUNCTIONS[opcode];
+
+      return (r, m) -> {
+         int a = rsImm ? rs : r[rs];
+         int b = rtImm ? rt : r[rt];
+         int value;
+         switch (kind) {
+            case Instruction.LOAD:
+               value = Operations.LOADS[opcode].apply(m, a + b);
+               break;
+            case Instruction.STORE:
+               Operations.STORES[opcode].apply(m, a + b, rdImm ? rd : r[rd]);
+               return;
+            case Instruction.ATOMIC:
+               value = Operations.ATOMICS[opcode].apply(m, a + b,
+                       rdImm ? rd : r[rd]);
+               break;
+            case Instruction.HI_LO:
+               Operations.hiLo(r, opcode, a, b);
+               return;
+            default:
+               value = f.apply(a, b);
+               break;
+         }
+         if (!rdImm && rd != 0)
+            r[rd] = value;
+      };
+   }
+
+   /**
+    * Constructs Block object
+    *
+    * @param start index of the first instruction
+    * @param end index of the instruction following the block
+    * @param body translated instructions before the jump or branch
+    * @param indices index of the instruction of each operation of the body
+    * @param exit the ending jump or branch, or null if there is none
+    * @param programLength number of instructions in the program
+    */
+   private Block(int start, int end, Op[] body, int[] indices,
+                 Instruction exit, int programLength) {
+      this.start = start;
+      this.end = end;
+      this.body = body;
+      this.indices = indices;
+      this.length = end - start;
+      this.programLength = programLength;
+      this.jumps = exit != null;
+
+      this.system = exit != null && exit.kind() == Instruction.SYSTEM;
+      if (exit == null || system) {
+         this.target = end;
+         this.condition = null;
+         this.indirect = -1;
+         this.link = 0;
+         return;
+      }
+
+      this.target = exit.target();
+      this.condition = Operations.CONDITIONS[exit.opcode];
+      this.rd = exit.rd;
+      this.rs = exit.rs;
+      this.rdImmediate = exit.rdImmediate;
+      this.rsImmediate = exit.rsImmediate;
+
+      boolean register = exit.opcode == Instruction.JR ||
+              exit.opcode == Instruction.JALR;
+      this.indirect = register ? exit.rs : -1;
+      this.link = exit.opcode == Instruction.JAL ||
+              exit.opcode == Instruction.JALR ? exit.rd : 0;
+      this.linkAddress = Operations.returnAddress(end - 1);
+   }
+
+   /**
+    * Index of the instruction following the last one before the ending jump
+    * or branch
+    *
+    * @return index of the end of the block body
+    */
+   int bodyEnd() {
+      return jumps ? end - 1 : end;
+   }
+
+   /**
+    * Replaces the translated instructions before the jump or branch with a
+    * single compiled operation that performs all of them. The compiled
+    * operation locates its own faults.
+    *
+    * @param op the compiled operation
+    */
+   void compiled(Op op) {
+      body = new Op[] { op };
+   }
+
+   /**
+    * Executes the block. A fault is located at the instruction that caused
+    * it, and the instructions before that one have executed.
+    *
+    * @param r the register file
+    * @param m the memory
+    * @param calls the system calls of the program
+    * @return index of the next instruction to execute
+    */
+   int run(int[] r, Memory m, Syscalls calls) {
+      int i = 0;
+      try {
+         for (; i < body.length; ++i)
+            body[i].run(r, m);
+         return exit(r, m, calls);
+      } catch (GuestFault gf) {
+         throw gf.locate(i < body.length ? indices[i] : end - 1);
+      }
+   }
+
+   /**
+    * Executes the ending jump, branch, or syscall of the block
+    *
+    * @param r the register file
+    * @param m the memory
+    * @param calls the system calls of the program
+    * @return index of the next instruction to execute
+    */
+   private int exit(int[] r, Memory m, Syscalls calls) {
+      if (system) {
+         r[Syscalls.V0] = calls.call(r[Syscalls.V0], r[Syscalls.A0],
+                 r[Syscalls.A1], m);
+         return calls.hasExited() ? programLength : end;
+      }
+
+      if (condition != null) {
+         int a = rdImmediate ? rd : r[rd];
+         int b = rsImmediate ? rs : r[rs];
+         return condition.test(a, b) ? target : end;
+      }
+
+      int next = indirect < 0
+              ? target : Operations.jumpIndex(r[indirect], programLength);
+      if (link != 0)
+         r[link] = linkAddress;
+      return next;
+   }
+
+   /**
+    * Index of the first instruction of the block
+    */
+   final int start;
+
+   /**
+    * Index of the instruction following the block
+    */
+   final int end;
+
+   /**
+    * Number of instructions in the block, including the jump or branch
+    */
+   final int length;
+
+   /**
+    * Translated instructions before the jump or branch
+    */
+   private Op[] body;
+
+   /**
+    * Index of the instruction of each translated operation
+    */
+   private final int[] indices;
+
+   /**
+    * True if the block ends with a jump or branch
+    */
+   private final boolean jumps;
+
+   /**
+    * True if the block ends with a syscall
+    */
+   private final boolean system;
+
+   /**
+    * Number of instructions in the program, the furthest a jr or jalr may
+    * lead
+    */
+   private final int programLength;
+
+   /**
+    * Instruction index the jump or branch leads to, or -1 for a jr or jalr
+    */
+   final int target;
+
+   /**
+    * Condition of an ending branch, or null if the block does not end with
+    * a branch
+    */
+   private final Operations.Condition condition;
+
+   /**
+    * Register holding the address an ending jr or jalr leads to, or -1
+    */
+   private final int indirect;
+
+   /**
+    * Register an ending jal or jalr writes the return address to, or 0, and
+    * the return address
+    */
+   private final int link;
+   private int linkAddress;
+
+   /**
+    * Operands compared by an ending branch
+    */
+   private int rd;
+   private int rs;
+   private boolean rdImmediate;
+   private boolean rsImmediate;
+
+   /**
+    * Cached successor when the jump or branch is taken
+    */
+   Block taken;
+
+   /**
+    * Cached successor when the branch is not taken
+    */
+   Block next;
+
+   /**
+    * Number of times the block has been executed, counted by the JitCompiler
+    */
+   int executions;
+
+   /**
+    * Cleared when the block is evicted from the cache, so that stale links
+    * to it are not followed
+    */
+   boolean valid = true;
+}
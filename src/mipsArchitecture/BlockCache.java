@@ -0,0 +1,137 @@
+package mipsArchitecture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of translated basic blocks, keyed by the index of their
+ * first instruction. When the cache is full the least recently used block is
+ * evicted. Blocks remember their successors, so most transitions from one
+ * block to the next are followed through those links without touching the
+ * cache at all.
+ */
+final class BlockCache {
+   /**
+    * Default maximum number of translated blocks kept in the cache
+    */
+   static final int DEFAULT_CAPACITY = 4096;
+
+   /**
+    * Constructs BlockCache object
+    *
+    * @param instructions decoded instructions of the program
+    * @param capacity maximum number of translated blocks to keep
+    */
+   BlockCache(Instruction[] instructions, int capacity) {
+      this.instructions = instructions;
+      this.capacity = capacity;
+      this.blocks = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Integer, Block> e) {
+            if (size() <= BlockCache.this.capacity)
+               return false;
+
+            e.getValue().valid = false;
+            ++evictions;
+            return true;
+         }
+      };
+   }
+
+   /**
+    * Finds the block beginning at the given instruction, translating it if
+    * it is not in the cache
+    *
+    * @param start index of the first instruction of the block
+    * @return the block
+    */
+   Block lookup(int start) {
+      Block block = blocks.get(start);
+      if (block != null) {
+         ++hits;
+         return block;
+      }
+
+      ++misses;
+      block = Block.translate(instructions, start);
+      blocks.put(start, block);
+      return block;
+   }
+
+   /**
+    * Finds the block beginning at the given instruction, which follows the
+    * given block. Valid links from the previous block are followed directly,
+    * otherwise the block is looked up and the link is recorded. A jr or jalr
+    * may lead somewhere else each time, so a link is only followed if it
+    * leads to the right instruction.
+    *
+    * @param from the block just executed
+    * @param start index of the first instruction of the next block
+    * @return the next block
+    */
+   Block successor(Block from, int start) {
+      boolean taken = start == from.target && start != from.end;
+      Block link = taken ? from.taken : from.next;
+
+      if (link != null && link.valid && link.start == start) {
+         ++chained;
+         return link;
+      }
+
+      Block block = lookup(start);
+      if (taken)
+         from.taken = block;
+      else
+         from.next = block;
+      return block;
+   }
+
+   /**
+    * Formats the cache statistics for display
+    *
+    * @return the statistics
+    */
+   String statistics() {
+      long entries = hits + misses + chained;
+      double hitRate = entries == 0 ? 0 : 100.0 * (hits + chained) / entries;
+
+      return String.format("Block cache: %d translated, %d evicted, " +
+              "%d chained, %d hits, %d misses (%.2f%% hit rate)",
+              misses, evictions, chained, hits, misses, hitRate);
+   }
+
+   /**
+    * Decoded instructions of the program
+    */
+   private Instruction[] instructions;
+
+   /**
+    * Maximum number of translated blocks kept in the cache
+    */
+   private int capacity;
+
+   /**
+    * Translated blocks in least to most recently used order
+    */
+   private LinkedHashMap<Integer, Block> blocks;
+
+   /**
+    * Block transitions followed through a cached link
+    */
+   private long chained;
+
+   /**
+    * Lookups that found the block in the cache
+    */
+   private long hits;
+
+   /**
+    * Lookups that had to translate the block
+    */
+   private long misses;
+
+   /**
+    * Blocks evicted from the cache
+    */
+   private long evictions;
+}
@@ -0,0 +1,302 @@
+package mipsArchitecture;
+
+import java.util.Locale;
+
+/**
+ * One level of a set-associative data cache.
+ * Levels are chained from L1 down to backing memory, and every lw and sw is
+ * passed to the first level, which reports how many cycles the access took.
+ * The cache models timing only: values are always read from and written to
+ * the simulator's memory, so enabling the cache never changes the results.
+ * Tags, line state, and replacement stamps are kept in primitive arrays
+ * indexed by set * ways + way.
+ *
+ * A level is described by a specification of the form
+ * size:line:ways:policy:write:latency, e.g. 32k:64:4:lru:wb:1, where size
+ * and line are in bytes (with an optional k or m suffix), policy is lru,
+ * fifo, or random, write is wb (write-back, write-allocate) or wt
+ * (write-through, no write-allocate), and latency is the hit time in cycles.
+ */
+final class Cache {
+   /**
+    * Replacement policies
+    */
+   static final int LRU = 0;
+   static final int FIFO = 1;
+   static final int RANDOM = 2;
+
+   /**
+    * Cycles taken by an access to backing memory
+    */
+   static final int MEMORY_LATENCY = 100;
+
+   /**
+    * Constructs Cache object
+    *
+    * @param name name of the level, for display
+    * @param size capacity in bytes
+    * @param lineSize line size in bytes
+    * @param ways associativity
+    * @param policy replacement policy, one of LRU, FIFO, or RANDOM
+    * @param writeBack true for write-back, false for write-through
+    * @param latency cycles taken by a hit
+    * @param next the next level, or null if backed by memory
+    */
+   Cache(String name, int size, int lineSize, int ways, int policy,
+         boolean writeBack, int latency, Cache next) {
+      if (Integer.bitCount(lineSize) != 1 || ways < 1 || latency < 0 ||
+              size % (lineSize * ways) != 0 ||
+              Integer.bitCount(size / (lineSize * ways)) != 1)
+         throw new IllegalArgumentException("Invalid " + name + " cache: " +
+                 "line size and number of sets must be powers of 2");
+
+      this.name = name;
+      this.size = size;
+      this.lineSize = lineSize;
+      this.ways = ways;
+      this.sets = size / (lineSize * ways);
+      this.policy = policy;
+      this.writeBack = writeBack;
+      this.latency = latency;
+      this.next = next;
+      this.offsetBits = Integer.numberOfTrailingZeros(lineSize);
+      this.tags = new int[sets * ways];
+      this.state = new byte[sets * ways];
+      this.stamps = new long[sets * ways];
+   }
+
+   /**
+    * Creates a cache level from its specification
+    *
+    * @param name name of the level, for display
+    * @param spec specification, see the class description
+    * @param next the next level, or null if backed by memory
+    * @return the cache level
+    */
+   static Cache parse(String name, String spec, Cache next) {
+      String[] fields = spec.toLowerCase(Locale.ROOT).split(":");
+      if (fields.length != 6)
+         throw new IllegalArgumentException("Invalid " + name + " cache: " +
+                 "expected size:line:ways:policy:write:latency");
+
+      int policy;
+      switch (fields[3]) {
+         case "lru":    policy = LRU; break;
+         case "fifo":   policy = FIFO; break;
+         case "random": policy = RANDOM; break;
+         default:
+            throw new IllegalArgumentException("Invalid " + name + " cache: " +
+                    "unknown replacement policy " + fields[3]);
+      }
+
+      boolean writeBack;
+      switch (fields[4]) {
+         case "wb": writeBack = true; break;
+         case "wt": writeBack = false; break;
+         default:
+            throw new IllegalArgumentException("Invalid " + name + " cache: " +
+                    "unknown write policy " + fields[4]);
+      }
+
+      try {
+         return new Cache(name, bytes(fields[0]), bytes(fields[1]),
+                 Integer.parseInt(fields[2]), policy, writeBack,
+                 Integer.parseInt(fields[5]), next);
+      } catch (NumberFormatException nfe) {
+         throw new IllegalArgumentException("Invalid " + name + " cache: " +
+                 "sizes, ways, and latency must be numbers");
+      }
+   }
+
+   /**
+    * Parses a size in bytes with an optional k or m suffix
+    *
+    * @param text the size
+    * @return the number of bytes
+    */
+   private static int bytes(String text) {
+      if (text.endsWith("k"))
+         return Integer.parseInt(text.substring(0, text.length() - 1)) << 10;
+      if (text.endsWith("m"))
+         return Integer.parseInt(text.substring(0, text.length() - 1)) << 20;
+      return Integer.parseInt(text);
+   }
+
+   /**
+    * Performs a read or write of the given address
+    *
+    * @param address byte address of the access
+    * @param write true for a write, false for a read
+    * @return cycles taken by the access, including lower levels
+    */
+   int access(int address, boolean write) {
+      int line = address >>> offsetBits;
+      int set = line & (sets - 1);
+      int base = set * ways;
+      int cycles = latency;
+
+      for (int way = base; way < base + ways; ++way) {
+         if ((state[way] & VALID) != 0 && tags[way] == line) {
+            ++hits;
+            if (policy == LRU)
+               stamps[way] = ++clock;
+            if (write) {
+               if (writeBack)
+                  state[way] |= DIRTY;
+               else
+                  cycles += lower(address, true);
+            }
+            return cycles;
+         }
+      }
+
+      ++misses;
+      if (write && !writeBack)
+         return cycles + lower(address, true);
+
+      int victim = victim(base);
+      if ((state[victim] & VALID) != 0) {
+         ++evictions;
+         if ((state[victim] & DIRTY) != 0) {
+            ++writebacks;
+            cycles += lower(tags[victim] << offsetBits, true);
+         }
+      }
+
+      cycles += lower(line << offsetBits, false);
+      tags[victim] = line;
+      state[victim] = write ? (byte) (VALID | DIRTY) : VALID;
+      stamps[victim] = ++clock;
+      return cycles;
+   }
+
+   /**
+    * Passes an access on to the next level, or to memory
+    *
+    * @param address byte address of the access
+    * @param write true for a write, false for a read
+    * @return cycles taken by the access
+    */
+   private int lower(int address, boolean write) {
+      return next == null ? MEMORY_LATENCY : next.access(address, write);
+   }
+
+   /**
+    * Chooses the way of a set to replace. Empty ways are used first.
+    *
+    * @param base index of the first way of the set
+    * @return index of the way to replace
+    */
+   private int victim(int base) {
+      int victim = base;
+      for (int way = base; way < base + ways; ++way) {
+         if ((state[way] & VALID) == 0)
+            return way;
+         if (stamps[way] < stamps[victim])
+            victim = way;
+      }
+
+      if (policy == RANDOM) {
+         random ^= random << 13;
+         random ^= random >>> 17;
+         random ^= random << 5;
+         victim = base + (int) Long.remainderUnsigned(random, ways);
+      }
+
+      return victim;
+   }
+
+   /**
+    * Formats the statistics of this level and the levels below it
+    *
+    * @return the statistics, one line per level
+    */
+   String statistics() {
+      long accesses = hits + misses;
+      double missRate = accesses == 0 ? 0 : 100.0 * misses / accesses;
+      String policyName = policy == LRU ? "LRU" : policy == FIFO ? "FIFO"
+                                                                 : "random";
+
+      String text = String.format("%s: %d B, %d B lines, %d-way %s, %s, " +
+              "%d cycle hits: %d hits, %d misses (%.2f%% miss rate), " +
+              "%d evictions, %d writebacks", name, size, lineSize, ways,
+              policyName, writeBack ? "write-back" : "write-through", latency,
+              hits, misses, missRate, evictions, writebacks);
+
+      return next == null ? text : text + "\n" + next.statistics();
+   }
+
+   /**
+    * Line state bits
+    */
+   private static final byte VALID = 1;
+   private static final byte DIRTY = 2;
+
+   /**
+    * Name of the level, for display
+    */
+   private final String name;
+
+   /**
+    * Geometry of the cache
+    */
+   private final int size;
+   private final int lineSize;
+   private final int ways;
+   private final int sets;
+   private final int offsetBits;
+
+   /**
+    * Replacement policy, one of LRU, FIFO, or RANDOM
+    */
+   private final int policy;
+
+   /**
+    * True for write-back, write-allocate; false for write-through, no
+    * write-allocate
+    */
+   private final boolean writeBack;
+
+   /**
+    * Cycles taken by a hit
+    */
+   private final int latency;
+
+   /**
+    * The next level, or null if backed by memory
+    */
+   private final Cache next;
+
+   /**
+    * Line address held by each way
+    */
+   private final int[] tags;
+
+   /**
+    * VALID and DIRTY bits of each way
+    */
+   private final byte[] state;
+
+   /**
+    * Time each way was filled (FIFO) or last used (LRU)
+    */
+   private final long[] stamps;
+
+   /**
+    * Source of replacement stamps
+    */
+   private long clock;
+
+   /**
+    * State of the random replacement generator
+    */
+   private long random = 0x9E3779B97F4A7C15L;
+
+   /**
+    * Access counters
+    */
+   private long hits;
+   private long misses;
+   private long evictions;
+   private long writebacks;
+}
@@ -0,0 +1,422 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the state of a running simulation to a checkpoint file, from which
+ * the simulation can later be resumed.
+ * A checkpoint file is a log of records, each holding the complete processor
+ * state and the memory pages written since the previous record; the first
+ * record of a file holds every touched page. Resuming replays the records in
+ * order, so only the pages that changed are written each time. A checkpoint
+ * is taken every given number of instructions, and when the JVM is asked to
+ * shut down, as on Ctrl-C. The simulator copies its state into a buffer at
+ * an instruction boundary, and the buffer is written by a background thread
+ * through a FileChannel, so the simulation does not wait for the disk.
+ *
+ * Every record is followed by a CRC-32 of its contents, so a record cut
+ * short by a crash is ignored when resuming. A record has the form, all
+ * big-endian:
+ *
+ * - int magic number MIPC, short version, short unused
+ * - int length of the contents in bytes
+ * - contents: int program fingerprint, int next instruction index,
+ *   long instruction count, int aluControl, writeToMem, readMem, memIndex,
+ *   heap break, 34 int registers with HI and LO last, int page count,
+ *   then for each page its int page number and 1024 int words
+ * - int CRC-32 of the contents
+ */
+final class Checkpoint {
+   /**
+    * Saved state of a simulation
+    */
+   static final class State {
+      /**
+       * Index of the next instruction to execute
+       */
+      int pc;
+
+      /**
+       * Number of instructions executed
+       */
+      long instructionCount;
+
+      /**
+       * Control signals: aluControl, writeToMem, readMem, and memIndex,
+       * followed by the heap break of the system calls
+       */
+      final int[] signals = new int[5];
+
+      /**
+       * The register file
+       */
+      final int[] registers = new int[Simulator.REGISTER_NAMES.length];
+
+      /**
+       * Contents of every touched memory page, keyed by page number
+       */
+      final Map<Integer, int[]> pages = new HashMap<>();
+   }
+
+   /**
+    * Constructs Checkpoint object, creating the checkpoint file or appending
+    * to it
+    *
+    * @param file the checkpoint file
+    * @param interval number of instructions between checkpoints, or 0 to
+    *                 only checkpoint on shutdown
+    * @param instructions decoded instructions of the program
+    * @param append true to add records to an existing file, as when
+    *               resuming from it
+    * @throws IOException if the file cannot be opened
+    */
+   Checkpoint(Path file, long interval, Instruction[] instructions,
+              boolean append) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              append ? StandardOpenOption.APPEND
+                     : StandardOpenOption.TRUNCATE_EXISTING);
+      this.full = channel.size() == 0;
+      this.interval = interval;
+      this.nextSave = interval > 0 ? 0 : Long.MAX_VALUE;
+      this.fingerprint = fingerprint(instructions);
+      this.writer = Executors.newSingleThreadExecutor(r -> {
+         Thread thread = new Thread(r, "checkpoint-writer");
+         thread.setDaemon(true);
+         return thread;
+      });
+      this.hook = new Thread(this::shutdown, "checkpoint-on-exit");
+      Runtime.getRuntime().addShutdownHook(hook);
+   }
+
+   /**
+    * Returns the instruction count at which the simulator should next call
+    * save. Shutdown requests are noticed within POLL_INTERVAL instructions.
+    *
+    * @param count number of instructions executed
+    * @return the instruction count of the next call
+    */
+   long due(long count) {
+      if (count >= nextSave)
+         nextSave = (count / interval + 1) * interval;
+      return Math.min(nextSave, count + POLL_INTERVAL);
+   }
+
+   /**
+    * Takes a checkpoint if one is due or was requested at shutdown. Called
+    * by the simulator between instructions.
+    *
+    * @param pc index of the next instruction to execute
+    * @param count number of instructions executed
+    * @param signals aluControl, writeToMem, readMem, memIndex, and the heap
+    *                break
+    * @param registers the register file
+    * @param memory the memory
+    */
+   void save(int pc, long count, int[] signals, int[] registers,
+             Memory memory) {
+      boolean onShutdown = requested;
+      if (!onShutdown && count < nextSave)
+         return;
+
+      int[] numbers = full ? memory.touchedPages() : memory.dirtyPages();
+      full = false;
+      memory.clean();
+
+      int length = 4 + 4 + 8 + signals.length * 4 + registers.length * 4 + 4 +
+              numbers.length * (4 + Memory.PAGE_SIZE);
+      ByteBuffer record = ByteBuffer.allocate(12 + length + 4);
+      record.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+            .putInt(length);
+      record.putInt(fingerprint).putInt(pc).putLong(count);
+      for (int signal : signals)
+         record.putInt(signal);
+      for (int register : registers)
+         record.putInt(register);
+      record.putInt(numbers.length);
+      for (int number : numbers) {
+         record.putInt(number);
+         record.asIntBuffer().put(memory.page(number));
+         record.position(record.position() + Memory.PAGE_SIZE);
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), 12, length);
+      record.putInt((int) crc.getValue());
+      record.flip();
+
+      pending = writer.submit(() -> {
+         while (record.hasRemaining())
+            channel.write(record);
+         channel.force(false);
+         return null;
+      });
+      ++saved;
+
+      if (onShutdown) {
+         requested = false;
+         try {
+            await();
+         } finally {
+            shutdownSaved.countDown();
+         }
+      }
+   }
+
+   /**
+    * Waits for every checkpoint to be written, and closes the file. Called
+    * once the simulation has finished.
+    *
+    * @throws IOException if a checkpoint could not be written
+    */
+   void close() throws IOException {
+      finished = true;
+      try {
+         Runtime.getRuntime().removeShutdownHook(hook);
+      } catch (IllegalStateException ise) {
+         // already shutting down
+      }
+      shutdownSaved.countDown();
+
+      try {
+         await();
+      } finally {
+         writer.shutdown();
+         channel.close();
+      }
+   }
+
+   /**
+    * Waits for the last checkpoint to be written
+    *
+    * @throws IllegalStateException if the checkpoint could not be written
+    */
+   private void await() {
+      if (pending == null)
+         return;
+
+      try {
+         pending.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException ee) {
+         throw new IllegalStateException("Cannot write checkpoint: " +
+                 ee.getCause().getMessage());
+      }
+   }
+
+   /**
+    * Asks the simulator for a final checkpoint when the JVM shuts down, and
+    * waits a short time for it to be written
+    */
+   private void shutdown() {
+      if (finished)
+         return;
+
+      requested = true;
+      try {
+         shutdownSaved.await(SHUTDOWN_WAIT, TimeUnit.SECONDS);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Formats the checkpoint statistics for display
+    *
+    * @return the statistics
+    */
+   String statistics() {
+      return String.format("Checkpoints: %d saved", saved);
+   }
+
+   /**
+    * Reads the state saved by the last complete record of a checkpoint file
+    *
+    * @param file the checkpoint file
+    * @param instructions decoded instructions of the program
+    * @return the saved state
+    * @throws IOException if the file cannot be read, holds no complete
+    *                     record, or was saved from a different program
+    */
+   static State read(Path file, Instruction[] instructions)
+           throws IOException {
+      State state = new State();
+      boolean found = false;
+
+      try (FileChannel in = FileChannel.open(file,
+              StandardOpenOption.READ)) {
+         ByteBuffer header = ByteBuffer.allocate(12);
+         while (readFully(in, header)) {
+            header.flip();
+            if (header.getInt() != MAGIC || header.getShort() != VERSION)
+               throw new IOException(file + " is not a checkpoint file");
+            header.getShort();
+            int length = header.getInt();
+            header.clear();
+
+            // a length past the end of the file is a torn or corrupt record
+            if (length < 0 || length + 4L > in.size() - in.position())
+               break;
+            ByteBuffer record = ByteBuffer.allocate(length + 4);
+            if (!readFully(in, record))
+               break;
+            record.flip();
+
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, length);
+            if (record.getInt(length) != (int) crc.getValue())
+               break;
+
+            if (record.getInt() != fingerprint(instructions))
+               throw new IOException(file + " was saved from a different " +
+                       "program");
+            state.pc = record.getInt();
+            state.instructionCount = record.getLong();
+            for (int i = 0; i < state.signals.length; ++i)
+               state.signals[i] = record.getInt();
+            for (int i = 0; i < state.registers.length; ++i)
+               state.registers[i] = record.getInt();
+            for (int pages = record.getInt(); pages > 0; --pages) {
+               int number = record.getInt();
+               int[] words = new int[Memory.PAGE_SIZE / 4];
+               record.asIntBuffer().get(words);
+               record.position(record.position() + Memory.PAGE_SIZE);
+               state.pages.put(number, words);
+            }
+            found = true;
+         }
+      }
+
+      if (!found)
+         throw new IOException(file + " holds no complete checkpoint");
+      return state;
+   }
+
+   /**
+    * Fills a buffer from a channel
+    *
+    * @param in the channel
+    * @param buffer the buffer
+    * @return false if the channel ended before the buffer was full
+    * @throws IOException if the channel cannot be read
+    */
+   private static boolean readFully(FileChannel in, ByteBuffer buffer)
+           throws IOException {
+      while (buffer.hasRemaining())
+         if (in.read(buffer) < 0)
+            return false;
+      return true;
+   }
+
+   /**
+    * Computes a hash of the decoded instructions, so that a checkpoint is
+    * only resumed with the program it was saved from
+    *
+    * @param instructions decoded instructions of the program
+    * @return the hash
+    */
+   static int fingerprint(Instruction[] instructions) {
+      int hash = instructions.length;
+      for (Instruction in : instructions) {
+         hash = 31 * hash + in.opcode;
+         hash = 31 * hash + in.rd;
+         hash = 31 * hash + in.rs;
+         hash = 31 * hash + in.rt;
+         hash = 31 * hash + (in.rdImmediate ? 1 : 0) +
+                 (in.rsImmediate ? 2 : 0) + (in.rtImmediate ? 4 : 0);
+      }
+      return hash;
+   }
+
+   /**
+    * Checkpoint file header fields
+    */
+   private static final int MAGIC = 0x4d495043;
+   private static final short VERSION = 3;
+
+   /**
+    * Largest number of instructions executed before a shutdown request is
+    * noticed
+    */
+   private static final long POLL_INTERVAL = 1 << 16;
+
+   /**
+    * Seconds the shutdown hook waits for the final checkpoint
+    */
+   private static final long SHUTDOWN_WAIT = 10;
+
+   /**
+    * The checkpoint file
+    */
+   private final FileChannel channel;
+
+   /**
+    * Number of instructions between checkpoints, or 0 for none
+    */
+   private final long interval;
+
+   /**
+    * Instruction count at which the next checkpoint is taken
+    */
+   private long nextSave;
+
+   /**
+    * Hash of the program being simulated
+    */
+   private final int fingerprint;
+
+   /**
+    * Thread that writes the records
+    */
+   private final ExecutorService writer;
+
+   /**
+    * Shutdown hook that requests the final checkpoint
+    */
+   private final Thread hook;
+
+   /**
+    * True while the next record must hold every touched page
+    */
+   private boolean full;
+
+   /**
+    * Write of the last record
+    */
+   private Future<?> pending;
+
+   /**
+    * Number of records saved
+    */
+   private long saved;
+
+   /**
+    * Set by the shutdown hook to request a checkpoint
+    */
+   private volatile boolean requested;
+
+   /**
+    * Set once the simulation has finished
+    */
+   private volatile boolean finished;
+
+   /**
+    * Released once the checkpoint requested at shutdown is written, or the
+    * simulation has finished
+    */
+   private final CountDownLatch shutdownSaved = new CountDownLatch(1);
+}
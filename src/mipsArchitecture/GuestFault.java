@@ -0,0 +1,61 @@
+package mipsArchitecture;
+
+/**
+ * Error made by the simulated program, such as an unaligned memory access,
+ * a jump outside of the program, or an invalid system call. A fault stops
+ * the program, but not the simulator: the run ends with the FAULT status and
+ * the final state is still reported. The simulator locates the fault at the
+ * instruction that caused it when it knows which one that was.
+ */
+final class GuestFault extends IllegalStateException {
+   /**
+    * Constructs GuestFault object
+    *
+    * @param message description of the fault
+    */
+   GuestFault(String message) {
+      super(message);
+   }
+
+   /**
+    * Records the instruction that caused the fault, unless it is already
+    * known
+    *
+    * @param index index of the instruction
+    * @return this fault
+    */
+   GuestFault locate(int index) {
+      if (this.index < 0)
+         this.index = index;
+      return this;
+   }
+
+   /**
+    * Returns the index of the instruction that caused the fault
+    *
+    * @return the instruction index, or -1 if it is not known
+    */
+   int getIndex() { return index; }
+
+   /**
+    * Describes the fault, with the instruction number counted from 1 when
+    * it is known
+    *
+    * @return the description
+    */
+   String describe() {
+      return index < 0 ? getMessage()
+                       : "instruction #" + (index + 1) + ": " + getMessage();
+   }
+
+   /**
+    * Index of the instruction that caused the fault, or -1 if it is not
+    * known
+    */
+   private int index = -1;
+
+   /**
+    * Serialization version
+    */
+   private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,296 @@
+package mipsArchitecture;
+
+/**
+ * Decoded form of a single instruction.
+ * The machine words of a program are decoded once, before simulation
+ * begins, so that the stages of the simulator only ever work with fields
+ * that have already been extracted. Register operands are stored as
+ * register numbers, constants are stored as their values, and branch/jump
+ * targets are stored as indices into the decoded instruction array. The HI
+ * and LO registers are numbered 32 and 33, after the general purpose
+ * registers.
+ */
+final class Instruction {
+   /**
+    * Opcodes, numbered after the aluControl signal of the instruction
+    */
+   static final int J     = 1;
+   static final int BEQ   = 2;
+   static final int ADD   = 3;
+   static final int SUB   = 4;
+   static final int SW    = 5;
+   static final int LW    = 6;
+   static final int SLL   = 7;
+   static final int SRL   = 8;
+   static final int MUL   = 9;
+   static final int AND   = 10;
+   static final int OR    = 11;
+   static final int XOR   = 12;
+   static final int NOR   = 13;
+   static final int SRA   = 14;
+   static final int SLT   = 15;
+   static final int SLTU  = 16;
+   static final int BNE   = 17;
+   static final int BLEZ  = 18;
+   static final int BGTZ  = 19;
+   static final int BLTZ  = 20;
+   static final int BGEZ  = 21;
+   static final int JAL   = 22;
+   static final int JR    = 23;
+   static final int JALR  = 24;
+   static final int MULT  = 25;
+   static final int MULTU = 26;
+   static final int DIV   = 27;
+   static final int DIVU  = 28;
+   static final int MFHI  = 29;
+   static final int MFLO  = 30;
+   static final int MTHI  = 31;
+   static final int MTLO  = 32;
+   static final int LB    = 33;
+   static final int LBU   = 34;
+   static final int LH    = 35;
+   static final int LHU   = 36;
+   static final int SB    = 37;
+   static final int SH    = 38;
+   static final int SYSCALL = 39;
+   static final int LL    = 40;
+   static final int SC    = 41;
+
+   /**
+    * Instruction names, indexed by opcode
+    */
+   static final String[] NAMES = {
+      null, "j", "beq", "add", "sub", "sw", "lw", "sll", "srl", "mul", "and",
+      "or", "xor", "nor", "sra", "slt", "sltu", "bne", "blez", "bgtz", "bltz",
+      "bgez", "jal", "jr", "jalr", "mult", "multu", "div", "divu", "mfhi",
+      "mflo", "mthi", "mtlo", "lb", "lbu", "lh", "lhu", "sb", "sh", "syscall",
+      "ll", "sc"
+   };
+
+   /**
+    * Kinds of instruction, as found in KINDS
+    */
+   static final int BRANCH = 1;
+   static final int JUMP   = 2;
+   static final int LOAD   = 3;
+   static final int STORE  = 4;
+   static final int HI_LO  = 5;
+   static final int SYSTEM = 6;
+   static final int ATOMIC = 7;
+
+   /**
+    * Kind of each instruction, indexed by opcode, or 0 for an instruction
+    * that computes rd from rs and rt. Branches compare rd with rs and lead
+    * to rt, jumps lead to rt or to the address in rs, loads and stores
+    * access the address rs + rt, and HI_LO instructions write the HI and LO
+    * registers from rs and rt. A SYSTEM instruction, syscall, reads $v0,
+    * $a0, and $a1 as rd, rs, and rt, and writes its result to $v0. An
+    * ATOMIC instruction, sc, stores rd at the address rs + rt like a store,
+    * then writes rd with 1 if the store took place, or 0.
+    */
+   static final int[] KINDS = new int[NAMES.length];
+
+   static {
+      for (int opcode : new int[] { BEQ, BNE, BLEZ, BGTZ, BLTZ, BGEZ })
+         KINDS[opcode] = BRANCH;
+      for (int opcode : new int[] { J, JAL, JR, JALR })
+         KINDS[opcode] = JUMP;
+      for (int opcode : new int[] { LW, LB, LBU, LH, LHU, LL })
+         KINDS[opcode] = LOAD;
+      for (int opcode : new int[] { SW, SB, SH })
+         KINDS[opcode] = STORE;
+      for (int opcode : new int[] { MULT, MULTU, DIV, DIVU })
+         KINDS[opcode] = HI_LO;
+      KINDS[SYSCALL] = SYSTEM;
+      KINDS[SC] = ATOMIC;
+   }
+
+   /**
+    * Constructs Instruction object
+    *
+    * @param opcode the operation, one of the opcode constants
+    * @param rd destination register number, or value if rdImmediate is set
+    * @param rs 1st source register number, or value if rsImmediate is set
+    * @param rt 2nd source register number, or value if rtImmediate is set
+    * @param rdImmediate true if rd holds a constant instead of a register
+    * @param rsImmediate true if rs holds a constant instead of a register
+    * @param rtImmediate true if rt holds a constant instead of a register
+    */
+   Instruction(int opcode, int rd, int rs, int rt, boolean rdImmediate,
+               boolean rsImmediate, boolean rtImmediate) {
+      this.opcode = opcode;
+      this.rd = rd;
+      this.rs = rs;
+      this.rt = rt;
+      this.rdImmediate = rdImmediate;
+      this.rsImmediate = rsImmediate;
+      this.rtImmediate = rtImmediate;
+   }
+
+   /**
+    * Returns the kind of the instruction
+    *
+    * @return one of the kind constants, or 0 for a computation
+    */
+   int kind() {
+      return KINDS[opcode];
+   }
+
+   /**
+    * Checks whether the instruction is a jump, branch, or syscall, which
+    * ends a basic block
+    *
+    * @return true if the instruction may change the flow of control
+    */
+   boolean isControl() {
+      int kind = KINDS[opcode];
+      return kind == BRANCH || kind == JUMP || kind == SYSTEM;
+   }
+
+   /**
+    * Returns the instruction index a jump or branch leads to, when it is
+    * known before the program runs
+    *
+    * @return the target index, or -1 for jr, jalr, and other instructions
+    */
+   int target() {
+      int kind = KINDS[opcode];
+      return (kind == BRANCH || kind == JUMP) && opcode != JR &&
+              opcode != JALR ? rt : -1;
+   }
+
+   /**
+    * Returns the register the instruction writes, other than HI and LO
+    * written by mult and div
+    *
+    * @return the destination register number, or -1 if there is none
+    */
+   int destination() {
+      int kind = KINDS[opcode];
+      if (kind == BRANCH || kind == STORE || kind == HI_LO || rdImmediate ||
+              rd == 0)
+         return -1;
+      return rd;
+   }
+
+   /**
+    * Returns the name of an opcode
+    *
+    * @param opcode the opcode
+    * @return the instruction name, or "?" if the opcode is unknown
+    */
+   static String name(int opcode) {
+      return opcode > 0 && opcode < NAMES.length ? NAMES[opcode] : "?";
+   }
+
+   /**
+    * Returns the opcode of an instruction name
+    *
+    * @param name the instruction name
+    * @return the opcode, or -1 if the name is unknown
+    */
+   static int opcode(String name) {
+      for (int i = 1; i < NAMES.length; ++i)
+         if (NAMES[i].equals(name))
+            return i;
+      return -1;
+   }
+
+   /**
+    * Formats the instruction in assembly syntax. Jump and branch targets are
+    * shown as instruction numbers, counted from 1.
+    *
+    * @return the instruction text
+    */
+   @Override
+   public String toString() {
+      String name = name(opcode) + " ";
+      switch (opcode) {
+         case SYSCALL:
+            return "syscall";
+         case J:
+         case JAL:
+            return name + "#" + (rt + 1);
+         case JR:
+         case MTHI:
+         case MTLO:
+            return name + operand(rs, false);
+         case JALR:
+            return name + operand(rd, false) + ", " + operand(rs, false);
+         case MFHI:
+         case MFLO:
+            return name + operand(rd, false);
+         case BLEZ:
+         case BGTZ:
+         case BLTZ:
+         case BGEZ:
+            return name + operand(rd, false) + ", #" + (rt + 1);
+         default:
+            break;
+      }
+
+      switch (KINDS[opcode]) {
+         case BRANCH:
+            return name + operand(rd, rdImmediate) + ", " +
+                    operand(rs, rsImmediate) + ", #" + (rt + 1);
+         case LOAD:
+         case STORE:
+         case ATOMIC:
+            return name + operand(rd, rdImmediate) + ", " +
+                    operand(rs, rsImmediate) + "(" +
+                    operand(rt, rtImmediate) + ")";
+         case HI_LO:
+            return name + operand(rs, rsImmediate) + ", " +
+                    operand(rt, rtImmediate);
+         default:
+            if (opcode == SLL && rd == 0 && !rdImmediate && rsImmediate &&
+                    rtImmediate && rs == 0 && rt == 0)
+               return "nop";
+            if (opcode == SLL && !rdImmediate && rsImmediate &&
+                    rtImmediate && rt == 16)
+               return "lui " + operand(rd, false) + ", " + rs;
+            return name + operand(rd, rdImmediate) + ", " +
+                    operand(rs, rsImmediate) + ", " +
+                    operand(rt, rtImmediate);
+      }
+   }
+
+   /**
+    * Formats a register or constant operand
+    *
+    * @param value the register number, or the value of the constant
+    * @param immediate true if the operand is a constant
+    * @return the register name, or the constant
+    */
+   private static String operand(int value, boolean immediate) {
+      return immediate ? Integer.toString(value)
+                       : Simulator.REGISTER_NAMES[value];
+   }
+
+   /**
+    * The operation, one of the opcode constants
+    */
+   final int opcode;
+
+   /**
+    * Destination register number, or 1st register compared by a branch
+    */
+   final int rd;
+
+   /**
+    * 1st source register number, or constant
+    */
+   final int rs;
+
+   /**
+    * 2nd source register number, constant, or jump or branch target index
+    */
+   final int rt;
+
+   /**
+    * Flags that mark which of rd, rs, and rt hold constants
+    */
+   final boolean rdImmediate;
+   final boolean rsImmediate;
+   final boolean rtImmediate;
+}
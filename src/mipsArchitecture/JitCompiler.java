@@ -0,0 +1,652 @@
+package mipsArchitecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+
+/**
+ * Compiles hot basic blocks into JVM bytecode.
+ * Every block counts how many times it has been executed, and once a block
+ * reaches the compile threshold its body is translated into the run method
+ * of a new hidden class implementing Block.Op. The generated method works
+ * directly on the register file array, calls the memory for loads and
+ * stores and Operations for multiplies and divides, so HotSpot can optimize
+ * the simulated instructions like any other Java code. The bytecode of each
+ * operation is found in tables indexed by opcode. Before each load and
+ * store the method sets a local variable to the index of the instruction,
+ * and a handler locates a fault raised by the memory at that instruction,
+ * which costs nothing until a fault is thrown. Blocks that are too
+ * long, or that fail to compile, keep running their translated operations.
+ */
+final class JitCompiler {
+   /**
+    * Default number of executions after which a block is compiled
+    */
+   static final int DEFAULT_THRESHOLD = 1000;
+
+   /**
+    * Largest block body that is compiled. Longer methods would not be
+    * compiled further by HotSpot, so there is no gain in generating them.
+    */
+   static final int MAX_INSTRUCTIONS = 400;
+
+   /**
+    * Constructs JitCompiler object
+    *
+    * @param instructions decoded instructions of the program
+    * @param threshold number of executions after which a block is compiled
+    */
+   JitCompiler(Instruction[] instructions, int threshold) {
+      this.instructions = instructions;
+      this.threshold = threshold;
+   }
+
+   /**
+    * Counts an execution of the block, and compiles the block once it
+    * reaches the compile threshold
+    *
+    * @param block the block just executed
+    */
+   void executed(Block block) {
+      if (++block.executions != threshold)
+         return;
+
+      int length = block.bodyEnd() - block.start;
+      if (length == 0)
+         return;
+      if (length > MAX_INSTRUCTIONS) {
+         ++skipped;
+         return;
+      }
+
+      try {
+         byte[] bytes = generate(block.start, block.bodyEnd());
+         MethodHandles.Lookup hidden =
+                 MethodHandles.lookup().defineHiddenClass(bytes, true);
+         Block.Op op = (Block.Op) hidden.lookupClass()
+                 .getDeclaredConstructor().newInstance();
+         block.compiled(op);
+         ++compiled;
+      } catch (IOException | ReflectiveOperationException | LinkageError |
+               IllegalArgumentException e) {
+         ++failed;
+      }
+   }
+
+   /**
+    * Formats the compiler statistics for display
+    *
+    * @return the statistics
+    */
+   String statistics() {
+      return String.format("JIT: %d blocks compiled, %d too long, " +
+              "%d failed (threshold %d)", compiled, skipped, failed,
+              threshold);
+   }
+
+   /**
+    * Generates a class file implementing Block.Op for the given instructions
+    *
+    * @param start index of the first instruction to compile
+    * @param end index of the instruction following the last one to compile
+    * @return the class file
+    * @throws IOException never, as the class file is written to memory
+    */
+   private byte[] generate(int start, int end) throws IOException {
+      constants.clear();
+      pool.reset();
+      poolCount = 1;
+      code.reset();
+
+      constant(start);
+      code.write(ISTORE_3);
+      int tryStart = code.size();
+      for (int i = start; i < end; ++i) {
+         int kind = instructions[i].kind();
+         if (kind == Instruction.LOAD || kind == Instruction.STORE ||
+                 kind == Instruction.ATOMIC) {
+            constant(i);
+            code.write(ISTORE_3);
+         }
+         emit(instructions[i]);
+      }
+      code.write(RETURN);
+
+      // throw fault.locate(index)
+      int handler = code.size();
+      int fault = classRef("mipsArchitecture/GuestFault");
+      code.write(ILOAD_3);
+      int locate = methodRef(fault, "locate",
+              "(I)LmipsArchitecture/GuestFault;");
+      code.write(INVOKEVIRTUAL);
+      code.write(locate >> 8);
+      code.write(locate);
+      code.write(ATHROW);
+
+      int thisClass = classRef("mipsArchitecture/CompiledBlock");
+      int superClass = classRef("java/lang/Object");
+      int opInterface = classRef("mipsArchitecture/Block$Op");
+      int objectInit = methodRef(superClass, "<init>", "()V");
+      int codeName = utf8("Code");
+      int initName = utf8("<init>");
+      int initType = utf8("()V");
+      int runName = utf8("run");
+      int runType = utf8("([ILmipsArchitecture/Memory;)V");
+
+      // the handler of faults, and the stack map frame at its start
+      ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+      DataOutputStream tables = new DataOutputStream(tableBytes);
+      tables.writeShort(1);
+      tables.writeShort(tryStart);
+      tables.writeShort(handler);
+      tables.writeShort(handler);
+      tables.writeShort(fault);
+      tables.writeShort(1);
+      tables.writeShort(utf8("StackMapTable"));
+      tables.writeInt(22);
+      tables.writeShort(1);
+      tables.writeByte(FULL_FRAME);
+      tables.writeShort(handler);
+      tables.writeShort(4);
+      tables.writeByte(ITEM_OBJECT);
+      tables.writeShort(thisClass);
+      tables.writeByte(ITEM_OBJECT);
+      tables.writeShort(classRef("[I"));
+      tables.writeByte(ITEM_OBJECT);
+      tables.writeShort(classRef("mipsArchitecture/Memory"));
+      tables.writeByte(ITEM_INTEGER);
+      tables.writeShort(1);
+      tables.writeByte(ITEM_OBJECT);
+      tables.writeShort(fault);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(61);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(opInterface);
+      out.writeShort(0);
+
+      out.writeShort(2);
+
+      byte[] init = { ALOAD_0, (byte) INVOKESPECIAL,
+                      (byte) (objectInit >> 8), (byte) objectInit, RETURN };
+      writeMethod(out, initName, initType, codeName, 1, 1, init,
+              new byte[4]);
+      writeMethod(out, runName, runType, codeName, MAX_STACK, 4,
+              code.toByteArray(), tableBytes.toByteArray());
+
+      out.writeShort(0);
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Writes a public method with a Code attribute to the class file
+    *
+    * @param out the class file
+    * @param name constant pool index of the method name
+    * @param type constant pool index of the method descriptor
+    * @param codeName constant pool index of "Code"
+    * @param maxStack maximum operand stack depth
+    * @param maxLocals number of local variable slots
+    * @param body the bytecode
+    * @param tables the exception table and the attributes of the code,
+    *               each preceded by its entry count
+    * @throws IOException never, as the class file is written to memory
+    */
+   private static void writeMethod(DataOutputStream out, int name, int type,
+                                   int codeName, int maxStack, int maxLocals,
+                                   byte[] body, byte[] tables)
+           throws IOException {
+      out.writeShort(ACC_PUBLIC);
+      out.writeShort(name);
+      out.writeShort(type);
+      out.writeShort(1);
+      out.writeShort(codeName);
+      out.writeInt(8 + body.length + tables.length);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(body.length);
+      out.write(body);
+      out.write(tables);
+   }
+
+   /**
+    * Emits the bytecode for a single instruction. Local variable 1 holds the
+    * register file and local variable 2 holds the memory.
+    *
+    * @param in the decoded instruction
+    * @throws IllegalArgumentException if the instruction cannot be compiled
+    */
+   private void emit(Instruction in) {
+      int opcode = in.opcode;
+      switch (in.kind()) {
+         case Instruction.STORE:
+            // m.storeWord(rs + rt, rd)
+            code.write(ALOAD_2);
+            address(in);
+            operand(in.rd, in.rdImmediate);
+            invokeMemory(MEMORY_METHODS[opcode], "(II)V");
+            return;
+
+         case Instruction.LOAD:
+            // r[rd] = m.loadWord(rs + rt), or a load for its side effects
+            boolean discard = in.rdImmediate || in.rd == 0;
+            if (!discard) {
+               code.write(ALOAD_1);
+               constant(in.rd);
+            }
+            code.write(ALOAD_2);
+            address(in);
+            invokeMemory(MEMORY_METHODS[opcode], "(I)I");
+            if (EXTENSIONS[opcode] != 0)
+               code.write(EXTENSIONS[opcode]);
+            code.write(discard ? POP : IASTORE);
+            return;
+
+         case Instruction.ATOMIC:
+            // r[rd] = m.storeConditional(rs + rt, rd)
+            boolean ignored = in.rdImmediate || in.rd == 0;
+            if (!ignored) {
+               code.write(ALOAD_1);
+               constant(in.rd);
+            }
+            code.write(ALOAD_2);
+            address(in);
+            operand(in.rd, in.rdImmediate);
+            invokeMemory(MEMORY_METHODS[opcode], "(II)I");
+            code.write(ignored ? POP : IASTORE);
+            return;
+
+         case Instruction.HI_LO:
+            // Operations.hiLo(r, opcode, rs, rt)
+            code.write(ALOAD_1);
+            constant(opcode);
+            operand(in.rs, in.rsImmediate);
+            operand(in.rt, in.rtImmediate);
+            invokeStatic("mipsArchitecture/Operations", "hiLo", "([IIII)V");
+            return;
+
+         case 0:
+            break;
+
+         default:
+            throw new IllegalArgumentException("Cannot compile " + in);
+      }
+
+      if (in.rdImmediate || in.rd == 0)
+         return;
+
+      // r[rd] = rs op rt
+      code.write(ALOAD_1);
+      constant(in.rd);
+      operand(in.rs, in.rsImmediate);
+      switch (opcode) {
+         case Instruction.MFHI:
+         case Instruction.MFLO:
+         case Instruction.MTHI:
+         case Instruction.MTLO:
+            break;
+
+         case Instruction.NOR:
+            operand(in.rt, in.rtImmediate);
+            code.write(IOR);
+            constant(-1);
+            code.write(IXOR);
+            break;
+
+         case Instruction.SLT:
+         case Instruction.SLTU:
+            // the sign bit of the comparison
+            operand(in.rt, in.rtImmediate);
+            invokeStatic("java/lang/Integer", opcode == Instruction.SLT
+                    ? "compare" : "compareUnsigned", "(II)I");
+            constant(31);
+            code.write(IUSHR);
+            break;
+
+         default:
+            if (BYTECODES[opcode] == 0)
+               throw new IllegalArgumentException("Cannot compile " + in);
+            operand(in.rt, in.rtImmediate);
+            code.write(BYTECODES[opcode]);
+            break;
+      }
+      code.write(IASTORE);
+   }
+
+   /**
+    * Emits a call to a method of the memory, whose receiver and arguments
+    * are already on the stack
+    *
+    * @param name the method name
+    * @param type the method descriptor
+    */
+   private void invokeMemory(String name, String type) {
+      int method = methodRef(classRef("mipsArchitecture/Memory"), name, type);
+      code.write(INVOKEVIRTUAL);
+      code.write(method >> 8);
+      code.write(method);
+   }
+
+   /**
+    * Emits a call to a static method, whose arguments are already on the
+    * stack
+    *
+    * @param owner the internal name of the class owning the method
+    * @param name the method name
+    * @param type the method descriptor
+    */
+   private void invokeStatic(String owner, String name, String type) {
+      int method = methodRef(classRef(owner), name, type);
+      code.write(INVOKESTATIC);
+      code.write(method >> 8);
+      code.write(method);
+   }
+
+   /**
+    * Emits the bytecode that pushes the byte address rs + rt
+    *
+    * @param in the decoded load or store
+    */
+   private void address(Instruction in) {
+      operand(in.rs, in.rsImmediate);
+      operand(in.rt, in.rtImmediate);
+      code.write(IADD);
+   }
+
+   /**
+    * Emits the bytecode that pushes the value of a register or constant
+    * operand
+    *
+    * @param value the register number, or the value of the constant
+    * @param immediate true if the operand is a constant
+    */
+   private void operand(int value, boolean immediate) {
+      if (immediate) {
+         constant(value);
+      }
+      else if (value == 0) {
+         code.write(ICONST_0);
+      }
+      else {
+         code.write(ALOAD_1);
+         constant(value);
+         code.write(IALOAD);
+      }
+   }
+
+   /**
+    * Emits the shortest bytecode that pushes the given int constant
+    *
+    * @param value the constant
+    */
+   private void constant(int value) {
+      if (value >= -1 && value <= 5) {
+         code.write(ICONST_0 + value);
+      }
+      else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+         code.write(BIPUSH);
+         code.write(value);
+      }
+      else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+         code.write(SIPUSH);
+         code.write(value >> 8);
+         code.write(value);
+      }
+      else {
+         int index = integer(value);
+         code.write(LDC_W);
+         code.write(index >> 8);
+         code.write(index);
+      }
+   }
+
+   /**
+    * Adds a CONSTANT_Utf8 entry to the constant pool
+    *
+    * @param text the string
+    * @return the constant pool index
+    */
+   private int utf8(String text) {
+      Integer index = constants.get("U" + text);
+      if (index != null)
+         return index;
+
+      poolBytes.reset();
+      try {
+         poolData.writeUTF(text);
+      } catch (IOException ioe) {
+         throw new IllegalStateException(ioe);
+      }
+      pool.write(CONSTANT_UTF8);
+      pool.write(poolBytes.toByteArray(), 0, poolBytes.size());
+      return add("U" + text);
+   }
+
+   /**
+    * Adds a CONSTANT_Integer entry to the constant pool
+    *
+    * @param value the constant
+    * @return the constant pool index
+    */
+   private int integer(int value) {
+      Integer index = constants.get("I" + value);
+      if (index != null)
+         return index;
+
+      pool.write(CONSTANT_INTEGER);
+      pool.write(value >>> 24);
+      pool.write(value >>> 16);
+      pool.write(value >>> 8);
+      pool.write(value);
+      return add("I" + value);
+   }
+
+   /**
+    * Adds a CONSTANT_Class entry to the constant pool
+    *
+    * @param name the internal name of the class
+    * @return the constant pool index
+    */
+   private int classRef(String name) {
+      Integer index = constants.get("C" + name);
+      if (index != null)
+         return index;
+
+      int nameIndex = utf8(name);
+      pool.write(CONSTANT_CLASS);
+      writeIndex(nameIndex);
+      return add("C" + name);
+   }
+
+   /**
+    * Adds a CONSTANT_Methodref entry to the constant pool
+    *
+    * @param owner constant pool index of the class owning the method
+    * @param name the method name
+    * @param type the method descriptor
+    * @return the constant pool index
+    */
+   private int methodRef(int owner, String name, String type) {
+      Integer index = constants.get("M" + owner + name + type);
+      if (index != null)
+         return index;
+
+      int nameIndex = utf8(name);
+      int typeIndex = utf8(type);
+      pool.write(CONSTANT_NAME_AND_TYPE);
+      writeIndex(nameIndex);
+      writeIndex(typeIndex);
+      int nameAndType = add("N" + name + type);
+
+      pool.write(CONSTANT_METHODREF);
+      writeIndex(owner);
+      writeIndex(nameAndType);
+      return add("M" + owner + name + type);
+   }
+
+   /**
+    * Writes a 2-byte constant pool index to the constant pool
+    *
+    * @param index the index
+    */
+   private void writeIndex(int index) {
+      pool.write(index >> 8);
+      pool.write(index);
+   }
+
+   /**
+    * Records the constant pool entry just written
+    *
+    * @param key key identifying the entry
+    * @return the constant pool index of the entry
+    */
+   private int add(String key) {
+      constants.put(key, poolCount);
+      return poolCount++;
+   }
+
+   /**
+    * Class file constants
+    */
+   private static final int CONSTANT_UTF8 = 1;
+   private static final int CONSTANT_INTEGER = 3;
+   private static final int CONSTANT_CLASS = 7;
+   private static final int CONSTANT_METHODREF = 10;
+   private static final int CONSTANT_NAME_AND_TYPE = 12;
+   private static final int ACC_PUBLIC = 0x0001;
+   private static final int ACC_FINAL = 0x0010;
+   private static final int ACC_SUPER = 0x0020;
+   private static final int MAX_STACK = 6;
+   private static final int FULL_FRAME = 255;
+   private static final int ITEM_INTEGER = 1;
+   private static final int ITEM_OBJECT = 7;
+
+   /**
+    * Opcodes of the bytecode instructions that are generated
+    */
+   private static final int ICONST_0 = 0x03;
+   private static final int BIPUSH = 0x10;
+   private static final int SIPUSH = 0x11;
+   private static final int LDC_W = 0x13;
+   private static final int ILOAD_3 = 0x1d;
+   private static final byte ALOAD_0 = 0x2a;
+   private static final int ALOAD_1 = 0x2b;
+   private static final int ALOAD_2 = 0x2c;
+   private static final int IALOAD = 0x2e;
+   private static final int ISTORE_3 = 0x3e;
+   private static final int IASTORE = 0x4f;
+   private static final int POP = 0x57;
+   private static final int IADD = 0x60;
+   private static final int ISUB = 0x64;
+   private static final int IMUL = 0x68;
+   private static final int ISHL = 0x78;
+   private static final int ISHR = 0x7a;
+   private static final int IUSHR = 0x7c;
+   private static final int IAND = 0x7e;
+   private static final int IOR = 0x80;
+   private static final int IXOR = 0x82;
+   private static final int I2B = 0x91;
+   private static final int I2S = 0x93;
+   private static final byte RETURN = (byte) 0xb1;
+   private static final int INVOKEVIRTUAL = 0xb6;
+   private static final int INVOKESPECIAL = 0xb7;
+   private static final int INVOKESTATIC = 0xb8;
+   private static final int ATHROW = 0xbf;
+
+   /**
+    * Bytecode instruction of each computation that has one, indexed by
+    * opcode, or 0
+    */
+   private static final int[] BYTECODES = new int[Instruction.NAMES.length];
+
+   /**
+    * Memory method called by each load and store, indexed by opcode
+    */
+   private static final String[] MEMORY_METHODS =
+           new String[Instruction.NAMES.length];
+
+   /**
+    * Bytecode instruction that sign-extends the value of each load, indexed
+    * by opcode, or 0 if the value is used as is
+    */
+   private static final int[] EXTENSIONS = new int[Instruction.NAMES.length];
+
+   static {
+      BYTECODES[Instruction.ADD] = IADD;
+      BYTECODES[Instruction.SUB] = ISUB;
+      BYTECODES[Instruction.MUL] = IMUL;
+      BYTECODES[Instruction.SLL] = ISHL;
+      BYTECODES[Instruction.SRL] = IUSHR;
+      BYTECODES[Instruction.SRA] = ISHR;
+      BYTECODES[Instruction.AND] = IAND;
+      BYTECODES[Instruction.OR] = IOR;
+      BYTECODES[Instruction.XOR] = IXOR;
+
+      MEMORY_METHODS[Instruction.LW] = "loadWord";
+      MEMORY_METHODS[Instruction.LH] = "loadHalf";
+      MEMORY_METHODS[Instruction.LHU] = "loadHalf";
+      MEMORY_METHODS[Instruction.LB] = "loadByte";
+      MEMORY_METHODS[Instruction.LBU] = "loadByte";
+      MEMORY_METHODS[Instruction.LL] = "loadLinked";
+      MEMORY_METHODS[Instruction.SW] = "storeWord";
+      MEMORY_METHODS[Instruction.SH] = "storeHalf";
+      MEMORY_METHODS[Instruction.SB] = "storeByte";
+      MEMORY_METHODS[Instruction.SC] = "storeConditional";
+
+      EXTENSIONS[Instruction.LH] = I2S;
+      EXTENSIONS[Instruction.LB] = I2B;
+   }
+
+   /**
+    * Decoded instructions of the program
+    */
+   private Instruction[] instructions;
+
+   /**
+    * Number of executions after which a block is compiled
+    */
+   private int threshold;
+
+   /**
+    * Constant pool of the class being generated
+    */
+   private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+   /**
+    * Index of each constant pool entry, keyed by its kind and contents
+    */
+   private HashMap<String, Integer> constants = new HashMap<>();
+
+   /**
+    * Index of the next constant pool entry
+    */
+   private int poolCount;
+
+   /**
+    * Scratch space for encoding constant pool strings
+    */
+   private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+   private DataOutputStream poolData = new DataOutputStream(poolBytes);
+
+   /**
+    * Bytecode of the run method being generated
+    */
+   private ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+   /**
+    * Blocks compiled, skipped for their length, and failed to compile
+    */
+   private long compiled;
+   private long skipped;
+   private long failed;
+}
@@ -0,0 +1,197 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the latency and throughput of a SimulationServer by sending the
+ * same program many times over several connections at once. Each
+ * connection has its own thread, which sends its share of the requests one
+ * after another and records how long each took to be answered. Once every
+ * request is answered the throughput, the latency percentiles, and the
+ * server's metrics are printed.
+ */
+public final class LoadGenerator {
+   /**
+    * Main method accepts the address of the server and the file path of a
+    * program, as well as an optional number of requests using the flag '-n',
+    * an optional number of connections using the flag '-c', and an optional
+    * input file for the program's system calls using the flag '-in'
+    *
+    * @param args the command line arguments
+    */
+   public static void main(String[] args) {
+      if (args.length < 2 || args.length % 2 != 0) {
+         printUsage();
+         return;
+      }
+
+      int requests = DEFAULT_REQUESTS;
+      int connections = DEFAULT_CONNECTIONS;
+      Path input = null;
+      try {
+         for (int i = 2; i < args.length; i += 2) {
+            switch (args[i]) {
+               case "-n":  requests = Integer.parseInt(args[i + 1]); break;
+               case "-c":  connections = Integer.parseInt(args[i + 1]); break;
+               case "-in": input = Paths.get(args[i + 1]); break;
+               default:
+                  printUsage();
+                  return;
+            }
+         }
+      } catch (NumberFormatException nfe) {
+         printUsage();
+         return;
+      }
+      if (requests < 1 || connections < 1) {
+         printUsage();
+         return;
+      }
+
+      try {
+         Protocol.Request request =
+                 Protocol.Request.program(Paths.get(args[1]), input, 0, 0);
+         run(args[0], request, requests, Math.min(connections, requests));
+      } catch (NoSuchFileException nsfe) {
+         System.err.println("\nFile not found, please try again and ensure " +
+                 "the file path is typed correctly.\n");
+      } catch (IOException ioe) {
+         System.err.println("\nLoad error: " + ioe.getMessage() + "\n");
+      }
+   }
+
+   /**
+    * Sends the requests over the connections and prints the results
+    *
+    * @param address the address of the server
+    * @param request the request sent every time
+    * @param requests number of requests
+    * @param connections number of connections
+    * @throws IOException if the server cannot be reached or answers a
+    *                     request with an error
+    */
+   private static void run(String address, Protocol.Request request,
+                           int requests, int connections) throws IOException {
+      ExecutorService executor = Executors.newFixedThreadPool(connections);
+      long[] latencies = new long[requests];
+      long begin = System.nanoTime();
+      try {
+         List<Future<Integer>> runs = new ArrayList<>();
+         for (int c = 0; c < connections; ++c) {
+            int first = (int) ((long) requests * c / connections);
+            int last = (int) ((long) requests * (c + 1) / connections);
+            Callable<Integer> run =
+                    () -> send(address, request, latencies, first, last);
+            runs.add(executor.submit(run));
+         }
+         int failures = 0;
+         for (Future<Integer> run : runs)
+            failures += run.get();
+         long elapsed = System.nanoTime() - begin;
+
+         Arrays.sort(latencies);
+         System.out.printf("%d requests over %d connections in %.3f s, " +
+                 "%.0f requests/s, %d did not halt\n", requests, connections,
+                 elapsed / 1e9, requests / (elapsed / 1e9), failures);
+         System.out.printf("Latency: p50 %.1f us, p90 %.1f us, " +
+                 "p99 %.1f us, max %.1f us\n",
+                 percentile(latencies, 50) / 1e3,
+                 percentile(latencies, 90) / 1e3,
+                 percentile(latencies, 99) / 1e3,
+                 latencies[requests - 1] / 1e3);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted", ie);
+      } catch (ExecutionException ee) {
+         Throwable cause = ee.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new IllegalStateException(cause.getMessage(), cause);
+      } finally {
+         executor.shutdownNow();
+      }
+
+      try (Protocol.Connection connection = Protocol.connect(address)) {
+         System.out.println(
+                 connection.send(Protocol.Request.stats()).message);
+      }
+   }
+
+   /**
+    * Sends requests one after another over one connection, recording the
+    * latency of each
+    *
+    * @param address the address of the server
+    * @param request the request
+    * @param latencies latency of each request in nanoseconds, filled in from
+    *                  first up to last
+    * @param first index of the first request
+    * @param last index after the last request
+    * @return number of runs that did not halt
+    * @throws IOException if the server cannot be reached or answers with an
+    *                     error
+    */
+   private static int send(String address, Protocol.Request request,
+                           long[] latencies, int first, int last)
+           throws IOException {
+      int failures = 0;
+      try (Protocol.Connection connection = Protocol.connect(address)) {
+         for (int i = first; i < last; ++i) {
+            long start = System.nanoTime();
+            Protocol.Response response = connection.send(request);
+            latencies[i] = System.nanoTime() - start;
+            if (response.status == Protocol.ERROR)
+               throw new IOException("Server error: " + response.message);
+            if (response.status != Machine.HALTED)
+               ++failures;
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * Returns a percentile of sorted values, by the nearest-rank method
+    *
+    * @param sorted values in ascending order
+    * @param percent the percentile
+    * @return the value
+    */
+   private static long percentile(long[] sorted, int percent) {
+      int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+      return sorted[Math.max(rank, 1) - 1];
+   }
+
+   /**
+    * Constructs LoadGenerator object
+    */
+   private LoadGenerator() { }
+
+   /**
+    * Prints the expected command line arguments
+    */
+   private static void printUsage() {
+      System.err.println("\nWrong number of args, please try again.");
+      System.err.println("Example: java mipsArchitecture.LoadGenerator " +
+            "<port|host:port|/path/to/socket> <d:/path/to/program> " +
+            "<-n requests> (for an optional number of requests) " +
+            "<-c connections> (for an optional number of connections) " +
+            "<-in file> (for optional input of system calls)");
+   }
+
+   /**
+    * Default number of requests and of connections
+    */
+   private static final int DEFAULT_REQUESTS = 10000;
+   private static final int DEFAULT_CONNECTIONS = 4;
+}
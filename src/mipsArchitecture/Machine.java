@@ -0,0 +1,472 @@
+package mipsArchitecture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A simulated MIPS machine for programs that embed the simulator, such as
+ * test harnesses that run many short programs without launching a JVM for
+ * each. A Machine holds one assembled program, which may be given as source
+ * text, as lines already split into tokens, or as a program image, and runs
+ * it under the caller's control: a number of instructions at a time with
+ * step(), up to a breakpoint with runUntil(), or to the end with run().
+ * reset() starts the program over from its initial registers and memory,
+ * without assembling it again.
+ *
+ * Nothing is printed: the program's system calls read the input given to
+ * reset() and write to a buffer returned by getOutput(), and the registers
+ * and memory are read and written through typed accessors. Addresses are
+ * byte addresses, with the instruction at index i of the program at
+ * Program.TEXT_BASE + 4 * i, and labels may name either kind of address.
+ * A Machine is not thread-safe, but machines share nothing, so any number
+ * of them may run on different threads.
+ */
+public final class Machine {
+   /**
+    * Ways a call that runs the program returns: the program can go on
+    * running, halted by running past its last instruction or calling exit,
+    * reached the step limit, reached the time limit, faulted, or reached the
+    * breakpoint
+    */
+   public static final int RUNNING = Simulator.RUNNING;
+   public static final int HALTED = Simulator.HALTED;
+   public static final int STEP_LIMIT = Simulator.STEP_LIMIT;
+   public static final int TIMEOUT = Simulator.TIMEOUT;
+   public static final int FAULT = Simulator.FAULT;
+   public static final int BREAKPOINT = Simulator.BREAKPOINT;
+
+   /**
+    * Assembles a program from its source text
+    *
+    * @param source the assembly source, as in a .asm file
+    * @return the machine, ready to run the program
+    * @throws IllegalArgumentException if the source has invalid
+    *                                  instructions
+    */
+   public static Machine assemble(String source) {
+      return new Machine(Assembler.assemble(source));
+   }
+
+   /**
+    * Assembles a program from lines that are already split into tokens, as
+    * the assembler would split them: a memory operand such as 4($t0) is the
+    * two tokens 4 and $t0, and a line may begin with labels, each a token
+    * ending in a colon
+    *
+    * @param lines the tokens of each line
+    * @return the machine, ready to run the program
+    * @throws IllegalArgumentException if a line is not a valid instruction
+    */
+   public static Machine assemble(List<? extends List<String>> lines) {
+      return new Machine(Assembler.assemble(lines));
+   }
+
+   /**
+    * Loads a program from the bytes of a program image, as written with the
+    * flag -w
+    *
+    * @param image the bytes of the image
+    * @return the machine, ready to run the program
+    * @throws IllegalArgumentException if the bytes are not a valid image
+    */
+   public static Machine load(byte[] image) {
+      try {
+         return new Machine(ProgramImage.read(image));
+      } catch (IOException ioe) {
+         throw new IllegalArgumentException(ioe.getMessage(), ioe);
+      }
+   }
+
+   /**
+    * Constructs Machine object
+    *
+    * @param program assembled program
+    */
+   Machine(Program program) {
+      this.program = program;
+      this.memory = Simulator.initialMemory(program);
+      reset(null);
+   }
+
+   /**
+    * Stops runaway programs
+    *
+    * @param steps number of instructions since the last reset after which
+    *              the program is stopped, or 0 for no limit
+    * @param millis wall time in milliseconds a call may run the program for
+    *               before it is stopped, or 0 for no limit
+    */
+   public void setLimits(long steps, long millis) {
+      this.steps = steps;
+      this.millis = millis;
+      mips.useLimits(steps, 0);
+   }
+
+   /**
+    * Starts the program over with no input
+    */
+   public void reset() {
+      reset(null);
+   }
+
+   /**
+    * Starts the program over from its first instruction, with the initial
+    * registers and memory, and empty output
+    *
+    * @param input the text read by the program's system calls, or null to
+    *              give it no input
+    */
+   public void reset(String input) {
+      mips = new Simulator(program, false, memory.fork());
+      mips.useLimits(steps, 0);
+      output.reset();
+      mips.useSyscalls(Syscalls.channels(input == null ? null
+              : Channels.newChannel(new ByteArrayInputStream(
+                      input.getBytes(StandardCharsets.US_ASCII))),
+              Channels.newChannel(output)));
+   }
+
+   /**
+    * Executes at most the given number of instructions
+    *
+    * @param count number of instructions to execute
+    * @return RUNNING if every instruction executed and the program can go
+    *         on running, otherwise how it stopped
+    */
+   public int step(long count) {
+      if (count <= 0 || stopped())
+         return mips.getStatus();
+      return mips.run(count, deadline());
+   }
+
+   /**
+    * Runs the program until it halts, reaches a limit, or faults
+    *
+    * @return how the program stopped
+    */
+   public int run() {
+      return step(Long.MAX_VALUE);
+   }
+
+   /**
+    * Runs the program until it is about to execute the instruction at the
+    * given address. The instruction the program is stopped at, if any, is
+    * executed first, so that a breakpoint in a loop stops the program on
+    * every iteration.
+    *
+    * @param address byte address of the instruction
+    * @return BREAKPOINT if the program reached the instruction, otherwise
+    *         how it stopped
+    * @throws IllegalArgumentException if the address is not that of an
+    *                                  instruction of the program
+    */
+   public int runUntil(int address) {
+      int index = index(address);
+      if (stopped())
+         return mips.getStatus();
+      if (mips.getPc() == index && step(1) != RUNNING)
+         return mips.getStatus();
+
+      mips.useBreakpoint(index);
+      try {
+         return mips.run(Long.MAX_VALUE, deadline());
+      } finally {
+         mips.useBreakpoint(-1);
+      }
+   }
+
+   /**
+    * Runs the program until it is about to execute the instruction at a
+    * label, as runUntil(int) does
+    *
+    * @param label the label of the instruction
+    * @return BREAKPOINT if the program reached the instruction, otherwise
+    *         how it stopped
+    * @throws IllegalArgumentException if the label does not name an
+    *                                  instruction
+    */
+   public int runUntil(String label) {
+      return runUntil(address(label));
+   }
+
+   /**
+    * Returns how the last call that ran the program returned
+    *
+    * @return RUNNING, HALTED, STEP_LIMIT, TIMEOUT, FAULT, or BREAKPOINT
+    */
+   public int getStatus() { return mips.getStatus(); }
+
+   /**
+    * Describes the fault that stopped the program
+    *
+    * @return the description, or null if the program did not fault
+    */
+   public String getFault() {
+      GuestFault fault = mips.getFault();
+      return fault == null ? null : fault.describe();
+   }
+
+   /**
+    * Checks whether the program has halted through exit or exit2
+    *
+    * @return true if the program has exited
+    */
+   public boolean hasExited() { return mips.getSyscalls().hasExited(); }
+
+   /**
+    * Returns the exit code passed to exit2, or 0 after exit
+    *
+    * @return the exit code
+    */
+   public int getExitCode() { return mips.getSyscalls().getExitCode(); }
+
+   /**
+    * Returns the number of instructions executed since the last reset
+    *
+    * @return the number of instructions executed
+    */
+   public long getInstructionCount() { return mips.getInstructionCount(); }
+
+   /**
+    * Returns the text written by the program's system calls since the last
+    * reset
+    *
+    * @return the output
+    */
+   public String getOutput() {
+      return output.toString(StandardCharsets.US_ASCII);
+   }
+
+   /**
+    * Returns the address of the next instruction to execute
+    *
+    * @return byte address of the instruction
+    */
+   public int getPc() { return Program.TEXT_BASE + 4 * mips.getPc(); }
+
+   /**
+    * Returns the address a label names
+    *
+    * @param label the label, of an instruction or of data, in any case
+    * @return the byte address
+    * @throws IllegalArgumentException if the program has no such label
+    */
+   public int address(String label) {
+      label = label.toLowerCase(Locale.ROOT);
+      Integer index = program.symbols.get(label);
+      if (index != null)
+         return Program.TEXT_BASE + 4 * index;
+      Integer address = program.dataSymbols.get(label);
+      if (address == null)
+         throw new IllegalArgumentException("Unknown label " + label);
+      return address;
+   }
+
+   /**
+    * Returns the value of a register
+    *
+    * @param number the register number, with HI and LO following the 32
+    *               general purpose registers
+    * @return the value
+    */
+   public int getRegister(int number) {
+      return mips.getRegister(register(number));
+   }
+
+   /**
+    * Returns the value of a register
+    *
+    * @param name the register name, as in $t0, $8, $hi, or $lo
+    * @return the value
+    * @throws IllegalArgumentException if the name is not a register
+    */
+   public int getRegister(String name) {
+      return mips.getRegister(register(name));
+   }
+
+   /**
+    * Sets the value of a register. Writes to $zero are ignored.
+    *
+    * @param number the register number, with HI and LO following the 32
+    *               general purpose registers
+    * @param value the value
+    */
+   public void setRegister(int number, int value) {
+      if (register(number) != 0)
+         mips.setRegister(number, value);
+   }
+
+   /**
+    * Sets the value of a register. Writes to $zero are ignored.
+    *
+    * @param name the register name, as in $t0, $8, $hi, or $lo
+    * @param value the value
+    * @throws IllegalArgumentException if the name is not a register
+    */
+   public void setRegister(String name, int value) {
+      setRegister(register(name), value);
+   }
+
+   /**
+    * Reads a word of memory
+    *
+    * @param address byte address, a multiple of 4
+    * @return the word
+    * @throws IllegalStateException if the address is not aligned
+    */
+   public int loadWord(int address) {
+      return mips.getMemory().loadWord(address);
+   }
+
+   /**
+    * Writes a word of memory
+    *
+    * @param address byte address, a multiple of 4
+    * @param value the word
+    * @throws IllegalStateException if the address is not aligned
+    */
+   public void storeWord(int address, int value) {
+      mips.getMemory().storeWord(address, value);
+   }
+
+   /**
+    * Reads a halfword of memory, without sign extension
+    *
+    * @param address byte address, a multiple of 2
+    * @return the halfword, from 0 to 65535
+    * @throws IllegalStateException if the address is not aligned
+    */
+   public int loadHalf(int address) {
+      return mips.getMemory().loadHalf(address);
+   }
+
+   /**
+    * Writes a halfword of memory
+    *
+    * @param address byte address, a multiple of 2
+    * @param value the halfword, in the low 16 bits
+    * @throws IllegalStateException if the address is not aligned
+    */
+   public void storeHalf(int address, int value) {
+      mips.getMemory().storeHalf(address, value);
+   }
+
+   /**
+    * Reads a byte of memory, without sign extension
+    *
+    * @param address byte address
+    * @return the byte, from 0 to 255
+    */
+   public int loadByte(int address) {
+      return mips.getMemory().loadByte(address);
+   }
+
+   /**
+    * Writes a byte of memory
+    *
+    * @param address byte address
+    * @param value the byte, in the low 8 bits
+    */
+   public void storeByte(int address, int value) {
+      mips.getMemory().storeByte(address, value);
+   }
+
+   /**
+    * Checks whether the program has stopped for good since the last reset
+    *
+    * @return true if the program halted, reached a limit, or faulted
+    */
+   private boolean stopped() {
+      int status = mips.getStatus();
+      return status != RUNNING && status != BREAKPOINT;
+   }
+
+   /**
+    * Computes the deadline of a call that runs the program
+    *
+    * @return System.nanoTime() at which the time limit expires, or 0 for no
+    *         time limit
+    */
+   private long deadline() {
+      return millis > 0 ? System.nanoTime() + millis * 1_000_000 : 0;
+   }
+
+   /**
+    * Converts the address of an instruction to its index
+    *
+    * @param address byte address of the instruction
+    * @return the instruction index
+    * @throws IllegalArgumentException if no instruction is at the address
+    */
+   private int index(int address) {
+      long offset = Integer.toUnsignedLong(address) - Program.TEXT_BASE;
+      if (offset < 0 || offset % 4 != 0 ||
+              offset / 4 >= program.instructions.length)
+         throw new IllegalArgumentException(String.format(
+                 "No instruction at 0x%08x", address));
+      return (int) (offset / 4);
+   }
+
+   /**
+    * Checks a register number
+    *
+    * @param number the register number
+    * @return the register number
+    * @throws IllegalArgumentException if the number is not a register
+    */
+   private static int register(int number) {
+      if (number < 0 || number >= Simulator.REGISTER_NAMES.length)
+         throw new IllegalArgumentException("Unknown register " + number);
+      return number;
+   }
+
+   /**
+    * Translates a register name to its register number
+    *
+    * @param name the register name
+    * @return the register number
+    * @throws IllegalArgumentException if the name is not a register
+    */
+   private static int register(String name) {
+      int number = Simulator.registerNumber(name);
+      for (int i = Operations.HI; number < 0 &&
+              i < Simulator.REGISTER_NAMES.length; ++i)
+         if (Simulator.REGISTER_NAMES[i].equals(name))
+            number = i;
+      if (number < 0)
+         throw new IllegalArgumentException("Unknown register " + name);
+      return number;
+   }
+
+   /**
+    * The program the machine runs
+    */
+   private final Program program;
+
+   /**
+    * Initial memory, holding the program's data, that each run is forked
+    * from and that is never written
+    */
+   private final Memory memory;
+
+   /**
+    * Output written by the program's system calls since the last reset
+    */
+   private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+   /**
+    * Simulator of the current run
+    */
+   private Simulator mips;
+
+   /**
+    * Step limit of each run, and time limit of each call, or 0 for none
+    */
+   private long steps;
+   private long millis;
+}
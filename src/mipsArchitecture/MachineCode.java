@@ -0,0 +1,464 @@
+package mipsArchitecture;
+
+import java.util.Arrays;
+
+/**
+ * Translates between decoded instructions and MIPS32 machine words.
+ * Every instruction the simulator executes has a genuine R, I, or J format
+ * encoding, with the text segment starting at Program.TEXT_BASE. The
+ * function and opcode fields of each instruction are kept in tables indexed
+ * by opcode, and their inverses in tables indexed by field:
+ *
+ * - computations on two registers: R format, with the function field from
+ *   FUNCTS, except mul, which is SPECIAL2 funct 0x02
+ * - sll, srl, sra by a constant: R format with shamt; by a register: sllv,
+ *   srlv, and srav, whose function fields are 4 higher
+ * - computations with a constant: I format, with the opcode field from
+ *   OPCODES; andi, ori, and xori zero-extend their constant
+ * - constants shifted left by 16: lui
+ * - jr, jalr, mult, multu, div, divu, mfhi, mflo, mthi, mtlo, syscall:
+ *   R format
+ * - loads, stores, ll, sc, and branches: I format, with branch offsets
+ *   counted in instructions from the instruction after the branch; bltz
+ *   and bgez are REGIMM with rt 0 and 1
+ * - j, jal: J format, with the target's word address
+ *
+ * The unsigned forms addu, subu, and addiu decode to the same operations,
+ * since the simulator never traps on overflow. The Assembler only produces
+ * decoded instructions in the forms listed, expanding anything else into
+ * several instructions.
+ */
+final class MachineCode {
+   /**
+    * Decodes the machine words of a text segment
+    *
+    * @param text the machine words
+    * @return the decoded instructions
+    * @throws IllegalArgumentException if a word is not a supported
+    *                                  instruction, or jumps outside of the
+    *                                  text segment
+    */
+   static Instruction[] decode(int[] text) {
+      Instruction[] instructions = new Instruction[text.length];
+      for (int i = 0; i < text.length; ++i) {
+         Instruction in = decode(text[i], i);
+         boolean direct = in.isControl() && in.target() == in.rt;
+         if (direct && (in.rt < 0 || in.rt > text.length))
+            throw new IllegalArgumentException(String.format(
+                    "Instruction %d: target is outside of the program",
+                    i + 1));
+         instructions[i] = in;
+      }
+      return instructions;
+   }
+
+   /**
+    * Decodes a single machine word by extracting its fields
+    *
+    * @param word the machine word
+    * @param index index of the instruction in the text segment
+    * @return the decoded instruction
+    * @throws IllegalArgumentException if the word is not a supported
+    *                                  instruction
+    */
+   static Instruction decode(int word, int index) {
+      int opcode = word >>> 26;
+      int rs = (word >>> 21) & 0x1f;
+      int rt = (word >>> 16) & 0x1f;
+      int rd = (word >>> 11) & 0x1f;
+      int shamt = (word >>> 6) & 0x1f;
+      int funct = word & 0x3f;
+      int immediate = (short) word;
+
+      if (word == 0)
+         return NOP;
+
+      int op;
+      switch (opcode) {
+         case SPECIAL:
+            op = BY_FUNCT[funct];
+            if (op == 0)
+               break;
+            if (funct < 0x04)
+               return immediate(op, rd, rt, shamt);
+            if (funct < 0x08)
+               return register(op, rd, rt, rs);
+
+            switch (op) {
+               case Instruction.JR:   return immediate(op, 0, rs, 0);
+               case Instruction.JALR: return immediate(op, rd, rs, 0);
+               case Instruction.MFHI: return immediate(op, rd, HI, 0);
+               case Instruction.MFLO: return immediate(op, rd, LO, 0);
+               case Instruction.MTHI: return immediate(op, HI, rs, 0);
+               case Instruction.MTLO: return immediate(op, LO, rs, 0);
+               case Instruction.SYSCALL: return SYSCALL;
+               default: break;
+            }
+            if (Instruction.KINDS[op] == Instruction.HI_LO)
+               return register(op, 0, rs, rt);
+            return register(op, rd, rs, rt);
+
+         case SPECIAL2:
+            if (funct == 0x02)
+               return register(Instruction.MUL, rd, rs, rt);
+            break;
+
+         case REGIMM:
+            if (rt > 1)
+               break;
+            return new Instruction(BY_REGIMM[rt], rs, 0,
+                    index + 1 + immediate, false, false, true);
+
+         case 0x02:
+         case 0x03:
+            int address = ((Program.TEXT_BASE + 4 * (index + 1)) &
+                    0xf0000000) | ((word & 0x03ffffff) << 2);
+            return new Instruction(BY_OPCODE[opcode],
+                    opcode == 0x03 ? RA : 0, 0,
+                    (address - Program.TEXT_BASE) >> 2, false, true, true);
+
+         case 0x0f:
+            return new Instruction(Instruction.SLL, rt, word & 0xffff, 16,
+                    false, true, true);
+
+         default:
+            op = BY_OPCODE[opcode];
+            switch (Instruction.KINDS[op]) {
+               case Instruction.BRANCH:
+                  return new Instruction(op, rs, rt, index + 1 + immediate,
+                          false, false, true);
+               case Instruction.LOAD:
+               case Instruction.STORE:
+               case Instruction.ATOMIC:
+                  return new Instruction(op, rt, immediate, rs, false, true,
+                          false);
+               default: break;
+            }
+            if (op == 0)
+               break;
+            return immediate(op, rt, rs, zeroExtends(op) ? word & 0xffff
+                                                         : immediate);
+      }
+
+      throw new IllegalArgumentException(String.format(
+              "Instruction %d: unsupported machine word 0x%08x", index + 1,
+              word));
+   }
+
+   /**
+    * Encodes a decoded instruction as a machine word
+    *
+    * @param in the decoded instruction
+    * @param index index of the instruction in the text segment
+    * @return the machine word
+    * @throws IllegalArgumentException if the instruction has no encoding
+    */
+   static int encode(Instruction in, int index) {
+      if (isNop(in))
+         return 0;
+
+      boolean registers = !in.rdImmediate && !in.rsImmediate &&
+              !in.rtImmediate;
+      boolean constant = !in.rdImmediate && !in.rsImmediate && in.rtImmediate;
+      int opcode = in.opcode;
+
+      switch (in.kind()) {
+         case Instruction.JUMP:
+            if (opcode == Instruction.JR && constant && in.rd == 0)
+               return rFormat(SPECIAL, in.rs, 0, 0, 0, FUNCTS[opcode]);
+            if (opcode == Instruction.JALR && constant)
+               return rFormat(SPECIAL, in.rs, 0, in.rd, 0, FUNCTS[opcode]);
+            if (opcode == Instruction.JALR || opcode == Instruction.JR ||
+                    in.rd != (opcode == Instruction.JAL ? RA : 0))
+               break;
+            int address = Program.TEXT_BASE + 4 * in.rt;
+            if (((Program.TEXT_BASE + 4 * (index + 1)) ^ address) >>> 28 != 0)
+               break;
+            return (OPCODES[opcode] << 26) | ((address >>> 2) & 0x03ffffff);
+
+         case Instruction.BRANCH:
+            int offset = in.rt - (index + 1);
+            if (in.rdImmediate || in.rsImmediate || offset != (short) offset)
+               break;
+            if (OPCODES[opcode] < 0)
+               break;
+            if (opcode == Instruction.BEQ || opcode == Instruction.BNE)
+               return iFormat(OPCODES[opcode], in.rd, in.rs, offset);
+            if (in.rs != 0)
+               break;
+            if (opcode == Instruction.BLTZ || opcode == Instruction.BGEZ)
+               return iFormat(REGIMM, in.rd, OPCODES[opcode], offset);
+            return iFormat(OPCODES[opcode], in.rd, 0, offset);
+
+         case Instruction.LOAD:
+         case Instruction.STORE:
+         case Instruction.ATOMIC:
+            if (!in.rdImmediate && in.rsImmediate && !in.rtImmediate &&
+                    in.rs == (short) in.rs)
+               return iFormat(OPCODES[opcode], in.rt, in.rd, in.rs);
+            break;
+
+         case Instruction.HI_LO:
+            if (registers && in.rd == 0)
+               return rFormat(SPECIAL, in.rs, in.rt, 0, 0, FUNCTS[opcode]);
+            break;
+
+         case Instruction.SYSTEM:
+            if (registers && in.rd == SYSCALL.rd && in.rs == SYSCALL.rs &&
+                    in.rt == SYSCALL.rt)
+               return rFormat(SPECIAL, 0, 0, 0, 0, FUNCTS[opcode]);
+            break;
+
+         default:
+            return compute(in, index, registers, constant);
+      }
+
+      throw cannotEncode(in, index);
+   }
+
+   /**
+    * Encodes an instruction that computes a register from rs and rt
+    *
+    * @param in the decoded instruction
+    * @param index index of the instruction in the text segment
+    * @param registers true if every operand is a register
+    * @param constant true if only rt is a constant
+    * @return the machine word
+    * @throws IllegalArgumentException if the instruction has no encoding
+    */
+   private static int compute(Instruction in, int index, boolean registers,
+                              boolean constant) {
+      int opcode = in.opcode;
+      boolean shift = opcode == Instruction.SLL ||
+              opcode == Instruction.SRL || opcode == Instruction.SRA;
+
+      switch (opcode) {
+         case Instruction.MFHI:
+         case Instruction.MFLO:
+            if (constant && in.rs == (opcode == Instruction.MFHI ? HI : LO))
+               return rFormat(SPECIAL, 0, 0, in.rd, 0, FUNCTS[opcode]);
+            throw cannotEncode(in, index);
+         case Instruction.MTHI:
+         case Instruction.MTLO:
+            if (constant && in.rd == (opcode == Instruction.MTHI ? HI : LO))
+               return rFormat(SPECIAL, in.rs, 0, 0, 0, FUNCTS[opcode]);
+            throw cannotEncode(in, index);
+         case Instruction.MUL:
+            if (registers)
+               return rFormat(SPECIAL2, in.rs, in.rt, in.rd, 0, 0x02);
+            throw cannotEncode(in, index);
+         default:
+            break;
+      }
+
+      if (registers && shift)
+         return rFormat(SPECIAL, in.rt, in.rs, in.rd, 0, FUNCTS[opcode] + 4);
+      if (registers && FUNCTS[opcode] >= 0)
+         return rFormat(SPECIAL, in.rs, in.rt, in.rd, 0, FUNCTS[opcode]);
+      if (constant && shift && (in.rt & 0x1f) == in.rt)
+         return rFormat(SPECIAL, 0, in.rs, in.rd, in.rt, FUNCTS[opcode]);
+
+      boolean fits = zeroExtends(opcode) ? (in.rt & 0xffff) == in.rt
+                                         : in.rt == (short) in.rt;
+      if (constant && OPCODES[opcode] >= 0 && fits)
+         return iFormat(OPCODES[opcode], in.rs, in.rd, in.rt);
+
+      if (opcode == Instruction.SLL && !in.rdImmediate && in.rsImmediate &&
+              in.rtImmediate && in.rt == 16 && (in.rs & 0xffff) == in.rs)
+         return iFormat(0x0f, 0, in.rd, in.rs);
+
+      throw cannotEncode(in, index);
+   }
+
+   /**
+    * Creates the exception thrown for an instruction that has no encoding
+    *
+    * @param in the decoded instruction
+    * @param index index of the instruction in the text segment
+    * @return the exception
+    */
+   private static IllegalArgumentException cannotEncode(Instruction in,
+                                                        int index) {
+      return new IllegalArgumentException("Instruction " + (index + 1) +
+              ": cannot encode " + in);
+   }
+
+   /**
+    * Checks whether the I format of an instruction zero-extends its
+    * constant, as andi, ori, and xori do, instead of sign-extending it
+    *
+    * @param opcode the operation
+    * @return true if the constant is zero-extended
+    */
+   private static boolean zeroExtends(int opcode) {
+      return opcode == Instruction.AND || opcode == Instruction.OR ||
+              opcode == Instruction.XOR;
+   }
+
+   /**
+    * Checks whether an instruction is the canonical nop
+    *
+    * @param in the decoded instruction
+    * @return true if the instruction does nothing
+    */
+   static boolean isNop(Instruction in) {
+      return in.opcode == Instruction.SLL && in.rd == 0 && !in.rdImmediate &&
+              in.rsImmediate && in.rtImmediate && in.rs == 0 && in.rt == 0;
+   }
+
+   /**
+    * Assembles the fields of an R format word
+    *
+    * @param opcode the opcode field
+    * @param rs the rs field
+    * @param rt the rt field
+    * @param rd the rd field
+    * @param shamt the shift amount
+    * @param funct the function field
+    * @return the machine word
+    */
+   private static int rFormat(int opcode, int rs, int rt, int rd, int shamt,
+                              int funct) {
+      return (opcode << 26) | (rs << 21) | (rt << 16) | (rd << 11) |
+              (shamt << 6) | funct;
+   }
+
+   /**
+    * Assembles the fields of an I format word
+    *
+    * @param opcode the opcode field
+    * @param rs the rs field
+    * @param rt the rt field
+    * @param immediate the 16-bit immediate
+    * @return the machine word
+    */
+   private static int iFormat(int opcode, int rs, int rt, int immediate) {
+      return (opcode << 26) | (rs << 21) | (rt << 16) | (immediate & 0xffff);
+   }
+
+   /**
+    * Creates a decoded instruction with two source registers
+    *
+    * @param opcode the operation
+    * @param rd destination register number
+    * @param rs 1st source register number
+    * @param rt 2nd source register number
+    * @return the decoded instruction
+    */
+   private static Instruction register(int opcode, int rd, int rs, int rt) {
+      return new Instruction(opcode, rd, rs, rt, false, false, false);
+   }
+
+   /**
+    * Creates a decoded instruction with a source register and a constant
+    *
+    * @param opcode the operation
+    * @param rd destination register number
+    * @param rs source register number
+    * @param value the constant
+    * @return the decoded instruction
+    */
+   private static Instruction immediate(int opcode, int rd, int rs,
+                                        int value) {
+      return new Instruction(opcode, rd, rs, value, false, false, true);
+   }
+
+   /**
+    * The canonical nop, sll $zero, 0, 0
+    */
+   static final Instruction NOP = new Instruction(Instruction.SLL, 0, 0, 0,
+           false, true, true);
+
+   /**
+    * The syscall instruction, which reads $v0, $a0, and $a1 and writes $v0
+    */
+   static final Instruction SYSCALL = new Instruction(Instruction.SYSCALL,
+           Syscalls.V0, Syscalls.A0, Syscalls.A1, false, false, false);
+
+   /**
+    * Opcode fields of the R format instructions, and of bltz and bgez
+    */
+   private static final int SPECIAL = 0x00;
+   private static final int SPECIAL2 = 0x1c;
+   private static final int REGIMM = 0x01;
+
+   /**
+    * Register numbers of $ra, written by jal, and of HI and LO
+    */
+   private static final int RA = 31;
+   private static final int HI = Operations.HI;
+   private static final int LO = Operations.LO;
+
+   /**
+    * Function field of each SPECIAL R format instruction, indexed by opcode,
+    * or -1 if it has none. Shifts by a constant are listed; shifts by a
+    * register use the function field 4 higher.
+    */
+   private static final int[] FUNCTS = new int[Instruction.NAMES.length];
+
+   /**
+    * Opcode field of each I or J format instruction, indexed by opcode, or
+    * -1 if it has none. For bltz and bgez, the rt field under REGIMM.
+    */
+   private static final int[] OPCODES = new int[Instruction.NAMES.length];
+
+   /**
+    * Opcode of each SPECIAL function field, of each I and J format opcode
+    * field, and of each REGIMM rt field, or 0 if it is not supported
+    */
+   private static final int[] BY_FUNCT = new int[64];
+   private static final int[] BY_OPCODE = new int[64];
+   private static final int[] BY_REGIMM = new int[2];
+
+   static {
+      int[] functs = {
+         Instruction.SLL,   0x00, Instruction.SRL,   0x02,
+         Instruction.SRA,   0x03, Instruction.JR,    0x08,
+         Instruction.JALR,  0x09, Instruction.MFHI,  0x10,
+         Instruction.MTHI,  0x11, Instruction.MFLO,  0x12,
+         Instruction.MTLO,  0x13, Instruction.MULT,  0x18,
+         Instruction.MULTU, 0x19, Instruction.DIV,   0x1a,
+         Instruction.DIVU,  0x1b, Instruction.ADD,   0x20,
+         Instruction.SUB,   0x22, Instruction.AND,   0x24,
+         Instruction.OR,    0x25, Instruction.XOR,   0x26,
+         Instruction.NOR,   0x27, Instruction.SLT,   0x2a,
+         Instruction.SLTU,  0x2b, Instruction.SYSCALL, 0x0c
+      };
+      int[] opcodes = {
+         Instruction.J,     0x02, Instruction.JAL,   0x03,
+         Instruction.BEQ,   0x04, Instruction.BNE,   0x05,
+         Instruction.BLEZ,  0x06, Instruction.BGTZ,  0x07,
+         Instruction.ADD,   0x08, Instruction.SLT,   0x0a,
+         Instruction.SLTU,  0x0b, Instruction.AND,   0x0c,
+         Instruction.OR,    0x0d, Instruction.XOR,   0x0e,
+         Instruction.LB,    0x20, Instruction.LH,    0x21,
+         Instruction.LW,    0x23, Instruction.LBU,   0x24,
+         Instruction.LHU,   0x25, Instruction.SB,    0x28,
+         Instruction.SH,    0x29, Instruction.SW,    0x2b,
+         Instruction.LL,    0x30, Instruction.SC,    0x38
+      };
+
+      Arrays.fill(FUNCTS, -1);
+      Arrays.fill(OPCODES, -1);
+      for (int i = 0; i < functs.length; i += 2) {
+         FUNCTS[functs[i]] = functs[i + 1];
+         BY_FUNCT[functs[i + 1]] = functs[i];
+      }
+      for (int i = 0; i < opcodes.length; i += 2) {
+         OPCODES[opcodes[i]] = opcodes[i + 1];
+         BY_OPCODE[opcodes[i + 1]] = opcodes[i];
+      }
+      OPCODES[Instruction.BLTZ] = 0;
+      OPCODES[Instruction.BGEZ] = 1;
+      BY_REGIMM[0] = Instruction.BLTZ;
+      BY_REGIMM[1] = Instruction.BGEZ;
+
+      // shifts by a register, and the unsigned forms
+      BY_FUNCT[0x04] = Instruction.SLL;
+      BY_FUNCT[0x06] = Instruction.SRL;
+      BY_FUNCT[0x07] = Instruction.SRA;
+      BY_FUNCT[0x21] = Instruction.ADD;
+      BY_FUNCT[0x23] = Instruction.SUB;
+      BY_OPCODE[0x09] = Instruction.ADD;
+   }
+}
@@ -1,7 +1,11 @@
 package mipsArchitecture;
 
-import java.util.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * By Micah Snell
@@ -26,75 +30,519 @@ import java.io.*;
 public class  MainApp {
    /**
     * Main method accepts file path of .asm file as a command line argument, as
-    * well as an optional debug mode using the flag variable '-d'
+    * well as an optional debug mode using the flag variable '-d', and
+    * optional execution through the basic block cache using the flag '-b',
+    * with hot blocks compiled to JVM bytecode using the flag '-j', the
+    * 5-stage pipeline model using the flag '-p', and a data cache level
+    * using the flag '-c' followed by its specification, once per level.
+    * With the flag '-o' followed by a results file, the path names a
+    * directory or manifest of .asm files that are all simulated in parallel.
+    * The flag '-t' followed by a file records a binary trace of every
+    * instruction, and the flags '-i' followed by a range of instruction
+    * numbers and '-op' followed by instruction names select the instructions
+    * shown in debug mode. The flag '-f' followed by a file profiles the
+    * program, writing collapsed stacks for flame graphs to the file. The
+    * flag '-s' followed by a file saves checkpoints on exit and, with the
+    * flag '-n' followed by a number, every that many instructions; the flag
+    * '-r' followed by a checkpoint file resumes the simulation from it.
+    * The path may also name a program image, and the flag '-w' followed by
+    * a file writes the assembled program to that image without simulating.
+    * With the flag '-x' the path names a raw text segment of little-endian
+    * MIPS32 machine words instead. The flags '-in' and '-out' followed by a
+    * file redirect the input read and the output written by the program's
+    * system calls; in a batch they name directories holding a .in and a .out
+    * file for each program, and without them a batch gives its programs no
+    * input and discards their output. The flag '-fmt' followed by text,
+    * diff, json, or bin selects the format of the final registers and
+    * memory, and the flag '-state' followed by a file writes them to that
+    * file instead of the console. The flags '-max' followed by a number of
+    * instructions and '-timeout' followed by a number of seconds stop a
+    * program that runs too long. The flag '-cores' followed by a number
+    * runs the program on that many cores sharing its memory, each on its
+    * own thread, or in turns of the given number of instructions with the
+    * flag '-lockstep' followed by that number. The flag '-sweep' followed
+    * by an input file runs the program once for every input vector in the
+    * file, writing the results to the file given by '-o'.
     * Main:
-    *    1. reads instructions in from the provided .asm file
-    *    2. formats them
-    *    3. creates new Simulator object 'mips' with formatted instructions
+    *    1. reads instructions in from the provided .asm file or image
+    *    2. assembles them into a program, reusing a cached image of the
+    *       same source
+    *    3. creates new Simulator object 'mips' with the assembled program
     *    4. begins simulation.
     *
     * @param args the command line arguments
     */
    public static void main(String[] args) {
-     if (args.length == 0 || args.length > 2) {
-         System.err.println("\nWrong number of args, please try again.");
-         System.err.println("Example: java mipsArchitecture.MainApp " +
-               "<d:/path/to/assembly/instructions> <-d> (for optional debug)");
-
+      if (args.length == 0) {
+         printUsage();
          return;
       }
 
       boolean mode = false;
-      if (args.length == 2)
-         if (args[1].equals("-d")) {
-            System.out.println("\nDebug mode enabled.");
-            mode = true;
+      boolean blocks = false;
+      boolean jit = false;
+      boolean pipeline = false;
+      boolean raw = false;
+      String results = null;
+      String sweepFile = null;
+      String traceFile = null;
+      String profileFile = null;
+      String checkpointFile = null;
+      String resumeFile = null;
+      String imageFile = null;
+      String inputFile = null;
+      String outputFile = null;
+      String stateFile = null;
+      int format = StateWriter.TEXT;
+      long interval = 0;
+      long maxSteps = 0;
+      long timeout = 0;
+      int cores = 1;
+      long quantum = 0;
+      Trace.Filter filter = new Trace.Filter();
+      ArrayList<String> caches = new ArrayList<>();
+      for (int i = 1; i < args.length; ++i) {
+         switch (args[i]) {
+            case "-d":
+               System.out.println("\nDebug mode enabled.");
+               mode = true;
+               break;
+
+            case "-b":
+               blocks = true;
+               break;
+
+            case "-j":
+               jit = true;
+               break;
+
+            case "-p":
+               pipeline = true;
+               break;
+
+            case "-x":
+               raw = true;
+               break;
+
+            case "-c":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               caches.add(args[i]);
+               break;
+
+            case "-o":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               results = args[i];
+               break;
+
+            case "-sweep":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               sweepFile = args[i];
+               break;
+
+            case "-t":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               traceFile = args[i];
+               break;
+
+            case "-f":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               profileFile = args[i];
+               break;
+
+            case "-w":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               imageFile = args[i];
+               break;
+
+            case "-in":
+            case "-out":
+               if (i + 1 == args.length) {
+                  printUsage();
+                  return;
+               }
+               if (args[i].equals("-in"))
+                  inputFile = args[++i];
+               else
+                  outputFile = args[++i];
+               break;
+
+            case "-fmt":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               try {
+                  format = StateWriter.format(args[i]);
+               } catch (IllegalArgumentException iae) {
+                  System.err.println("\n" + iae.getMessage() + "\n");
+                  return;
+               }
+               break;
+
+            case "-state":
+               if (++i == args.length) {
+                  printUsage();
+                  return;
+               }
+               stateFile = args[i];
+               break;
+
+            case "-s":
+            case "-r":
+               if (i + 1 == args.length) {
+                  printUsage();
+                  return;
+               }
+               if (args[i].equals("-s"))
+                  checkpointFile = args[++i];
+               else
+                  resumeFile = args[++i];
+               break;
+
+            case "-n":
+               try {
+                  interval = Long.parseLong(args[++i]);
+               } catch (ArrayIndexOutOfBoundsException |
+                        NumberFormatException e) {
+                  printUsage();
+                  return;
+               }
+               break;
+
+            case "-max":
+            case "-timeout":
+               try {
+                  if (args[i].equals("-max"))
+                     maxSteps = Long.parseLong(args[++i]);
+                  else
+                     timeout = (long) (Double.parseDouble(args[++i]) * 1000);
+               } catch (ArrayIndexOutOfBoundsException |
+                        NumberFormatException e) {
+                  printUsage();
+                  return;
+               }
+               break;
+
+            case "-cores":
+            case "-lockstep":
+               try {
+                  if (args[i].equals("-cores"))
+                     cores = Integer.parseInt(args[++i]);
+                  else
+                     quantum = Long.parseLong(args[++i]);
+               } catch (ArrayIndexOutOfBoundsException |
+                        NumberFormatException e) {
+                  printUsage();
+                  return;
+               }
+               if (cores < 1 || quantum < 0) {
+                  printUsage();
+                  return;
+               }
+               break;
+
+            case "-i":
+            case "-op":
+               if (i + 1 == args.length) {
+                  printUsage();
+                  return;
+               }
+               try {
+                  if (args[i].equals("-i"))
+                     filter.instructions(args[++i]);
+                  else
+                     filter.opcodes(args[++i]);
+               } catch (IllegalArgumentException iae) {
+                  System.err.println("\n" + iae.getMessage() + "\n");
+                  return;
+               }
+               break;
+
+            default:
+               printUsage();
+               return;
          }
+      }
 
+      Cache cache = null;
       try {
-         String filePath = args[0];
-         FileReader file = new FileReader(filePath);
-         Scanner inFile = new Scanner(file);
-         String fileContents = null,
-                        temp = null;
-         int temp2;
-
-         while (inFile.hasNextLine()) {
-            temp = inFile.nextLine();
-            
-            if (temp.contains("#")) {
-               temp2 = temp.indexOf("#");
-               if (temp2 == 0)
-                  continue;
-               
-               temp = temp.substring(0, temp2);
+         cache = dataCache(caches);
+      } catch (IllegalArgumentException iae) {
+         System.err.println("\n" + iae.getMessage() + "\n");
+         return;
+      }
+
+      if (pipeline && (checkpointFile != null || resumeFile != null)) {
+         System.err.println("\nThe pipeline model does not support " +
+                 "checkpoints.\n");
+         return;
+      }
+
+      if (cores > 1 && (mode || results != null || traceFile != null ||
+              profileFile != null || checkpointFile != null ||
+              resumeFile != null)) {
+         System.err.println("\nDebug mode, batch mode, sweeps, traces, " +
+                 "profiles, and checkpoints are only supported on a single " +
+                 "core.\n");
+         return;
+      }
+
+      if (sweepFile != null && results == null) {
+         printUsage();
+         return;
+      }
+
+      if (results != null && sweepFile == null) {
+         batch(Paths.get(args[0]), Paths.get(results),
+               new BatchRunner(new RunOptions(blocks, jit, pipeline, caches,
+                       maxSteps, timeout), path(inputFile),
+                       path(outputFile)));
+         return;
+      }
+
+      Syscalls system = null;
+      try {
+         Program program = raw ? ProgramImage.readText(Paths.get(args[0]))
+                               : ProgramImage.load(Paths.get(args[0]));
+         if (imageFile != null) {
+            ProgramImage.write(program, Paths.get(imageFile));
+            return;
+         }
+         if (sweepFile != null) {
+            sweep(Paths.get(sweepFile), Paths.get(results),
+                  new Sweep(program, new RunOptions(blocks, jit, pipeline,
+                          caches, maxSteps, timeout)));
+            return;
+         }
+         if (inputFile != null || outputFile != null)
+            system = Syscalls.files(path(inputFile), path(outputFile));
+         if (cores > 1) {
+            Multicore multicore = new Multicore(program, cores,
+                    system != null ? system : Syscalls.console());
+            for (Simulator core : multicore.getCores()) {
+               if (blocks)
+                  core.useBlockCache(BlockCache.DEFAULT_CAPACITY);
+               if (jit)
+                  core.useJit(JitCompiler.DEFAULT_THRESHOLD);
+               if (pipeline)
+                  core.usePipeline();
+               if (cache != null)
+                  core.useDataCache(dataCache(caches));
             }
-            
-            fileContents += temp;
-            fileContents += " ";
+            multicore.useLimits(maxSteps, timeout);
+            multicore.useLockstep(quantum);
+            multicore.begin(new StateWriter(format, path(stateFile)));
+            return;
          }
-         inFile.close();
-         file.close();
-
-         fileContents = fileContents.substring(4); //cuts off null
-         fileContents = fileContents.replaceAll(",", "");
-         fileContents = fileContents.replaceAll("[()]", " ");
-         fileContents = fileContents.toLowerCase();
-
-         ArrayList<String> instructions =
-                    new ArrayList<>(Arrays.asList(fileContents.split("\\s+")));
-         Simulator mips = new Simulator(instructions, mode);
-         mips.begin();
-         
-      } catch (NullPointerException npe) {
-         System.err.println("\nFile contents are null, please try again and " +
-                 "ensure the file path is typed correctly.\n");
-      } catch (FileNotFoundException fnfe) {
+
+         Simulator mips = new Simulator(program, mode);
+         mips.useStateWriter(new StateWriter(format, path(stateFile)));
+         mips.useLimits(maxSteps, timeout);
+         if (system != null)
+            mips.useSyscalls(system);
+         if (blocks)
+            mips.useBlockCache(BlockCache.DEFAULT_CAPACITY);
+         if (jit)
+            mips.useJit(JitCompiler.DEFAULT_THRESHOLD);
+         if (pipeline)
+            mips.usePipeline();
+         if (cache != null)
+            mips.useDataCache(cache);
+         mips.filterTrace(filter);
+         Profiler profiler = null;
+         if (profileFile != null) {
+            profiler = new Profiler(program);
+            mips.useProfiler(profiler);
+         }
+         if (resumeFile != null && !resume(mips, program, resumeFile))
+            return;
+         Checkpoint checkpoint = null;
+         if (checkpointFile != null) {
+            Path file = Paths.get(checkpointFile);
+            boolean append = resumeFile != null && Files.exists(file) &&
+                    Files.isSameFile(file, Paths.get(resumeFile));
+            checkpoint = new Checkpoint(file, interval, program.instructions,
+                    append);
+            mips.useCheckpoint(checkpoint);
+         }
+         Trace trace = null;
+         if (traceFile != null) {
+            trace = new Trace(Paths.get(traceFile));
+            mips.useTrace(trace);
+         }
+
+         try {
+            mips.begin();
+         } finally {
+            if (trace != null)
+               trace.close();
+            if (checkpoint != null)
+               checkpoint.close();
+         }
+         if (profiler != null)
+            profiler.writeCollapsed(Paths.get(profileFile));
+
+      } catch (NoSuchFileException | FileNotFoundException fnfe) {
          System.err.println("\nFile not found, please try again and ensure " +
                  "the file path is typed correctly.\n");
       } catch (IOException ioe) {
          System.err.println("\nInput file error, please try again and " +
                  "ensure the file path is typed correctly.\n");
+      } catch (IllegalArgumentException iae) {
+         System.err.println("\nInvalid instructions in input file: " +
+                 iae.getMessage() + "\n");
+      } catch (IllegalStateException ise) {
+         System.err.println("\nSimulation stopped: " + ise.getMessage() +
+                 "\n");
+      } finally {
+         close(system);
+      }
+   }
+
+   /**
+    * Builds a data cache hierarchy
+    *
+    * @param caches cache level specifications, from L1 down
+    * @return the first level, or null if there are no levels
+    * @throws IllegalArgumentException if a specification is invalid
+    */
+   private static Cache dataCache(ArrayList<String> caches) {
+      Cache cache = null;
+      for (int level = caches.size(); level > 0; --level)
+         cache = Cache.parse("L" + level, caches.get(level - 1), cache);
+      return cache;
+   }
+
+   /**
+    * Converts an optional file name to a path
+    *
+    * @param name the file name, or null
+    * @return the path, or null if there is no file name
+    */
+   private static Path path(String name) {
+      return name == null ? null : Paths.get(name);
+   }
+
+   /**
+    * Closes the files redirecting the program's input and output
+    *
+    * @param system the system calls, or null if they use the console
+    */
+   private static void close(Syscalls system) {
+      if (system == null)
+         return;
+      try {
+         system.close();
+      } catch (IOException ioe) {
+         System.err.println("\nCannot write program output: " +
+                 ioe.getMessage() + "\n");
+      }
+   }
+
+   /**
+    * Restores the state saved in a checkpoint file
+    *
+    * @param mips the simulator
+    * @param program the program being simulated
+    * @param file the checkpoint file
+    * @return true if the state was restored
+    */
+   private static boolean resume(Simulator mips, Program program,
+                                 String file) {
+      try {
+         mips.restore(Checkpoint.read(Paths.get(file), program.instructions));
+         return true;
+      } catch (IOException ioe) {
+         System.err.println("\nCannot resume: " + ioe.getMessage() + "\n");
+         return false;
       }
    }
+
+   /**
+    * Simulates every program in a directory or manifest
+    *
+    * @param input the directory or manifest
+    * @param results path of the results file
+    * @param runner the batch runner
+    */
+   private static void batch(Path input, Path results, BatchRunner runner) {
+      try {
+         runner.run(input, results);
+      } catch (NoSuchFileException | FileNotFoundException fnfe) {
+         System.err.println("\nFile not found, please try again and ensure " +
+                 "the file path is typed correctly.\n");
+      } catch (IOException ioe) {
+         System.err.println("\nBatch error: " + ioe.getMessage() + "\n");
+      }
+   }
+
+   /**
+    * Runs a program over every input vector in an input file
+    *
+    * @param inputs the input file
+    * @param results path of the results file
+    * @param sweep the sweep of the program
+    */
+   private static void sweep(Path inputs, Path results, Sweep sweep) {
+      try {
+         sweep.run(inputs, results);
+      } catch (NoSuchFileException | FileNotFoundException fnfe) {
+         System.err.println("\nFile not found, please try again and ensure " +
+                 "the file path is typed correctly.\n");
+      } catch (IOException ioe) {
+         System.err.println("\nSweep error: " + ioe.getMessage() + "\n");
+      }
+   }
+
+   /**
+    * Prints the expected command line arguments
+    */
+   private static void printUsage() {
+      System.err.println("\nWrong number of args, please try again.");
+      System.err.println("Example: java mipsArchitecture.MainApp " +
+            "<d:/path/to/assembly/instructions> <-d> (for optional debug) " +
+            "<-b> (for optional basic block cache) " +
+            "<-j> (for optional compilation of hot blocks) " +
+            "<-p> (for optional 5-stage pipeline model) " +
+            "<-c size:line:ways:policy:write:latency> (for an optional data " +
+            "cache level, repeat for L2 and below) " +
+            "<-o results.jsonl|results.csv> (to simulate every program in " +
+            "a directory or manifest given as the path) " +
+            "<-t trace.bin> (to record a binary trace, shown with " +
+            "mipsArchitecture.TraceViewer) <-i first-last> <-op lw,sw> " +
+            "(to select the instructions shown in debug mode) " +
+            "<-f profile.folded> (to profile the program) " +
+            "<-s checkpoint> <-n instructions> (to save checkpoints on exit " +
+            "and every n instructions) <-r checkpoint> (to resume from a " +
+            "checkpoint) <-w program.img> (to write a program image that " +
+            "can be given in place of the .asm file) <-x> (if the path is a " +
+            "raw text segment of MIPS32 machine words) <-in input> " +
+            "<-out output> (to redirect the input and output of the " +
+            "program's system calls) <-fmt text|diff|json|bin> " +
+            "<-state file> (to select the format of the final registers " +
+            "and memory, and to write them to a file) " +
+            "<-max instructions> <-timeout seconds> (to stop a program " +
+            "that runs too long) <-cores n> <-lockstep instructions> (to " +
+            "run the program on n cores, optionally taking turns) " +
+            "<-sweep inputs.csv|inputs.bin> (to run the program once for " +
+            "every input, writing the results to the file given by -o)");
+   }
 }
@@ -0,0 +1,475 @@
+package mipsArchitecture;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Sparse, byte-addressed model of the full 32-bit MIPS address space.
+ * Memory is divided into 4 KB pages, which are only allocated the first time
+ * they are written; reading a page that was never written returns 0. Pages
+ * are found through a two-level page table, and the most recently read and
+ * written pages are remembered so that consecutive accesses to the same page
+ * skip the table walk. Words are stored little-endian, as in SPIM and MARS,
+ * and word and halfword accesses must be naturally aligned.
+ *
+ * Pages written since the last call to clean() are marked dirty, so that
+ * checkpoints only need to save the pages that changed.
+ *
+ * The cores of a Multicore share their pages through views made by
+ * share(), each with its own remembered pages and ll reservation. Pages and
+ * page tables are published with a compare-and-set, so cores that write a
+ * new page at the same time agree on a single copy, and ordinary loads and
+ * stores take no lock. ll and sc are a volatile read and a compare-and-set
+ * of the word: sc succeeds if the word still holds the value ll read, as
+ * most emulators implement them, rather than if no other core has written
+ * it since.
+ *
+ * A parameter sweep runs many copies of a program from the same initial
+ * memory through forks made by fork(). A fork reads the pages of the memory
+ * it was made from until it first writes one, and then writes its own copy
+ * of that page, so the pages a run never writes are shared by every run.
+ */
+final class Memory {
+   /**
+    * Number of address bits within a page
+    */
+   static final int PAGE_BITS = 12;
+
+   /**
+    * Size of a page in bytes
+    */
+   static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+   /**
+    * Constructs an empty Memory object
+    */
+   Memory() {
+      this(new int[1 << (32 - PAGE_BITS - TABLE_BITS)][][], null, false);
+   }
+
+   /**
+    * Constructs Memory object viewing or forking the pages of another memory
+    *
+    * @param directory the page directory
+    * @param parent the memory whose pages are read until they are written,
+    *               or null
+    * @param shared true if the directory is shared with another memory
+    */
+   private Memory(int[][][] directory, Memory parent, boolean shared) {
+      this.directory = directory;
+      this.parent = parent;
+      this.shared = shared;
+   }
+
+   /**
+    * Returns a view of the pages of this memory for another core. Both
+    * memories stop tracking dirty pages, so neither may be checkpointed.
+    * This memory must not be in use by another thread while it is shared.
+    *
+    * @return the view
+    */
+   Memory share() {
+      shared = true;
+      return new Memory(directory, null, true);
+   }
+
+   /**
+    * Returns a copy of this memory that copies each page only when it first
+    * writes it. This memory must not be written while it has forks, and
+    * only the pages a fork writes are marked dirty in it.
+    *
+    * @return the fork
+    */
+   Memory fork() {
+      return new Memory(new int[directory.length][][], this, false);
+   }
+
+   /**
+    * Reads the word at the given address
+    *
+    * @param address byte address, a multiple of 4
+    * @return the word
+    */
+   int loadWord(int address) {
+      if ((address & 3) != 0)
+         throw unaligned("word", address);
+
+      int number = address >>> PAGE_BITS;
+      int[] page = number == lastNumber ? lastPage : find(number);
+      return page == null ? 0 : page[(address & PAGE_MASK) >>> 2];
+   }
+
+   /**
+    * Writes the word at the given address
+    *
+    * @param address byte address, a multiple of 4
+    * @param value the word
+    */
+   void storeWord(int address, int value) {
+      if ((address & 3) != 0)
+         throw unaligned("word", address);
+
+      int number = address >>> PAGE_BITS;
+      int[] page = number == lastWriteNumber ? lastWritePage
+                                             : allocate(number);
+      page[(address & PAGE_MASK) >>> 2] = value;
+   }
+
+   /**
+    * Reads the halfword at the given address, without sign extension
+    *
+    * @param address byte address, a multiple of 2
+    * @return the halfword, from 0 to 65535
+    */
+   int loadHalf(int address) {
+      if ((address & 1) != 0)
+         throw unaligned("halfword", address);
+
+      return (loadWord(address & ~3) >>> ((address & 2) << 3)) & 0xffff;
+   }
+
+   /**
+    * Writes the halfword at the given address
+    *
+    * @param address byte address, a multiple of 2
+    * @param value the halfword, in the low 16 bits
+    */
+   void storeHalf(int address, int value) {
+      if ((address & 1) != 0)
+         throw unaligned("halfword", address);
+
+      int shift = (address & 2) << 3;
+      merge(address & ~3, 0xffff << shift, (value & 0xffff) << shift);
+   }
+
+   /**
+    * Reads the byte at the given address, without sign extension
+    *
+    * @param address byte address
+    * @return the byte, from 0 to 255
+    */
+   int loadByte(int address) {
+      return (loadWord(address & ~3) >>> ((address & 3) << 3)) & 0xff;
+   }
+
+   /**
+    * Writes the byte at the given address
+    *
+    * @param address byte address
+    * @param value the byte, in the low 8 bits
+    */
+   void storeByte(int address, int value) {
+      int shift = (address & 3) << 3;
+      merge(address & ~3, 0xff << shift, (value & 0xff) << shift);
+   }
+
+   /**
+    * Replaces some of the bits of the word at the given address. When the
+    * pages are shared with other cores the word is replaced with a
+    * compare-and-set, retried until no other core has written the word in
+    * between, so that stores to other bytes of the same word are not lost.
+    *
+    * @param address byte address, a multiple of 4
+    * @param mask the bits to replace
+    * @param bits the new bits, within the mask
+    */
+   private void merge(int address, int mask, int bits) {
+      int number = address >>> PAGE_BITS;
+      int[] page = number == lastWriteNumber ? lastWritePage
+                                             : allocate(number);
+      int index = (address & PAGE_MASK) >>> 2;
+      if (!shared) {
+         page[index] = (page[index] & ~mask) | bits;
+         return;
+      }
+
+      int word;
+      do {
+         word = (int) WORDS.getVolatile(page, index);
+      } while (!WORDS.compareAndSet(page, index, word, (word & ~mask) | bits));
+   }
+
+   /**
+    * Reads the word at the given address, and reserves it for a following
+    * storeConditional, as ll does
+    *
+    * @param address byte address, a multiple of 4
+    * @return the word
+    */
+   int loadLinked(int address) {
+      if ((address & 3) != 0)
+         throw unaligned("word", address);
+
+      int[] page = allocate(address >>> PAGE_BITS);
+      int value = (int) WORDS.getVolatile(page, (address & PAGE_MASK) >>> 2);
+      linked = true;
+      linkedAddress = address;
+      linkedValue = value;
+      return value;
+   }
+
+   /**
+    * Writes the word at the given address if it is reserved by the last
+    * loadLinked and still holds the value read then, as sc does. The
+    * reservation is cleared either way.
+    *
+    * @param address byte address, a multiple of 4
+    * @param value the word
+    * @return 1 if the word was written, or 0
+    */
+   int storeConditional(int address, int value) {
+      if ((address & 3) != 0)
+         throw unaligned("word", address);
+
+      boolean reserved = linked && linkedAddress == address;
+      linked = false;
+      if (!reserved)
+         return 0;
+
+      int[] page = allocate(address >>> PAGE_BITS);
+      return WORDS.compareAndSet(page, (address & PAGE_MASK) >>> 2,
+              linkedValue, value) ? 1 : 0;
+   }
+
+   /**
+    * Returns the number of pages that have been allocated
+    *
+    * @return the number of touched pages
+    */
+   int getPageCount() { return touchedPages().length; }
+
+   /**
+    * Returns the page numbers of all allocated pages, including those a
+    * fork still reads from the memory it was forked from, in address order
+    *
+    * @return the page numbers
+    */
+   int[] touchedPages() {
+      int count = 0;
+      int[] numbers = new int[64];
+      for (int i = 0; i < directory.length; ++i) {
+         if (!hasTable(i))
+            continue;
+         for (int j = 0; j < TABLE_SIZE; ++j) {
+            if (page((i << TABLE_BITS) | j) == null)
+               continue;
+            if (count == numbers.length)
+               numbers = Arrays.copyOf(numbers, count * 2);
+            numbers[count++] = (i << TABLE_BITS) | j;
+         }
+      }
+      return Arrays.copyOf(numbers, count);
+   }
+
+   /**
+    * Returns the page numbers of the pages written since the last call to
+    * clean(), in address order
+    *
+    * @return the page numbers
+    */
+   int[] dirtyPages() {
+      return dirty.stream().toArray();
+   }
+
+   /**
+    * Marks every page as clean
+    */
+   void clean() {
+      dirty.clear();
+      lastWriteNumber = -1;
+      lastWritePage = null;
+   }
+
+   /**
+    * Replaces the contents of a page, allocating it if needed
+    *
+    * @param number the page number
+    * @param words the words of the page
+    */
+   void restorePage(int number, int[] words) {
+      System.arraycopy(words, 0, allocate(number), 0, PAGE_SIZE / 4);
+   }
+
+   /**
+    * Returns the words of an allocated page. The array is the page itself,
+    * not a copy.
+    *
+    * @param number the page number
+    * @return the words of the page, or null if it was never written
+    */
+   int[] page(int number) {
+      int[][] table = table(number >>> TABLE_BITS);
+      int[] page = table == null ? null
+              : (int[]) PAGES.getAcquire(table, number & (TABLE_SIZE - 1));
+      return page == null && parent != null ? parent.page(number) : page;
+   }
+
+   /**
+    * Returns a second-level page table
+    *
+    * @param index index of the table in the directory
+    * @return the table, or null if none of its pages was ever written
+    */
+   private int[][] table(int index) {
+      return (int[][]) TABLES.getAcquire(directory, index);
+   }
+
+   /**
+    * Checks whether this memory, or one it was forked from, has a
+    * second-level page table
+    *
+    * @param index index of the table in the directory
+    * @return true if any of the memories has the table
+    */
+   private boolean hasTable(int index) {
+      return table(index) != null || parent != null && parent.hasTable(index);
+   }
+
+   /**
+    * Looks up a page for reading, without allocating it. Pages that exist
+    * become the most recently read page.
+    *
+    * @param number the page number
+    * @return the page, or null if it was never written
+    */
+   private int[] find(int number) {
+      int[] page = page(number);
+      if (page != null) {
+         lastNumber = number;
+         lastPage = page;
+      }
+      return page;
+   }
+
+   /**
+    * Looks up a page for writing, allocating it if needed, and marks it
+    * dirty. The page becomes the most recently read and written page.
+    * When another core allocates the same page or page table first, its
+    * copy is used.
+    *
+    * @param number the page number
+    * @return the page
+    */
+   private int[] allocate(int number) {
+      int index = number >>> TABLE_BITS;
+      int[][] table = table(index);
+      if (table == null) {
+         int[][] created = new int[TABLE_SIZE][];
+         table = (int[][]) TABLES.compareAndExchange(directory, index, null,
+                 created);
+         if (table == null)
+            table = created;
+      }
+
+      int[] page = (int[]) PAGES.getAcquire(table, number & (TABLE_SIZE - 1));
+      if (page == null) {
+         int[] original = parent == null ? null : parent.page(number);
+         int[] created = original == null ? new int[PAGE_SIZE / 4]
+                                          : original.clone();
+         page = (int[]) PAGES.compareAndExchange(table,
+                 number & (TABLE_SIZE - 1), null, created);
+         if (page == null)
+            page = created;
+      }
+
+      if (!shared)
+         dirty.set(number);
+      lastNumber = number;
+      lastPage = page;
+      lastWriteNumber = number;
+      lastWritePage = page;
+      return page;
+   }
+
+   /**
+    * Creates the exception for a misaligned access
+    *
+    * @param kind the kind of access
+    * @param address the misaligned address
+    * @return the exception
+    */
+   private static GuestFault unaligned(String kind, int address) {
+      return new GuestFault(String.format(
+              "Unaligned %s address 0x%08x", kind, address));
+   }
+
+   /**
+    * Number of page number bits resolved by each level of the page table
+    */
+   private static final int TABLE_BITS = (32 - PAGE_BITS) / 2;
+
+   /**
+    * Number of entries in each second-level page table
+    */
+   private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+   /**
+    * Mask of the address bits within a page
+    */
+   private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+   /**
+    * Access to the entries of the page directory, the page tables, and the
+    * pages, for publishing pages to other cores and for ll and sc
+    */
+   private static final VarHandle TABLES =
+           MethodHandles.arrayElementVarHandle(int[][][].class);
+   private static final VarHandle PAGES =
+           MethodHandles.arrayElementVarHandle(int[][].class);
+   private static final VarHandle WORDS =
+           MethodHandles.arrayElementVarHandle(int[].class);
+
+   /**
+    * First level of the page table, indexed by the upper page number bits,
+    * shared by every view of the memory
+    */
+   private final int[][][] directory;
+
+   /**
+    * The memory this one was forked from, whose pages are read until they
+    * are written, or null if this memory is not a fork
+    */
+   private final Memory parent;
+
+   /**
+    * True once the pages are shared with another core, after which dirty
+    * pages are no longer tracked
+    */
+   private boolean shared;
+
+   /**
+    * True if a word is reserved by loadLinked, with its byte address and
+    * the value read
+    */
+   private boolean linked;
+   private int linkedAddress;
+   private int linkedValue;
+
+   /**
+    * Number of the most recently read page, or -1 if there is none
+    */
+   private int lastNumber = -1;
+
+   /**
+    * The most recently read page
+    */
+   private int[] lastPage;
+
+   /**
+    * Number of the most recently written page, or -1 if there is none. The
+    * page is already marked dirty.
+    */
+   private int lastWriteNumber = -1;
+
+   /**
+    * The most recently written page
+    */
+   private int[] lastWritePage;
+
+   /**
+    * Page numbers of the pages written since the last call to clean()
+    */
+   private final BitSet dirty = new BitSet();
+}
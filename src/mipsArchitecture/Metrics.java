@@ -0,0 +1,539 @@
+package mipsArchitecture;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Runtime metrics of every simulator in the JVM, for watching a simulator
+ * in production. Metrics are enabled with -Dmips.metrics=true; without it
+ * nothing is counted, and the JFR classes are never loaded, which would
+ * add to the startup time of every run.
+ *
+ * Every Simulator counts what it executes in a
+ * Recorder of its own, with plain arrays that only its thread touches, and
+ * adds the counts to shared LongAdder counters once every FLUSH_INTERVAL
+ * instructions and when a run stops, so that simulators running at once
+ * never contend on a counter. A run that only pauses, for a step or a
+ * turn, adds just its instruction count, so that it does not cost a walk
+ * over the whole program. The counters are published as the
+ * MetricsMXBean mipsArchitecture:type=Metrics, and as a JFR event sampled
+ * every second. Each program load, run, and guest fault is also a JFR
+ * event, which costs nothing unless a flight recording is enabled for it.
+ */
+final class Metrics implements MetricsMXBean {
+   /**
+    * True if the counters are enabled with -Dmips.metrics=true
+    */
+   static final boolean ENABLED = Boolean.getBoolean("mips.metrics");
+
+   /**
+    * Name of the MBean
+    */
+   static final String OBJECT_NAME = "mipsArchitecture:type=Metrics";
+
+   /**
+    * Number of instructions after which a Recorder adds its counts to the
+    * shared counters during a run
+    */
+   static final long FLUSH_INTERVAL = 1 << 24;
+
+   /**
+    * Formats of a loaded program
+    */
+   static final String SOURCE = "source";
+   static final String IMAGE = "image";
+   static final String MACHINE_CODE = "machine code";
+
+   static {
+      if (ENABLED) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new Metrics(), new ObjectName(OBJECT_NAME));
+         } catch (JMException jme) {
+            throw new IllegalStateException("Cannot register " +
+                    OBJECT_NAME + ": " + jme.getMessage(), jme);
+         }
+         FlightRecorder.addPeriodicEvent(ThroughputEvent.class,
+                 Metrics::sample);
+      }
+   }
+
+   /**
+    * Records that a program was assembled or loaded
+    *
+    * @param format SOURCE, IMAGE, or MACHINE_CODE
+    * @param nanos time taken to load the program in nanoseconds
+    * @param program the program
+    */
+   static void loaded(String format, long nanos, Program program) {
+      if (!ENABLED)
+         return;
+      LOADS.increment();
+      LOAD_NANOS.add(nanos);
+
+      LoadEvent event = new LoadEvent();
+      if (event.isEnabled()) {
+         event.format = format;
+         event.instructions = program.instructions.length;
+         event.dataWords = program.data.length;
+         event.loadTime = nanos;
+         event.commit();
+      }
+   }
+
+   /**
+    * Records a call of Simulator.run
+    *
+    * @param recorder the simulator's recorder, or null if metrics are not
+    *                 enabled
+    * @param start System.nanoTime() at which the run began
+    * @param first instruction count at which the run began
+    * @param count instruction count at which the run stopped
+    * @param status how the run stopped, or RUNNING if it paused
+    * @param fault the fault that stopped the run, or null
+    */
+   static void ran(Recorder recorder, long start, long first, long count,
+                   int status, GuestFault fault) {
+      if (recorder == null)
+         return;
+      long nanos = System.nanoTime() - start;
+      if (status != Simulator.RUNNING || count >= recorder.due())
+         recorder.flush(count);
+      else
+         recorder.count(count);
+      RUN_NANOS.add(nanos);
+      if (status != Simulator.RUNNING)
+         RUNS[status].increment();
+
+      RunEvent run = new RunEvent();
+      if (run.isEnabled()) {
+         run.instructions = count - first;
+         run.status = status == Simulator.RUNNING
+                    ? "paused" : Simulator.STATUS_NAMES[status];
+         run.runTime = nanos;
+         run.commit();
+      }
+      if (fault != null) {
+         FaultEvent event = new FaultEvent();
+         if (event.isEnabled()) {
+            event.instruction = fault.getIndex() + 1;
+            event.description = fault.getMessage();
+            event.commit();
+         }
+      }
+   }
+
+   /**
+    * Counts the instructions executed by one simulator. The interpreter
+    * counts every instruction and the block cache every block, by index,
+    * and the counts are turned into counts per opcode, memory access, and
+    * branch outcome only when they are flushed.
+    */
+   static final class Recorder {
+      /**
+       * Constructs Recorder object
+       *
+       * @param program the program being run
+       */
+      Recorder(Program program) {
+         this.instructions = program.instructions;
+         int length = instructions.length;
+         this.executions = new long[length];
+         this.blocks = new long[length];
+         this.ends = new int[length];
+         this.taken = new long[length];
+         this.targets = new int[length];
+         for (int i = 0; i < length; ++i)
+            targets[i] = instructions[i].kind() == Instruction.BRANCH
+                       ? instructions[i].rt : -1;
+      }
+
+      /**
+       * Begins counting a run. Counts left by runs that paused are kept
+       * until they are due.
+       *
+       * @param count instruction count at which the run begins
+       */
+      void start(long count) {
+         flushed = count;
+         due = Math.min(due, count + FLUSH_INTERVAL);
+      }
+
+      /**
+       * Returns the instruction count at which the counts are next flushed
+       *
+       * @return the instruction count
+       */
+      long due() { return due; }
+
+      /**
+       * Counts an instruction executed by the interpreter
+       *
+       * @param index index of the instruction
+       * @param next index of the instruction executed after it
+       */
+      void instruction(int index, int next) {
+         ++executions[index];
+         if (next == targets[index])
+            ++taken[index];
+      }
+
+      /**
+       * Counts a block executed by the block cache
+       *
+       * @param block the block
+       * @param next index of the instruction executed after it
+       */
+      void block(Block block, int next) {
+         ++blocks[block.start];
+         ends[block.start] = block.end;
+         if (next == targets[block.end - 1])
+            ++taken[block.end - 1];
+      }
+
+      /**
+       * Adds the instructions executed since the last call to the shared
+       * instruction count
+       *
+       * @param count the simulator's instruction count
+       */
+      void count(long count) {
+         INSTRUCTIONS.add(count - flushed);
+         flushed = count;
+      }
+
+      /**
+       * Adds the counts to the shared counters and clears them
+       *
+       * @param count the simulator's instruction count
+       */
+      void flush(long count) {
+         count(count);
+         due = count + FLUSH_INTERVAL;
+
+         for (int start = 0; start < blocks.length; ++start) {
+            long runs = blocks[start];
+            if (runs == 0)
+               continue;
+            for (int i = start; i < ends[start]; ++i)
+               executions[i] += runs;
+            blocks[start] = 0;
+         }
+
+         long reads = 0, writes = 0, branches = 0, branchesTaken = 0;
+         for (int i = 0; i < executions.length; ++i) {
+            long n = executions[i];
+            if (n == 0)
+               continue;
+            int opcode = instructions[i].opcode;
+            opcodes[opcode] += n;
+            switch (Instruction.KINDS[opcode]) {
+               case Instruction.LOAD:
+                  reads += n;
+                  break;
+               case Instruction.STORE:
+                  writes += n;
+                  break;
+               case Instruction.ATOMIC:
+                  reads += n;
+                  writes += n;
+                  break;
+               case Instruction.BRANCH:
+                  branches += n;
+                  branchesTaken += taken[i];
+                  taken[i] = 0;
+                  break;
+               default: break;
+            }
+            executions[i] = 0;
+         }
+
+         for (int opcode = 0; opcode < opcodes.length; ++opcode) {
+            if (opcodes[opcode] != 0) {
+               OPCODES[opcode].add(opcodes[opcode]);
+               opcodes[opcode] = 0;
+            }
+         }
+         READS.add(reads);
+         WRITES.add(writes);
+         TAKEN.add(branchesTaken);
+         NOT_TAKEN.add(branches - branchesTaken);
+      }
+
+      /**
+       * Decoded instructions of the program
+       */
+      private final Instruction[] instructions;
+
+      /**
+       * Executions of each instruction by the interpreter, and of each block
+       * by the block cache, indexed by the index of its first instruction
+       */
+      private final long[] executions;
+      private final long[] blocks;
+
+      /**
+       * Index of the instruction following each block counted in blocks
+       */
+      private final int[] ends;
+
+      /**
+       * Taken executions of each branch
+       */
+      private final long[] taken;
+
+      /**
+       * Index each branch leads to, or -1 for other instructions
+       */
+      private final int[] targets;
+
+      /**
+       * Executions of each opcode, gathered while flushing
+       */
+      private final long[] opcodes = new long[Instruction.NAMES.length];
+
+      /**
+       * Instruction count last added to the shared count, and the count at
+       * which every count is next flushed
+       */
+      private long flushed;
+      private long due = Long.MAX_VALUE;
+   }
+
+   /**
+    * A program assembled or loaded from an image
+    */
+   @Name("mipsArchitecture.ProgramLoad")
+   @Label("Program Load")
+   @Category("MIPS Simulator")
+   @Description("A program assembled, or loaded from an image")
+   @StackTrace(false)
+   static final class LoadEvent extends Event {
+      @Label("Format")
+      String format;
+
+      @Label("Instructions")
+      int instructions;
+
+      @Label("Data Words")
+      int dataWords;
+
+      @Label("Load Time")
+      @Timespan(Timespan.NANOSECONDS)
+      long loadTime;
+   }
+
+   /**
+    * A call of Simulator.run, which runs a program to the end, or a turn or
+    * step of it
+    */
+   @Name("mipsArchitecture.Run")
+   @Label("Simulation Run")
+   @Category("MIPS Simulator")
+   @Description("A program run until it stopped or paused")
+   @StackTrace(false)
+   static final class RunEvent extends Event {
+      @Label("Instructions")
+      long instructions;
+
+      @Label("Status")
+      String status;
+
+      @Label("Run Time")
+      @Timespan(Timespan.NANOSECONDS)
+      long runTime;
+   }
+
+   /**
+    * A guest fault that stopped a program
+    */
+   @Name("mipsArchitecture.GuestFault")
+   @Label("Guest Fault")
+   @Category("MIPS Simulator")
+   @Description("An error made by the simulated program")
+   @StackTrace(false)
+   static final class FaultEvent extends Event {
+      @Label("Instruction")
+      @Description("Number of the instruction, counted from 1, or 0")
+      int instruction;
+
+      @Label("Description")
+      String description;
+   }
+
+   /**
+    * The shared counters, sampled periodically
+    */
+   @Name("mipsArchitecture.Throughput")
+   @Label("Simulation Throughput")
+   @Category("MIPS Simulator")
+   @Description("Instructions and runs of every simulator since the last " +
+           "sample")
+   @Period("1 s")
+   @StackTrace(false)
+   static final class ThroughputEvent extends Event {
+      @Label("Instructions")
+      long instructions;
+
+      @Label("Instructions per Second")
+      double instructionsPerSecond;
+
+      @Label("Runs")
+      long runs;
+
+      @Label("Faults")
+      long faults;
+   }
+
+   /**
+    * Emits the throughput event, called by the flight recorder every
+    * period
+    */
+   private static synchronized void sample() {
+      long now = System.nanoTime();
+      long instructions = INSTRUCTIONS.sum();
+      long runs = 0;
+      for (LongAdder count : RUNS)
+         runs += count.sum();
+      long faults = RUNS[Simulator.FAULT].sum();
+
+      ThroughputEvent event = new ThroughputEvent();
+      event.instructions = instructions - sampled[0];
+      event.runs = runs - sampled[1];
+      event.faults = faults - sampled[2];
+      event.instructionsPerSecond = sampledAt == 0 ? 0
+              : event.instructions / ((now - sampledAt) / 1e9);
+      event.commit();
+
+      sampled[0] = instructions;
+      sampled[1] = runs;
+      sampled[2] = faults;
+      sampledAt = now;
+   }
+
+   /**
+    * Constructs Metrics object, the MBean
+    */
+   private Metrics() { }
+
+   @Override
+   public long getInstructionCount() { return INSTRUCTIONS.sum(); }
+
+   @Override
+   public double getInstructionsPerSecond() {
+      long nanos = RUN_NANOS.sum();
+      return nanos == 0 ? 0 : INSTRUCTIONS.sum() / (nanos / 1e9);
+   }
+
+   @Override
+   public long getRunNanos() { return RUN_NANOS.sum(); }
+
+   @Override
+   public Map<String, Long> getRunCounts() {
+      Map<String, Long> counts = new LinkedHashMap<>();
+      for (int status = 0; status < RUNS.length; ++status)
+         counts.put(Simulator.STATUS_NAMES[status], RUNS[status].sum());
+      return counts;
+   }
+
+   @Override
+   public long getFaultCount() { return RUNS[Simulator.FAULT].sum(); }
+
+   @Override
+   public Map<String, Long> getOpcodeCounts() {
+      Map<String, Long> counts = new LinkedHashMap<>();
+      for (int opcode = 0; opcode < OPCODES.length; ++opcode) {
+         long count = OPCODES[opcode].sum();
+         if (count != 0)
+            counts.put(Instruction.name(opcode), count);
+      }
+      return counts;
+   }
+
+   @Override
+   public long getMemoryReads() { return READS.sum(); }
+
+   @Override
+   public long getMemoryWrites() { return WRITES.sum(); }
+
+   @Override
+   public long getBranchesTaken() { return TAKEN.sum(); }
+
+   @Override
+   public long getBranchesNotTaken() { return NOT_TAKEN.sum(); }
+
+   @Override
+   public long getProgramsLoaded() { return LOADS.sum(); }
+
+   @Override
+   public long getLoadNanos() { return LOAD_NANOS.sum(); }
+
+   /**
+    * Creates an array of counters
+    *
+    * @param length the number of counters
+    * @return the counters
+    */
+   private static LongAdder[] adders(int length) {
+      LongAdder[] adders = new LongAdder[length];
+      Arrays.setAll(adders, i -> new LongAdder());
+      return adders;
+   }
+
+   /**
+    * Instructions executed, and the time spent running them in nanoseconds
+    */
+   private static final LongAdder INSTRUCTIONS = new LongAdder();
+   private static final LongAdder RUN_NANOS = new LongAdder();
+
+   /**
+    * Runs that ended, indexed by status
+    */
+   private static final LongAdder[] RUNS =
+           adders(Simulator.STATUS_NAMES.length);
+
+   /**
+    * Instructions executed, indexed by opcode
+    */
+   private static final LongAdder[] OPCODES =
+           adders(Instruction.NAMES.length);
+
+   /**
+    * Instructions that read and wrote memory
+    */
+   private static final LongAdder READS = new LongAdder();
+   private static final LongAdder WRITES = new LongAdder();
+
+   /**
+    * Branches taken and not taken
+    */
+   private static final LongAdder TAKEN = new LongAdder();
+   private static final LongAdder NOT_TAKEN = new LongAdder();
+
+   /**
+    * Programs loaded, and the time spent loading them in nanoseconds
+    */
+   private static final LongAdder LOADS = new LongAdder();
+   private static final LongAdder LOAD_NANOS = new LongAdder();
+
+   /**
+    * Instructions, runs, and faults at the last sample, and the
+    * System.nanoTime() at which it was taken, or 0 before the first
+    */
+   private static final long[] sampled = new long[3];
+   private static long sampledAt;
+}
@@ -0,0 +1,99 @@
+package mipsArchitecture;
+
+import java.util.Map;
+
+/**
+ * Management interface of the simulator's runtime metrics, registered as
+ * mipsArchitecture:type=Metrics in the platform MBean server when the JVM
+ * is started with -Dmips.metrics=true. Every counter covers all of the
+ * simulators in the JVM since it started.
+ */
+public interface MetricsMXBean {
+   /**
+    * Returns the number of instructions executed
+    *
+    * @return the number of instructions
+    */
+   long getInstructionCount();
+
+   /**
+    * Returns the mean speed of a simulator: the instructions executed
+    * divided by the time spent running them, summed over simulators that
+    * run at once. The rate of the whole JVM is the rate at which the
+    * instruction count grows.
+    *
+    * @return instructions per second of running time
+    */
+   double getInstructionsPerSecond();
+
+   /**
+    * Returns the time spent running programs, summed over simulators
+    *
+    * @return the time in nanoseconds
+    */
+   long getRunNanos();
+
+   /**
+    * Returns the number of runs that ended, by how they ended
+    *
+    * @return the number of runs, keyed by status name
+    */
+   Map<String, Long> getRunCounts();
+
+   /**
+    * Returns the number of runs stopped by a guest fault
+    *
+    * @return the number of faults
+    */
+   long getFaultCount();
+
+   /**
+    * Returns the number of instructions executed of each opcode, counted by
+    * the interpreter and the basic block cache, but not the pipeline model
+    *
+    * @return the number of instructions, keyed by opcode name
+    */
+   Map<String, Long> getOpcodeCounts();
+
+   /**
+    * Returns the number of executed instructions that read memory
+    *
+    * @return the number of loads, ll, and sc
+    */
+   long getMemoryReads();
+
+   /**
+    * Returns the number of executed instructions that write memory
+    *
+    * @return the number of stores and sc
+    */
+   long getMemoryWrites();
+
+   /**
+    * Returns the number of executed branches that were taken
+    *
+    * @return the number of taken branches
+    */
+   long getBranchesTaken();
+
+   /**
+    * Returns the number of executed branches that were not taken
+    *
+    * @return the number of branches not taken
+    */
+   long getBranchesNotTaken();
+
+   /**
+    * Returns the number of programs assembled or loaded from images
+    *
+    * @return the number of programs
+    */
+   long getProgramsLoaded();
+
+   /**
+    * Returns the time spent assembling and loading programs
+    *
+    * @return the time in nanoseconds
+    */
+   long getLoadNanos();
+}
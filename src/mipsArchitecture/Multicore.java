@@ -0,0 +1,212 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a program on several simulated cores that share one memory.
+ * Every core is a Simulator with its own pc and register file, and a view of
+ * the memory made by Memory.share(). Each core starts at the first
+ * instruction with its core number in $a0, the number of cores in $a1, and
+ * its own stack, STACK_SPACING bytes below the stack of the core before it,
+ * and the cores synchronize through ll and sc. A core halts when it runs
+ * past its last instruction or calls exit, and the program ends once every
+ * core has halted.
+ *
+ * By default every core runs on its own host thread, so the cores run in
+ * parallel and, as on real hardware, interleave differently from run to
+ * run. In lockstep mode the cores instead take turns on the calling thread,
+ * each executing a fixed quantum of instructions per turn, so that every
+ * run of a program interleaves the same way.
+ */
+final class Multicore {
+   /**
+    * Distance in bytes between the initial stack pointers of neighboring
+    * cores
+    */
+   static final int STACK_SPACING = 1 << 20;
+
+   /**
+    * Constructs Multicore object, loading the program's data into the
+    * shared memory
+    *
+    * @param program assembled program from input file
+    * @param count number of cores
+    * @param system the system calls shared by the cores
+    */
+   Multicore(Program program, int count, Syscalls system) {
+      this.data = program.data;
+      cores = new Simulator[count];
+      cores[0] = new Simulator(program, false);
+      Memory memory = cores[0].getMemory();
+      for (int i = 1; i < count; ++i)
+         cores[i] = new Simulator(program, false, memory.share());
+
+      int sp = Simulator.registerNumber("$sp");
+      for (int i = 0; i < count; ++i) {
+         cores[i].useSyscalls(system.core());
+         cores[i].setRegister(Syscalls.A0, i);
+         cores[i].setRegister(Syscalls.A1, count);
+         cores[i].setRegister(sp, Simulator.STACK_POINTER - i * STACK_SPACING);
+      }
+   }
+
+   /**
+    * Returns the simulators of the cores, so that each can be configured
+    * before the program runs
+    *
+    * @return the simulator of each core, indexed by core number
+    */
+   Simulator[] getCores() { return cores; }
+
+   /**
+    * Stops runaway programs, as Simulator.useLimits does, counting the
+    * instructions of each core separately
+    *
+    * @param steps number of instructions after which a core is stopped, or
+    *              0 for no limit
+    * @param millis wall time in milliseconds after which every core is
+    *               stopped, or 0 for no limit
+    */
+   void useLimits(long steps, long millis) {
+      for (Simulator core : cores)
+         core.useLimits(steps, 0);
+      timeout = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0));
+   }
+
+   /**
+    * Runs the cores in lockstep instead of on separate threads
+    *
+    * @param quantum number of instructions each core executes per turn
+    */
+   void useLockstep(long quantum) {
+      this.quantum = quantum;
+   }
+
+   /**
+    * Runs the program on every core, then prints the final state of each
+    * core and the shared memory, and how each core stopped
+    *
+    * @param writer writer of the final state
+    */
+   void begin(StateWriter writer) {
+      long start = System.nanoTime();
+      if (quantum > 0)
+         lockstep();
+      else
+         parallel();
+      long elapsed = System.nanoTime() - start;
+
+      try {
+         writer.write(cores, data);
+      } catch (IOException ioe) {
+         throw new IllegalStateException("Cannot write the final state: " +
+                 ioe.getMessage(), ioe);
+      }
+
+      long instructions = 0;
+      for (int i = 0; i < cores.length; ++i) {
+         Simulator core = cores[i];
+         instructions += core.getInstructionCount();
+         StringBuilder line = new StringBuilder("Core ").append(i)
+                 .append(": ").append(core.getInstructionCount())
+                 .append(" instructions, ");
+         int status = core.getStatus();
+         if (status == Simulator.FAULT)
+            line.append("fault at ").append(core.getFault().describe());
+         else if (core.getSyscalls().hasExited())
+            line.append("exited with code ")
+                .append(core.getSyscalls().getExitCode());
+         else
+            line.append(Simulator.STATUS_NAMES[status]);
+         System.out.println(line);
+      }
+      System.out.printf("%d cores%s: %d instructions in %.3f s, " +
+              "%.0f instructions/s\n", cores.length,
+              quantum > 0 ? " in lockstep" : "", instructions, elapsed / 1e9,
+              instructions / (elapsed / 1e9));
+   }
+
+   /**
+    * Runs every core on its own thread until all of them have stopped
+    *
+    * @throws IllegalStateException if a core stops with an error other
+    *                               than a guest fault
+    */
+   private void parallel() {
+      long deadline = timeout > 0 ? System.nanoTime() + timeout : 0;
+      ExecutorService executor = Executors.newFixedThreadPool(cores.length);
+      try {
+         List<Future<Integer>> runs = new ArrayList<>();
+         for (Simulator core : cores) {
+            Callable<Integer> run = () -> core.run(Long.MAX_VALUE, deadline);
+            runs.add(executor.submit(run));
+         }
+         for (Future<Integer> run : runs)
+            run.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted", ie);
+      } catch (ExecutionException ee) {
+         throw new IllegalStateException(ee.getCause().getMessage(),
+                 ee.getCause());
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Runs the cores in turn, quantum instructions at a time, until all of
+    * them have stopped. The time limit is checked after every round of
+    * turns, as well as within each turn.
+    */
+   private void lockstep() {
+      long deadline = timeout > 0 ? System.nanoTime() + timeout : 0;
+      boolean running = true;
+      while (running) {
+         running = false;
+         for (Simulator core : cores) {
+            int status = core.getStatus();
+            if (status != Simulator.RUNNING)
+               continue;
+            if (core.run(quantum, deadline) == Simulator.RUNNING)
+               running = true;
+         }
+
+         if (running && deadline != 0 && System.nanoTime() - deadline >= 0) {
+            for (Simulator core : cores)
+               core.timedOut();
+            running = false;
+         }
+      }
+   }
+
+   /**
+    * The simulator of each core, indexed by core number
+    */
+   private final Simulator[] cores;
+
+   /**
+    * Initial words of the data segment, starting at Program.DATA_BASE
+    */
+   private final int[] data;
+
+   /**
+    * Wall time in nanoseconds after which every core is stopped, or 0 for
+    * no limit
+    */
+   private long timeout;
+
+   /**
+    * Number of instructions each core executes per turn in lockstep, or 0
+    * to run every core on its own thread
+    */
+   private long quantum;
+}
@@ -0,0 +1,235 @@
+package mipsArchitecture;
+
+/**
+ * The operations of the instruction set, in tables indexed by opcode.
+ * The interpreter, the pipeline model, and the basic block cache all look
+ * up what an instruction does here instead of switching on its opcode, so
+ * each operation is defined once, and adding instructions does not lengthen
+ * the path taken by the common ones.
+ */
+final class Operations {
+   /**
+    * Computes the result of an instruction from its two operands
+    */
+   interface Function {
+      /**
+       * Applies the operation
+       *
+       * @param a value of rs
+       * @param b value of rt
+       * @return the result
+       */
+      int apply(int a, int b);
+   }
+
+   /**
+    * Decides whether a branch is taken
+    */
+   interface Condition {
+      /**
+       * Tests the branch condition
+       *
+       * @param a value of rd, the 1st register compared
+       * @param b value of rs, the 2nd register compared
+       * @return true if the branch is taken
+       */
+      boolean test(int a, int b);
+   }
+
+   /**
+    * Computes the HI and LO results of a multiply or divide
+    */
+   interface Wide {
+      /**
+       * Applies the operation
+       *
+       * @param a value of rs
+       * @param b value of rt
+       * @return HI in the upper 32 bits and LO in the lower 32 bits
+       */
+      long apply(int a, int b);
+   }
+
+   /**
+    * Reads memory for a load
+    */
+   interface Load {
+      /**
+       * Performs the load
+       *
+       * @param m the memory
+       * @param address byte address
+       * @return the value, extended to 32 bits
+       */
+      int apply(Memory m, int address);
+   }
+
+   /**
+    * Writes memory for a store
+    */
+   interface Store {
+      /**
+       * Performs the store
+       *
+       * @param m the memory
+       * @param address byte address
+       * @param value the value, of which the low bits are stored
+       */
+      void apply(Memory m, int address, int value);
+   }
+
+   /**
+    * Reads and conditionally writes memory for an atomic instruction
+    */
+   interface Atomic {
+      /**
+       * Performs the access
+       *
+       * @param m the memory
+       * @param address byte address
+       * @param value the value to store
+       * @return the value written to the register
+       */
+      int apply(Memory m, int address, int value);
+   }
+
+   /**
+    * Register numbers of HI and LO, after the general purpose registers
+    */
+   static final int HI = 32;
+   static final int LO = 33;
+
+   /**
+    * Results of computations, and addresses of loads and stores
+    */
+   static final Function[] FUNCTIONS = new Function[Instruction.NAMES.length];
+
+   /**
+    * Conditions of branches
+    */
+   static final Condition[] CONDITIONS =
+           new Condition[Instruction.NAMES.length];
+
+   /**
+    * Results of multiplies and divides
+    */
+   static final Wide[] WIDE = new Wide[Instruction.NAMES.length];
+
+   /**
+    * Loads and stores of each width
+    */
+   static final Load[] LOADS = new Load[Instruction.NAMES.length];
+   static final Store[] STORES = new Store[Instruction.NAMES.length];
+
+   /**
+    * Atomic accesses
+    */
+   static final Atomic[] ATOMICS = new Atomic[Instruction.NAMES.length];
+
+   static {
+      FUNCTIONS[Instruction.ADD]  = (a, b) -> a + b;
+      FUNCTIONS[Instruction.SUB]  = (a, b) -> a - b;
+      FUNCTIONS[Instruction.AND]  = (a, b) -> a & b;
+      FUNCTIONS[Instruction.OR]   = (a, b) -> a | b;
+      FUNCTIONS[Instruction.XOR]  = (a, b) -> a ^ b;
+      FUNCTIONS[Instruction.NOR]  = (a, b) -> ~(a | b);
+      FUNCTIONS[Instruction.SLL]  = (a, b) -> a << b;
+      FUNCTIONS[Instruction.SRL]  = (a, b) -> a >>> b;
+      FUNCTIONS[Instruction.SRA]  = (a, b) -> a >> b;
+      FUNCTIONS[Instruction.MUL]  = (a, b) -> a * b;
+      FUNCTIONS[Instruction.SLT]  = (a, b) -> a < b ? 1 : 0;
+      FUNCTIONS[Instruction.SLTU] = (a, b) ->
+              Integer.compareUnsigned(a, b) < 0 ? 1 : 0;
+      for (int opcode : new int[] { Instruction.MFHI, Instruction.MFLO,
+              Instruction.MTHI, Instruction.MTLO })
+         FUNCTIONS[opcode] = (a, b) -> a;
+      for (int opcode = 1; opcode < FUNCTIONS.length; ++opcode) {
+         int kind = Instruction.KINDS[opcode];
+         if (kind == Instruction.LOAD || kind == Instruction.STORE ||
+                 kind == Instruction.ATOMIC)
+            FUNCTIONS[opcode] = FUNCTIONS[Instruction.ADD];
+      }
+
+      CONDITIONS[Instruction.BEQ]  = (a, b) -> a == b;
+      CONDITIONS[Instruction.BNE]  = (a, b) -> a != b;
+      CONDITIONS[Instruction.BLEZ] = (a, b) -> a <= b;
+      CONDITIONS[Instruction.BGTZ] = (a, b) -> a > b;
+      CONDITIONS[Instruction.BLTZ] = (a, b) -> a < b;
+      CONDITIONS[Instruction.BGEZ] = (a, b) -> a >= b;
+
+      WIDE[Instruction.MULT]  = (a, b) -> (long) a * b;
+      WIDE[Instruction.MULTU] = (a, b) ->
+              Integer.toUnsignedLong(a) * Integer.toUnsignedLong(b);
+      WIDE[Instruction.DIV]   = (a, b) ->
+              ((long) (a % b) << 32) | ((a / b) & 0xffffffffL);
+      WIDE[Instruction.DIVU]  = (a, b) ->
+              ((long) Integer.remainderUnsigned(a, b) << 32) |
+              Integer.toUnsignedLong(Integer.divideUnsigned(a, b));
+
+      LOADS[Instruction.LW]  = Memory::loadWord;
+      LOADS[Instruction.LH]  = (m, address) -> (short) m.loadHalf(address);
+      LOADS[Instruction.LHU] = Memory::loadHalf;
+      LOADS[Instruction.LB]  = (m, address) -> (byte) m.loadByte(address);
+      LOADS[Instruction.LBU] = Memory::loadByte;
+      LOADS[Instruction.LL]  = Memory::loadLinked;
+
+      STORES[Instruction.SW] = Memory::storeWord;
+      STORES[Instruction.SH] = Memory::storeHalf;
+      STORES[Instruction.SB] = Memory::storeByte;
+
+      ATOMICS[Instruction.SC] = Memory::storeConditional;
+   }
+
+   /**
+    * Performs a multiply or divide, writing HI and LO. As on MIPS, dividing
+    * by zero does not trap; HI and LO are left unchanged.
+    *
+    * @param r the register file
+    * @param opcode the operation
+    * @param a value of rs
+    * @param b value of rt
+    */
+   static void hiLo(int[] r, int opcode, int a, int b) {
+      if (b == 0 && (opcode == Instruction.DIV || opcode == Instruction.DIVU))
+         return;
+
+      long result = WIDE[opcode].apply(a, b);
+      r[HI] = (int) (result >>> 32);
+      r[LO] = (int) result;
+   }
+
+   /**
+    * Returns the byte address of the instruction following the one at the
+    * given index, which jal and jalr save as the return address
+    *
+    * @param index index of the jal or jalr
+    * @return the return address
+    */
+   static int returnAddress(int index) {
+      return Program.TEXT_BASE + 4 * (index + 1);
+   }
+
+   /**
+    * Translates the byte address in the register of a jr or jalr to an
+    * instruction index. The address just past the last instruction is
+    * allowed, and halts the program.
+    *
+    * @param address byte address of the target
+    * @param length number of instructions in the program
+    * @return index of the target instruction
+    * @throws GuestFault if the address is not an instruction of the
+    *                     program
+    */
+   static int jumpIndex(int address, int length) {
+      long offset = Integer.toUnsignedLong(address) - Program.TEXT_BASE;
+      if (offset < 0 || offset > 4L * length || (offset & 3) != 0)
+         throw new GuestFault(String.format(
+                 "Jump to 0x%08x outside of the program", address));
+      return (int) (offset >> 2);
+   }
+
+   /**
+    * Constructs Operations object. The class only holds tables.
+    */
+   private Operations() { }
+}
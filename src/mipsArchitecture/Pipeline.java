@@ -0,0 +1,523 @@
+package mipsArchitecture;
+
+/**
+ * Cycle-accurate model of the classic 5-stage MIPS pipeline.
+ * Each cycle moves instructions through the IF/ID, ID/EX, EX/MEM, and MEM/WB
+ * latches. The stages are evaluated from write-back to fetch, so that every
+ * stage sees the latch contents left by the previous cycle:
+ *
+ * - WB writes the register file in the first half of the cycle, so a
+ *   value written back is read from the register file in the second half
+ * - EX receives operands forwarded from the instruction in MEM, through
+ *   the EX/MEM and MEM/WB latches
+ * - ID stalls an instruction for one cycle when it uses the result of a
+ *   load that is still in EX (load-use hazard)
+ * - j and jal are resolved in ID, flushing the fetch cycle behind them
+ * - branches are predicted not taken and resolved in EX, flushing the two
+ *   fetch cycles behind them when taken; jr and jalr are resolved in EX as
+ *   well, since they need the forwarded register
+ * - mult, div, mthi, and mtlo write HI and LO in EX, so they are never
+ *   forwarded
+ * - syscall is performed in EX with forwarded arguments, and its result
+ *   passes down the pipeline to $v0 like any other; exit flushes the
+ *   instructions fetched behind it
+ * - loads and stores that take the data cache longer than a cycle stall
+ *   the pipeline for the remaining cycles
+ * - sc performs its store in MEM, and its result is forwarded like the
+ *   value of a load
+ *
+ * Execution results are identical to the interpreter, while the number of
+ * cycles, stalls, flushes, and forwards give the cost of the code sequence.
+ * Every stage looks up what an instruction does in the tables of
+ * Operations.
+ */
+final class Pipeline {
+   /**
+    * Constructs Pipeline object
+    *
+    * @param instructions decoded instructions of the program
+    * @param registers the register file
+    * @param memory the memory
+    * @param dataCache first level of the data cache, or null if none
+    * @param system the system calls of the program
+    * @param debug true to print the contents of each stage every cycle
+    */
+   Pipeline(Instruction[] instructions, int[] registers, Memory memory,
+            Cache dataCache, Syscalls system, boolean debug) {
+      this.instructions = instructions;
+      this.registers = registers;
+      this.memory = memory;
+      this.dataCache = dataCache;
+      this.system = system;
+      this.debug = debug;
+   }
+
+   /**
+    * Runs the program until the pipeline drains or a limit is reached. At
+    * the step limit the cycle stops right after the last allowed
+    * instruction retires, and the instructions still in flight stay in the
+    * latches, so that a later call carries on from there; one in EX may
+    * already have written HI and LO or made its system call. A fault is
+    * located at the instruction in the stage that raised it.
+    *
+    * @param stepLimit number of instructions after which to stop
+    * @param deadline System.nanoTime() after which to stop, or 0 for no
+    *                 time limit
+    * @return Simulator.HALTED, STEP_LIMIT, or TIMEOUT
+    */
+   int run(long stepLimit, long deadline) {
+      long poll = deadline != 0 ? Simulator.TIMEOUT_POLL : Long.MAX_VALUE;
+      while (fetchPc < instructions.length || ifId.insn != null ||
+              idEx.insn != null || exMem.insn != null || memWb.insn != null) {
+         if (!cycle(stepLimit))
+            return Simulator.STEP_LIMIT;
+         if (cycles >= poll) {
+            if (System.nanoTime() - deadline >= 0)
+               return Simulator.TIMEOUT;
+            poll = cycles + Simulator.TIMEOUT_POLL;
+         }
+      }
+      return Simulator.HALTED;
+   }
+
+   /**
+    * Simulates a single clock cycle. A cycle stopped at the step limit is
+    * finished from MEM on by the next call.
+    *
+    * @param stepLimit number of instructions after which to stop
+    * @return false if the step limit was reached in write-back
+    */
+   private boolean cycle(long stepLimit) {
+      if (!paused) {
+         ++cycles;
+         if (debug)
+            printStages();
+
+         writeBack();
+         if (retired >= stepLimit) {
+            paused = true;
+            return false;
+         }
+      }
+      paused = false;
+
+      try {
+         memoryAccess();
+      } catch (GuestFault gf) {
+         throw gf.locate(memWb.index);
+      }
+      int branchTarget;
+      try {
+         branchTarget = execute();
+      } catch (GuestFault gf) {
+         throw gf.locate(exMem.index);
+      }
+
+      if (branchTarget >= 0) {
+         // wrong-path instructions in ID and IF are squashed; the fetch
+         // cycles are lost even past the end of the program, except after
+         // exit, which only squashes the instructions behind it
+         if (exMem.insn.kind() != Instruction.SYSTEM) {
+            flushes += 2;
+         }
+         else {
+            if (ifId.insn != null)
+               ++flushes;
+            if (fetchPc < instructions.length)
+               ++flushes;
+         }
+         ifId.clear();
+         idEx.clear();
+         fetchPc = branchTarget;
+         return true;
+      }
+
+      if (loadUseHazard()) {
+         ++stalls;
+         idEx.clear();
+         return true;
+      }
+
+      int jumpTarget = decode();
+      if (jumpTarget >= 0) {
+         ++flushes;
+         ifId.clear();
+         fetchPc = jumpTarget;
+         return true;
+      }
+
+      fetch();
+      return true;
+   }
+
+   /**
+    * WB: writes the result in the MEM/WB latch to the register file
+    */
+   private void writeBack() {
+      if (memWb.insn == null)
+         return;
+
+      ++retired;
+      int dest = destination(memWb.insn);
+      if (dest > 0)
+         registers[dest] = memWb.value;
+   }
+
+   /**
+    * MEM: performs the load or store in the EX/MEM latch and moves the
+    * instruction to the MEM/WB latch. An access that takes the data cache
+    * more than one cycle stalls the whole pipeline until it completes.
+    */
+   private void memoryAccess() {
+      memWb.copy(exMem);
+      if (memWb.insn == null)
+         return;
+
+      int opcode = memWb.insn.opcode;
+      int kind = Instruction.KINDS[opcode];
+      boolean atomic = kind == Instruction.ATOMIC;
+      if (dataCache != null && (kind == Instruction.LOAD ||
+              kind == Instruction.STORE || atomic)) {
+         int stall = dataCache.access(memWb.address,
+                 kind != Instruction.LOAD) - 1;
+         cycles += stall;
+         memoryStalls += stall;
+      }
+
+      if (kind == Instruction.LOAD)
+         memWb.value = Operations.LOADS[opcode].apply(memory, memWb.address);
+      else if (kind == Instruction.STORE)
+         Operations.STORES[opcode].apply(memory, memWb.address,
+                 memWb.store);
+      else if (atomic)
+         memWb.value = Operations.ATOMICS[opcode].apply(memory,
+                 memWb.address, memWb.store);
+   }
+
+   /**
+    * EX: computes the result of the instruction in the ID/EX latch, using
+    * forwarded operands, and moves it to the EX/MEM latch
+    *
+    * @return the target of a taken branch, jr, or jalr, the end of the
+    *         program after exit, or -1
+    */
+   private int execute() {
+      exMem.copy(idEx);
+      Instruction in = exMem.insn;
+      if (in == null)
+         return -1;
+
+      int opcode = in.opcode;
+      int kind = in.kind();
+      boolean control = kind == Instruction.BRANCH ||
+              kind == Instruction.JUMP;
+      int rd = kind == Instruction.BRANCH || kind == Instruction.STORE ||
+              kind == Instruction.SYSTEM || kind == Instruction.ATOMIC
+              ? operand(in.rd, in.rdImmediate) : 0;
+      int rs = operand(in.rs, in.rsImmediate);
+      int rt = control ? 0 : operand(in.rt, in.rtImmediate);
+
+      switch (kind) {
+         case Instruction.BRANCH:
+            return Operations.CONDITIONS[opcode].test(rd, rs) ? in.rt : -1;
+         case Instruction.JUMP:
+            exMem.value = Operations.returnAddress(exMem.index);
+            if (opcode == Instruction.JR || opcode == Instruction.JALR)
+               return Operations.jumpIndex(rs, instructions.length);
+            return -1;
+         case Instruction.LOAD:
+            exMem.address = Operations.FUNCTIONS[opcode].apply(rs, rt);
+            break;
+         case Instruction.STORE:
+         case Instruction.ATOMIC:
+            exMem.address = Operations.FUNCTIONS[opcode].apply(rs, rt);
+            exMem.store = rd;
+            break;
+         case Instruction.HI_LO:
+            Operations.hiLo(registers, opcode, rs, rt);
+            break;
+         case Instruction.SYSTEM:
+            exMem.value = system.call(rd, rs, rt, memory);
+            return system.hasExited() ? instructions.length : -1;
+         default:
+            exMem.value = Operations.FUNCTIONS[opcode].apply(rs, rt);
+            if (in.destination() >= Operations.HI)
+               registers[in.rd] = exMem.value;
+            break;
+      }
+
+      return -1;
+   }
+
+   /**
+    * Returns the value of an operand in EX. Register operands are forwarded
+    * from the instruction now in MEM, through the EX/MEM and MEM/WB latches;
+    * otherwise they come from the register file, which already holds the
+    * value written back this cycle.
+    *
+    * @param value the register number, or the value of the constant
+    * @param immediate true if the operand is a constant
+    * @return the operand value
+    */
+   private int operand(int value, boolean immediate) {
+      if (immediate)
+         return value;
+      if (value == 0)
+         return 0;
+
+      if (memWb.insn != null && destination(memWb.insn) == value) {
+         ++forwards;
+         return memWb.value;
+      }
+
+      return registers[value];
+   }
+
+   /**
+    * Checks whether the instruction in ID uses the result of a load or sc
+    * now in EX
+    *
+    * @return true if the instruction in ID must stall for a cycle
+    */
+   private boolean loadUseHazard() {
+      Instruction load = exMem.insn;
+      Instruction in = ifId.insn;
+      if (load == null || in == null || (load.kind() != Instruction.LOAD &&
+              load.kind() != Instruction.ATOMIC))
+         return false;
+
+      int dest = destination(load);
+      return dest > 0 && reads(in, dest);
+   }
+
+   /**
+    * ID: moves the instruction in the IF/ID latch to the ID/EX latch.
+    * Jumps to a known target, j and jal, are resolved here.
+    *
+    * @return the target of a jump, or -1
+    */
+   private int decode() {
+      idEx.copy(ifId);
+      Instruction in = idEx.insn;
+      if (in != null && in.kind() == Instruction.JUMP)
+         return in.target();
+
+      return -1;
+   }
+
+   /**
+    * IF: fetches the next instruction into the IF/ID latch
+    */
+   private void fetch() {
+      if (fetchPc < instructions.length) {
+         ifId.insn = instructions[fetchPc];
+         ifId.index = fetchPc++;
+      }
+      else {
+         ifId.clear();
+      }
+   }
+
+   /**
+    * Returns the register written by an instruction in WB. HI and LO are
+    * written in EX instead.
+    *
+    * @param in the instruction
+    * @return the destination register number, or -1 if there is none
+    */
+   private static int destination(Instruction in) {
+      int dest = in.destination();
+      return dest < Operations.HI ? dest : -1;
+   }
+
+   /**
+    * Checks whether an instruction reads the given register in EX
+    *
+    * @param in the instruction
+    * @param register the register number
+    * @return true if the instruction reads the register
+    */
+   private static boolean reads(Instruction in, int register) {
+      boolean rd = !in.rdImmediate && in.rd == register;
+      boolean rs = !in.rsImmediate && in.rs == register;
+      boolean rt = !in.rtImmediate && in.rt == register;
+
+      switch (in.kind()) {
+         case Instruction.JUMP:   return in.target() < 0 && rs;
+         case Instruction.BRANCH: return rd || rs;
+         case Instruction.STORE:
+         case Instruction.ATOMIC:
+         case Instruction.SYSTEM: return rd || rs || rt;
+         default:                 return rs || rt;
+      }
+   }
+
+   /**
+    * Prints the instruction number held in each stage this cycle
+    */
+   private void printStages() {
+      System.out.printf("Cycle %-6d IF: %-6s ID: %-6s EX: %-6s MEM: %-6s " +
+              "WB: %-6s\n", cycles,
+              fetchPc < instructions.length ? "#" + (fetchPc + 1) : "-",
+              ifId.label(), idEx.label(), exMem.label(), memWb.label());
+   }
+
+   /**
+    * Formats the pipeline statistics for display
+    *
+    * @return the statistics
+    */
+   String statistics() {
+      double cpi = retired == 0 ? 0 : (double) cycles / retired;
+
+      return String.format("Pipeline: %d cycles, %d instructions, CPI %.3f, " +
+              "%d stall cycles, %d memory stall cycles, %d flushed, " +
+              "%d forwarded operands", cycles, retired, cpi, stalls,
+              memoryStalls, flushes, forwards);
+   }
+
+   /**
+    * Returns the number of instructions that completed write-back
+    *
+    * @return the number of retired instructions
+    */
+   long getRetired() { return retired; }
+
+   /**
+    * Contents of a pipeline latch
+    */
+   private static final class Latch {
+      /**
+       * Copies the contents of another latch into this one
+       *
+       * @param other the latch to copy
+       */
+      void copy(Latch other) {
+         insn = other.insn;
+         index = other.index;
+         value = other.value;
+         address = other.address;
+         store = other.store;
+      }
+
+      /**
+       * Empties the latch, inserting a bubble
+       */
+      void clear() {
+         insn = null;
+      }
+
+      /**
+       * Returns the instruction number held by the latch, for display
+       *
+       * @return the instruction number, or "-" for a bubble
+       */
+      String label() {
+         return insn == null ? "-" : "#" + (index + 1);
+      }
+
+      /**
+       * The instruction, or null for a bubble
+       */
+      Instruction insn;
+
+      /**
+       * Index of the instruction in the program
+       */
+      int index;
+
+      /**
+       * Result computed by EX, or loaded by MEM
+       */
+      int value;
+
+      /**
+       * Byte address of a load or store
+       */
+      int address;
+
+      /**
+       * Value to be stored by a store
+       */
+      int store;
+   }
+
+   /**
+    * Pipeline latches
+    */
+   private final Latch ifId = new Latch();
+   private final Latch idEx = new Latch();
+   private final Latch exMem = new Latch();
+   private final Latch memWb = new Latch();
+
+   /**
+    * Index of the next instruction to fetch
+    */
+   private int fetchPc;
+
+   /**
+    * Decoded instructions of the program
+    */
+   private final Instruction[] instructions;
+
+   /**
+    * The register file
+    */
+   private final int[] registers;
+
+   /**
+    * The memory
+    */
+   private final Memory memory;
+
+   /**
+    * First level of the data cache, or null if none is simulated
+    */
+   private final Cache dataCache;
+
+   /**
+    * System calls of the program
+    */
+   private final Syscalls system;
+
+   /**
+    * Debug flag variable
+    */
+   private final boolean debug;
+
+   /**
+    * Clock cycles simulated
+    */
+   private long cycles;
+
+   /**
+    * Instructions that completed write-back
+    */
+   private long retired;
+
+   /**
+    * True if the last cycle stopped at the step limit after write-back
+    */
+   private boolean paused;
+
+   /**
+    * Cycles lost to load-use stalls
+    */
+   private long stalls;
+
+   /**
+    * Cycles lost waiting on the data cache
+    */
+   private long memoryStalls;
+
+   /**
+    * Fetch cycles lost to jumps and taken branches, each squashing a
+    * wrong-path instruction unless the program ended
+    */
+   private long flushes;
+
+   /**
+    * Operands forwarded instead of read from the register file
+    */
+   private long forwards;
+}
@@ -0,0 +1,297 @@
+package mipsArchitecture;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Counts where a simulated program spends its time.
+ * The interpreter reports every instruction it executes, and the profiler
+ * keeps primitive counters per instruction, per opcode, per branch outcome,
+ * and per backward j or branch, which marks a loop. Loads and stores are
+ * counted per 4 KB memory page in an open-addressing table of primitive
+ * arrays, so counting never allocates. After the run the counters are
+ * formatted as a sorted report, and as collapsed stacks, one line per
+ * instruction under the label that precedes it, for flame graph tools.
+ */
+final class Profiler {
+   /**
+    * Number of instructions listed in the hot spot report
+    */
+   static final int HOT_SPOTS = 20;
+
+   /**
+    * Constructs Profiler object
+    *
+    * @param program the program being profiled
+    */
+   Profiler(Program program) {
+      this.instructions = program.instructions;
+      int length = instructions.length;
+      this.counts = new long[length];
+      this.taken = new long[length];
+      this.backEdges = new long[length];
+      this.labels = new String[length];
+      this.pages = new int[64];
+      this.loads = new long[pages.length];
+      this.stores = new long[pages.length];
+      Arrays.fill(pages, EMPTY);
+
+      for (Map.Entry<String, Integer> symbol : program.symbols.entrySet())
+         if (symbol.getValue() < length)
+            labels[symbol.getValue()] = symbol.getKey();
+      for (int i = 1; i < length; ++i)
+         if (labels[i] == null)
+            labels[i] = labels[i - 1];
+   }
+
+   /**
+    * Counts an executed instruction
+    *
+    * @param index index of the instruction
+    * @param next index of the instruction executed after it
+    * @param address byte address accessed by a load or store
+    */
+   void count(int index, int next, int address) {
+      ++counts[index];
+      Instruction in = instructions[index];
+      ++opcodes[in.opcode];
+
+      switch (in.kind()) {
+         case Instruction.BRANCH:
+            if (next == in.rt)
+               ++taken[index];
+            break;
+         case Instruction.LOAD:
+            ++loads[slot(address >>> Memory.PAGE_BITS)];
+            break;
+         case Instruction.STORE:
+         case Instruction.ATOMIC:
+            ++stores[slot(address >>> Memory.PAGE_BITS)];
+            break;
+         default: break;
+      }
+
+      // calls and returns also go backwards, but do not close loops
+      if (next <= index &&
+              (in.kind() == Instruction.BRANCH || in.opcode == Instruction.J))
+         ++backEdges[index];
+   }
+
+   /**
+    * Finds the slot of a page in the page table, adding the page if needed
+    *
+    * @param page the page number
+    * @return index of the page's counters
+    */
+   private int slot(int page) {
+      int mask = pages.length - 1;
+      int i = ((page * 0x9e3779b9) >>> 16) & mask;
+      while (pages[i] != page) {
+         if (pages[i] == EMPTY) {
+            if (2 * (pageCount + 1) > pages.length) {
+               grow();
+               return slot(page);
+            }
+            pages[i] = page;
+            ++pageCount;
+            break;
+         }
+         i = (i + 1) & mask;
+      }
+      return i;
+   }
+
+   /**
+    * Doubles the size of the page table
+    */
+   private void grow() {
+      int[] oldPages = pages;
+      long[] oldLoads = loads, oldStores = stores;
+      pages = new int[oldPages.length * 2];
+      loads = new long[pages.length];
+      stores = new long[pages.length];
+      Arrays.fill(pages, EMPTY);
+      pageCount = 0;
+
+      for (int i = 0; i < oldPages.length; ++i) {
+         if (oldPages[i] == EMPTY)
+            continue;
+         int j = slot(oldPages[i]);
+         loads[j] = oldLoads[i];
+         stores[j] = oldStores[i];
+      }
+   }
+
+   /**
+    * Formats the profile for display: instructions per opcode, the hottest
+    * instructions, branch outcomes, loops, and memory accesses per page
+    *
+    * @return the report
+    */
+   String report() {
+      long total = 0;
+      for (long count : counts)
+         total += count;
+
+      StringBuilder text = new StringBuilder();
+      text.append(String.format("Profile: %d instructions\n", total));
+
+      text.append("Opcodes:\n");
+      for (int opcode : sorted(opcodes))
+         text.append(String.format("  %-6s %14d %7.2f%%\n",
+                 Instruction.name(opcode), opcodes[opcode],
+                 percent(opcodes[opcode], total)));
+
+      text.append("Hot spots:\n");
+      int[] hot = sorted(counts);
+      for (int i = 0; i < hot.length && i < HOT_SPOTS; ++i)
+         text.append(String.format("  #%-5d %-28s %14d %7.2f%%  %s\n",
+                 hot[i] + 1, instructions[hot[i]], counts[hot[i]],
+                 percent(counts[hot[i]], total),
+                 labels[hot[i]] == null ? "" : labels[hot[i]]));
+
+      text.append("Branches:\n");
+      for (int i : hot) {
+         if (instructions[i].kind() != Instruction.BRANCH)
+            continue;
+         text.append(String.format("  #%-5d %-28s %14d taken %14d not " +
+                 "taken %7.2f%%\n", i + 1, instructions[i], taken[i],
+                 counts[i] - taken[i], percent(taken[i], counts[i])));
+      }
+
+      text.append("Loops:\n");
+      for (int i : sorted(backEdges)) {
+         Instruction in = instructions[i];
+         int head = in.target();
+         text.append(String.format("  #%d-#%d %s: %d iterations\n", head + 1,
+                 i + 1, labels[head] == null ? "" : labels[head],
+                 backEdges[i]));
+      }
+
+      text.append("Memory:\n");
+      // page numbers are at most 20 bits, so slots sort by page number
+      long[] order = new long[pageCount];
+      int count = 0;
+      for (int i = 0; i < pages.length; ++i)
+         if (pages[i] != EMPTY)
+            order[count++] = ((long) pages[i] << 32) | i;
+      Arrays.sort(order);
+      for (long key : order) {
+         int i = (int) key;
+         text.append(String.format("  page 0x%08x: %14d loads %14d " +
+                 "stores\n", pages[i] << Memory.PAGE_BITS, loads[i],
+                 stores[i]));
+      }
+
+      return text.toString();
+   }
+
+   /**
+    * Writes the instruction counts as collapsed stacks, one line per
+    * executed instruction of the form program;label;instruction count
+    *
+    * @param file the output file
+    * @throws IOException if the file cannot be written
+    */
+   void writeCollapsed(Path file) throws IOException {
+      try (BufferedWriter out = Files.newBufferedWriter(file)) {
+         for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] == 0)
+               continue;
+            out.write("program;");
+            if (labels[i] != null)
+               out.write(labels[i] + ";");
+            out.write("#" + (i + 1) + " " + instructions[i] + " " + counts[i]);
+            out.newLine();
+         }
+      }
+   }
+
+   /**
+    * Orders the indices of the non-zero counters from highest to lowest
+    *
+    * @param values the counters
+    * @return indices of the non-zero counters
+    */
+   private static int[] sorted(long[] values) {
+      Integer[] order = new Integer[values.length];
+      int count = 0;
+      for (int i = 0; i < values.length; ++i)
+         if (values[i] != 0)
+            order[count++] = i;
+
+      Arrays.sort(order, 0, count, (a, b) -> Long.compare(values[b],
+              values[a]));
+
+      int[] result = new int[count];
+      for (int i = 0; i < count; ++i)
+         result[i] = order[i];
+      return result;
+   }
+
+   /**
+    * Computes a percentage, allowing for an empty whole
+    *
+    * @param part the part
+    * @param whole the whole
+    * @return the percentage
+    */
+   private static double percent(long part, long whole) {
+      return whole == 0 ? 0 : 100.0 * part / whole;
+   }
+
+   /**
+    * Marks an unused slot of the page table
+    */
+   private static final int EMPTY = -1;
+
+   /**
+    * Decoded instructions of the program
+    */
+   private final Instruction[] instructions;
+
+   /**
+    * Label at or before each instruction, or null if there is none
+    */
+   private final String[] labels;
+
+   /**
+    * Executions of each instruction
+    */
+   private final long[] counts;
+
+   /**
+    * Executions of each opcode
+    */
+   private final long[] opcodes = new long[Instruction.NAMES.length];
+
+   /**
+    * Taken executions of each branch
+    */
+   private final long[] taken;
+
+   /**
+    * Times each jump or branch led backwards, each one a loop iteration
+    */
+   private final long[] backEdges;
+
+   /**
+    * Page numbers of the page table, EMPTY for unused slots
+    */
+   private int[] pages;
+
+   /**
+    * Loads and stores counted per page table slot
+    */
+   private long[] loads;
+   private long[] stores;
+
+   /**
+    * Number of pages in the page table
+    */
+   private int pageCount;
+}
@@ -0,0 +1,69 @@
+package mipsArchitecture;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An assembled program: the machine words of the text segment, the initial
+ * contents of the data segment, and the symbol tables of the labels defined
+ * in the input file. The machine words are decoded once, when the program
+ * is created, and the simulator executes the decoded instructions. Jump and
+ * branch targets and data addresses have already been resolved, so the
+ * symbol tables are only kept for reporting.
+ */
+final class Program {
+   /**
+    * Byte address of the start of the data segment, as in SPIM
+    */
+   static final int DATA_BASE = 0x10010000;
+
+   /**
+    * Byte address of the start of the text segment, as in SPIM
+    */
+   static final int TEXT_BASE = 0x00400000;
+
+   /**
+    * Constructs Program object
+    *
+    * @param text MIPS32 machine words of the text segment, in program order
+    * @param symbols instruction index of each label in the text segment
+    * @param data words of the data segment, starting at DATA_BASE
+    * @param dataSymbols byte address of each label in the data segment
+    * @throws IllegalArgumentException if a machine word is not a supported
+    *                                  instruction
+    */
+   Program(int[] text, Map<String, Integer> symbols, int[] data,
+           Map<String, Integer> dataSymbols) {
+      this.text = text;
+      this.instructions = MachineCode.decode(text);
+      this.symbols = Collections.unmodifiableMap(symbols);
+      this.data = data;
+      this.dataSymbols = Collections.unmodifiableMap(dataSymbols);
+   }
+
+   /**
+    * MIPS32 machine words of the text segment, starting at TEXT_BASE
+    */
+   final int[] text;
+
+   /**
+    * Decoded instructions, in program order
+    */
+   final Instruction[] instructions;
+
+   /**
+    * Instruction index of each label in the text segment, keyed by label
+    * name
+    */
+   final Map<String, Integer> symbols;
+
+   /**
+    * Initial words of the data segment, starting at DATA_BASE
+    */
+   final int[] data;
+
+   /**
+    * Byte address of each label in the data segment, keyed by label name
+    */
+   final Map<String, Integer> dataSymbols;
+}
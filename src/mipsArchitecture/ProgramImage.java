@@ -0,0 +1,347 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes assembled programs as binary image files, so that a
+ * program is only parsed once.
+ * An image file is memory-mapped when loaded, and decoded straight from the
+ * mapping. Loading a source file looks for an image in a cache directory
+ * named after the SHA-256 hash of the source; if there is none the source is
+ * assembled and the image is written for the next run. An edited source has
+ * a new hash, so a stale image is never used. An image has the form, all
+ * big-endian:
+ *
+ * - int magic number MIPI, short version, short unused
+ * - int instruction count, then the MIPS32 machine words of the text
+ *   segment
+ * - int data word count, then the data words
+ * - int text label count, then for each label its name and instruction index
+ * - int data label count, then for each label its name and byte address
+ *
+ * A name is a short byte count followed by its UTF-8 bytes.
+ *
+ * A raw text segment, such as one extracted from an object file built by a
+ * MIPS compiler, can also be loaded: it is nothing but little-endian
+ * machine words, and has no data segment or labels.
+ */
+final class ProgramImage {
+   /**
+    * Loads a program from an image file, or from an assembly source file
+    * through the image cache
+    *
+    * @param file the image or source file
+    * @return the assembled program
+    * @throws IOException if the file cannot be read
+    * @throws IllegalArgumentException if the source has invalid instructions
+    */
+   static Program load(Path file) throws IOException {
+      if (isImage(file))
+         return read(file);
+
+      Path cached = cacheFile(file);
+      if (Files.isRegularFile(cached)) {
+         try {
+            return read(cached);
+         } catch (IOException ioe) {
+            // damaged image, assemble the source again
+         }
+      }
+
+      Program program = Assembler.assemble(file);
+      try {
+         Files.createDirectories(cached.getParent());
+         write(program, cached);
+      } catch (IOException ioe) {
+         // the cache is only an optimization
+      }
+      return program;
+   }
+
+   /**
+    * Checks whether a file starts with the image magic number
+    *
+    * @param file the file
+    * @return true if the file is an image
+    * @throws IOException if the file cannot be read
+    */
+   static boolean isImage(Path file) throws IOException {
+      try (InputStream in = Files.newInputStream(file)) {
+         byte[] magic = in.readNBytes(4);
+         return magic.length == 4 && ByteBuffer.wrap(magic).getInt() == MAGIC;
+      }
+   }
+
+   /**
+    * Writes a program to an image file. The image is written to a temporary
+    * file that is then renamed, so a reader never sees part of an image.
+    *
+    * @param program the program
+    * @param file the image file
+    * @throws IOException if the file cannot be written
+    */
+   static void write(Program program, Path file) throws IOException {
+      int size = 8 + 4 + program.text.length * 4 + 4 +
+              program.data.length * 4 + 4 + labelSize(program.symbols) + 4 +
+              labelSize(program.dataSymbols);
+      ByteBuffer image = ByteBuffer.allocate(size);
+      image.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+
+      image.putInt(program.text.length);
+      for (int word : program.text)
+         image.putInt(word);
+
+      image.putInt(program.data.length);
+      for (int word : program.data)
+         image.putInt(word);
+
+      putLabels(image, program.symbols);
+      putLabels(image, program.dataSymbols);
+      image.flip();
+
+      Path parent = file.toAbsolutePath().getParent();
+      Path temporary = Files.createTempFile(parent, "image", ".tmp");
+      try {
+         try (FileChannel out = FileChannel.open(temporary,
+                 StandardOpenOption.WRITE)) {
+            while (image.hasRemaining())
+               out.write(image);
+         }
+         try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+         } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } finally {
+         Files.deleteIfExists(temporary);
+      }
+   }
+
+   /**
+    * Reads a program from an image file
+    *
+    * @param file the image file
+    * @return the program
+    * @throws IOException if the file cannot be read or is not a valid image
+    */
+   static Program read(Path file) throws IOException {
+      MappedByteBuffer image;
+      try (FileChannel in = FileChannel.open(file,
+              StandardOpenOption.READ)) {
+         image = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+      }
+      return read(image, file.toString());
+   }
+
+   /**
+    * Reads a program from an image held in memory
+    *
+    * @param image the bytes of the image
+    * @return the program
+    * @throws IOException if the bytes are not a valid image
+    */
+   static Program read(byte[] image) throws IOException {
+      return read(ByteBuffer.wrap(image), "Program image");
+   }
+
+   /**
+    * Reads a program from the contents of an image
+    *
+    * @param image the image
+    * @param name name of the image in error messages
+    * @return the program
+    * @throws IOException if the image is not valid
+    */
+   private static Program read(ByteBuffer image, String name)
+           throws IOException {
+      long start = System.nanoTime();
+      try {
+         if (image.getInt() != MAGIC || image.getShort() != VERSION)
+            throw new IOException(name + " is not a program image");
+         image.getShort();
+
+         int[] text = getWords(image);
+         int[] data = getWords(image);
+         Map<String, Integer> symbols = getLabels(image);
+         Map<String, Integer> dataSymbols = getLabels(image);
+         Program program = new Program(text, symbols, data, dataSymbols);
+         Metrics.loaded(Metrics.IMAGE, System.nanoTime() - start,
+                 program);
+         return program;
+      } catch (BufferUnderflowException bue) {
+         throw new IOException(name + " is truncated");
+      } catch (IllegalArgumentException iae) {
+         throw new IOException(name + ": " + iae.getMessage());
+      }
+   }
+
+   /**
+    * Reads a raw text segment of little-endian MIPS32 machine words
+    *
+    * @param file the text segment
+    * @return the program
+    * @throws IOException if the file cannot be read, or its size is not a
+    *                     multiple of 4
+    * @throws IllegalArgumentException if a word is not a supported
+    *                                  instruction
+    */
+   static Program readText(Path file) throws IOException {
+      long start = System.nanoTime();
+      MappedByteBuffer image;
+      try (FileChannel in = FileChannel.open(file,
+              StandardOpenOption.READ)) {
+         image = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+      }
+      if (image.remaining() % 4 != 0)
+         throw new IOException(file + " is not a whole number of words");
+
+      int[] text = new int[image.remaining() / 4];
+      image.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(text);
+      Program program = new Program(text, new HashMap<>(), new int[0],
+              new HashMap<>());
+      Metrics.loaded(Metrics.MACHINE_CODE, System.nanoTime() - start,
+              program);
+      return program;
+   }
+
+   /**
+    * Reads a word count followed by that many words from an image
+    *
+    * @param image the image
+    * @return the words
+    * @throws IOException if the words do not fit in the image
+    */
+   private static int[] getWords(ByteBuffer image) throws IOException {
+      int[] words = new int[count(image, 4)];
+      image.asIntBuffer().get(words);
+      image.position(image.position() + words.length * 4);
+      return words;
+   }
+
+   /**
+    * Reads the number of entries of a section, checking that they fit in the
+    * rest of the image
+    *
+    * @param image the image
+    * @param entrySize smallest size of an entry in bytes
+    * @return the number of entries
+    * @throws IOException if the entries do not fit
+    */
+   private static int count(ByteBuffer image, int entrySize)
+           throws IOException {
+      int count = image.getInt();
+      if (count < 0 || (long) count * entrySize > image.remaining())
+         throw new IOException("Program image is truncated");
+      return count;
+   }
+
+   /**
+    * Computes the size of a symbol table in an image
+    *
+    * @param labels the symbol table
+    * @return the size in bytes
+    */
+   private static int labelSize(Map<String, Integer> labels) {
+      int size = 0;
+      for (String name : labels.keySet())
+         size += 2 + name.getBytes(StandardCharsets.UTF_8).length + 4;
+      return size;
+   }
+
+   /**
+    * Appends a symbol table to an image
+    *
+    * @param image the image
+    * @param labels the symbol table
+    */
+   private static void putLabels(ByteBuffer image,
+                                 Map<String, Integer> labels) {
+      image.putInt(labels.size());
+      for (Map.Entry<String, Integer> label : labels.entrySet()) {
+         byte[] name = label.getKey().getBytes(StandardCharsets.UTF_8);
+         image.putShort((short) name.length).put(name)
+              .putInt(label.getValue());
+      }
+   }
+
+   /**
+    * Reads a symbol table from an image
+    *
+    * @param image the image
+    * @return the symbol table
+    * @throws IOException if the table does not fit in the image
+    */
+   private static Map<String, Integer> getLabels(ByteBuffer image)
+           throws IOException {
+      int count = count(image, 6);
+      Map<String, Integer> labels = new HashMap<>(count * 2);
+      for (int i = 0; i < count; ++i) {
+         byte[] name = new byte[image.getShort() & 0xffff];
+         image.get(name);
+         labels.put(new String(name, StandardCharsets.UTF_8), image.getInt());
+      }
+      return labels;
+   }
+
+   /**
+    * Finds the cached image of a source file, named after the hash of the
+    * source and the image version
+    *
+    * @param source the source file
+    * @return path of the cached image
+    * @throws IOException if the source cannot be read
+    */
+   static Path cacheFile(Path source) throws IOException {
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException nsae) {
+         throw new IllegalStateException(nsae);
+      }
+
+      try (InputStream in = new DigestInputStream(
+              Files.newInputStream(source), digest)) {
+         byte[] buffer = new byte[1 << 13];
+         while (in.read(buffer) >= 0)
+            ; // the stream updates the digest
+      }
+
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest())
+         name.append(String.format("%02x", b));
+      name.append(".v").append(VERSION).append(".img");
+      return CACHE_DIRECTORY.resolve(name.toString());
+   }
+
+   /**
+    * Image file header fields
+    */
+   private static final int MAGIC = 0x4d495049;
+   private static final short VERSION = 2;
+
+   /**
+    * Directory of cached images, overridden by the mips.cache system
+    * property
+    */
+   private static final Path CACHE_DIRECTORY = Paths.get(
+           System.getProperty("mips.cache",
+                   System.getProperty("java.io.tmpdir") + "/mips-simulator"));
+}
@@ -0,0 +1,438 @@
+package mipsArchitecture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The framed binary protocol spoken between a SimulationServer and its
+ * clients. A client sends requests over one connection and the server
+ * answers each in order on the same connection. Every message is a frame:
+ * an int byte count followed by that many bytes, all big-endian, so that a
+ * malformed message never leaves the stream out of step.
+ *
+ * A request frame holds a short version, a short kind (SOURCE, IMAGE, or
+ * STATS), a long step limit and an int time limit in milliseconds (0 for
+ * none), the input of the program's system calls as an int byte count and
+ * its bytes, and the program, as source text or program image bytes, in the
+ * same form. A response frame holds a short version, a short status (a
+ * Machine status, or ERROR if the program could not be run), a short 1 if
+ * the program exited through a system call, else 0, an int exit code, a
+ * long instruction count, the nanoseconds the request waited for a worker,
+ * spent assembling, and spent running, each a long, an int register count
+ * and the registers, then the program's output and a message, each an int
+ * byte count and its bytes. The message describes a fault or error, or
+ * holds the server's metrics in answer to STATS.
+ *
+ * An address is a port number or host:port for TCP, or the path of a
+ * Unix-domain socket.
+ */
+final class Protocol {
+   /**
+    * Kinds of request: run assembly source, run a program image, or report
+    * the server's metrics
+    */
+   static final short SOURCE = 0;
+   static final short IMAGE = 1;
+   static final short STATS = 2;
+
+   /**
+    * Status of a request that could not be run, as when the program does not
+    * assemble
+    */
+   static final short ERROR = -2;
+
+   /**
+    * Version of the protocol
+    */
+   static final short VERSION = 1;
+
+   /**
+    * Largest frame accepted, in bytes
+    */
+   static final int MAX_FRAME = 1 << 24;
+
+   /**
+    * Converts an address to a socket address
+    *
+    * @param address a port, host:port, or the path of a Unix-domain socket
+    * @return the socket address
+    * @throws IOException if the host cannot be resolved
+    */
+   static SocketAddress address(String address) throws IOException {
+      int colon = address.lastIndexOf(':');
+      String port = address.substring(colon + 1);
+      if (!port.isEmpty() && port.chars().allMatch(Character::isDigit)) {
+         InetAddress host = colon < 0 ? InetAddress.getLoopbackAddress()
+                 : InetAddress.getByName(address.substring(0, colon));
+         return new InetSocketAddress(host, Integer.parseInt(port));
+      }
+      return UnixDomainSocketAddress.of(address);
+   }
+
+   /**
+    * Connects to a server
+    *
+    * @param address a port, host:port, or the path of a Unix-domain socket
+    * @return the connection
+    * @throws IOException if the server cannot be reached
+    */
+   static Connection connect(String address) throws IOException {
+      SocketAddress remote = address(address);
+      SocketChannel channel = remote instanceof UnixDomainSocketAddress
+              ? SocketChannel.open(StandardProtocolFamily.UNIX)
+              : SocketChannel.open();
+      try {
+         channel.connect(remote);
+         return new Connection(channel);
+      } catch (IOException ioe) {
+         channel.close();
+         throw ioe;
+      }
+   }
+
+   /**
+    * Constructs Protocol object
+    */
+   private Protocol() { }
+
+   /**
+    * One end of a connection, reading and writing frames
+    */
+   static final class Connection implements AutoCloseable {
+      /**
+       * Constructs Connection object
+       *
+       * @param channel the connected channel
+       */
+      Connection(SocketChannel channel) {
+         this.channel = channel;
+         this.in = new DataInputStream(new BufferedInputStream(
+                 Channels.newInputStream(channel), BUFFER_SIZE));
+         this.out = new DataOutputStream(new BufferedOutputStream(
+                 Channels.newOutputStream(channel), BUFFER_SIZE));
+      }
+
+      /**
+       * Reads the next frame
+       *
+       * @return the frame, positioned after its byte count, or null if the
+       *         other end closed the connection between frames
+       * @throws IOException if the frame cannot be read or is too large
+       */
+      DataInputStream read() throws IOException {
+         int length;
+         try {
+            length = in.readInt();
+         } catch (EOFException eofe) {
+            return null;
+         }
+         if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Invalid frame of " + length + " bytes");
+         byte[] frame = new byte[length];
+         in.readFully(frame);
+         return new DataInputStream(new ByteArrayInputStream(frame));
+      }
+
+      /**
+       * Writes a request frame
+       *
+       * @param request the request
+       * @throws IOException if the frame cannot be written
+       */
+      void write(Request request) throws IOException {
+         out.writeInt(2 + 2 + 8 + 4 + 4 + request.input.length + 4 +
+                 request.program.length);
+         out.writeShort(VERSION);
+         out.writeShort(request.kind);
+         out.writeLong(request.steps);
+         out.writeInt(request.millis);
+         out.writeInt(request.input.length);
+         out.write(request.input);
+         out.writeInt(request.program.length);
+         out.write(request.program);
+         out.flush();
+      }
+
+      /**
+       * Writes a response frame
+       *
+       * @param response the response
+       * @throws IOException if the frame cannot be written
+       */
+      void write(Response response) throws IOException {
+         byte[] message = response.message.getBytes(StandardCharsets.UTF_8);
+         out.writeInt(2 + 2 + 2 + 4 + 8 * 4 + 4 +
+                 response.registers.length * 4 + 4 + response.output.length +
+                 4 + message.length);
+         out.writeShort(VERSION);
+         out.writeShort(response.status);
+         out.writeShort(response.exited ? 1 : 0);
+         out.writeInt(response.exitCode);
+         out.writeLong(response.instructions);
+         out.writeLong(response.queueNanos);
+         out.writeLong(response.assembleNanos);
+         out.writeLong(response.runNanos);
+         out.writeInt(response.registers.length);
+         for (int register : response.registers)
+            out.writeInt(register);
+         out.writeInt(response.output.length);
+         out.write(response.output);
+         out.writeInt(message.length);
+         out.write(message);
+         out.flush();
+      }
+
+      /**
+       * Sends a request and waits for its response
+       *
+       * @param request the request
+       * @return the response
+       * @throws IOException if the server cannot be reached or its response
+       *                     is invalid
+       */
+      Response send(Request request) throws IOException {
+         write(request);
+         DataInputStream frame = read();
+         if (frame == null)
+            throw new EOFException("Server closed the connection");
+         return Response.read(frame);
+      }
+
+      /**
+       * Closes the connection
+       *
+       * @throws IOException if the connection cannot be closed
+       */
+      @Override
+      public void close() throws IOException {
+         channel.close();
+      }
+
+      /**
+       * Size in bytes of the stream buffers
+       */
+      private static final int BUFFER_SIZE = 1 << 16;
+
+      /**
+       * The connected channel
+       */
+      private final SocketChannel channel;
+
+      /**
+       * Buffered streams over the channel
+       */
+      private final DataInputStream in;
+      private final DataOutputStream out;
+   }
+
+   /**
+    * A request to run a program, or to report the server's metrics
+    */
+   static final class Request {
+      /**
+       * Constructs Request object
+       *
+       * @param kind SOURCE, IMAGE, or STATS
+       * @param program source text or image bytes, empty for STATS
+       * @param input input of the program's system calls
+       * @param steps step limit, or 0 for none
+       * @param millis time limit in milliseconds, or 0 for none
+       */
+      Request(short kind, byte[] program, byte[] input, long steps,
+              int millis) {
+         this.kind = kind;
+         this.program = program;
+         this.input = input;
+         this.steps = steps;
+         this.millis = millis;
+      }
+
+      /**
+       * Constructs Request object to run a program file, sent as a program
+       * image if it is one, else as assembly source
+       *
+       * @param file the program
+       * @param input file holding the input of the program's system calls,
+       *              or null for none
+       * @param steps step limit, or 0 for none
+       * @param millis time limit in milliseconds, or 0 for none
+       * @return the request
+       * @throws IOException if a file cannot be read
+       */
+      static Request program(Path file, Path input, long steps, int millis)
+              throws IOException {
+         short kind = ProgramImage.isImage(file) ? IMAGE : SOURCE;
+         return new Request(kind, Files.readAllBytes(file),
+                 input == null ? new byte[0] : Files.readAllBytes(input),
+                 steps, millis);
+      }
+
+      /**
+       * Constructs Request object asking for the server's metrics
+       *
+       * @return the request
+       */
+      static Request stats() {
+         return new Request(STATS, new byte[0], new byte[0], 0, 0);
+      }
+
+      /**
+       * Reads a request frame
+       *
+       * @param frame the frame
+       * @return the request
+       * @throws IOException if the frame is not a valid request
+       */
+      static Request read(DataInputStream frame) throws IOException {
+         if (frame.readShort() != VERSION)
+            throw new IOException("Unsupported protocol version");
+         short kind = frame.readShort();
+         if (kind != SOURCE && kind != IMAGE && kind != STATS)
+            throw new IOException("Unknown request kind " + kind);
+         long steps = frame.readLong();
+         int millis = frame.readInt();
+         byte[] input = bytes(frame);
+         byte[] program = bytes(frame);
+         return new Request(kind, program, input, steps, millis);
+      }
+
+      /**
+       * SOURCE, IMAGE, or STATS
+       */
+      final short kind;
+
+      /**
+       * Source text or image bytes
+       */
+      final byte[] program;
+
+      /**
+       * Input of the program's system calls
+       */
+      final byte[] input;
+
+      /**
+       * Step and time limits, or 0 for none
+       */
+      final long steps;
+      final int millis;
+   }
+
+   /**
+    * The outcome of a request
+    */
+   static final class Response {
+      /**
+       * Constructs Response object for a request that could not be run
+       *
+       * @param message description of the error
+       * @return the response
+       */
+      static Response error(String message) {
+         Response response = new Response();
+         response.status = ERROR;
+         response.message = message == null ? "" : message;
+         return response;
+      }
+
+      /**
+       * Reads a response frame
+       *
+       * @param frame the frame
+       * @return the response
+       * @throws IOException if the frame is not a valid response
+       */
+      static Response read(DataInputStream frame) throws IOException {
+         if (frame.readShort() != VERSION)
+            throw new IOException("Unsupported protocol version");
+         Response response = new Response();
+         response.status = frame.readShort();
+         response.exited = frame.readShort() != 0;
+         response.exitCode = frame.readInt();
+         response.instructions = frame.readLong();
+         response.queueNanos = frame.readLong();
+         response.assembleNanos = frame.readLong();
+         response.runNanos = frame.readLong();
+         int count = frame.readInt();
+         if (count < 0 || count > Simulator.REGISTER_NAMES.length)
+            throw new IOException("Invalid register count " + count);
+         response.registers = new int[count];
+         for (int i = 0; i < count; ++i)
+            response.registers[i] = frame.readInt();
+         response.output = bytes(frame);
+         response.message = new String(bytes(frame), StandardCharsets.UTF_8);
+         return response;
+      }
+
+      /**
+       * Machine status, or ERROR
+       */
+      short status;
+
+      /**
+       * True if the program exited through a system call, with its exit
+       * code
+       */
+      boolean exited;
+      int exitCode;
+
+      /**
+       * Number of instructions executed
+       */
+      long instructions;
+
+      /**
+       * Nanoseconds the request waited for a worker, spent assembling the
+       * program or finding it in the cache, and spent running it
+       */
+      long queueNanos;
+      long assembleNanos;
+      long runNanos;
+
+      /**
+       * Final register file
+       */
+      int[] registers = new int[0];
+
+      /**
+       * Output of the program's system calls
+       */
+      byte[] output = new byte[0];
+
+      /**
+       * Description of a fault or error, the server's metrics, or empty
+       */
+      String message = "";
+   }
+
+   /**
+    * Reads a byte count followed by that many bytes
+    *
+    * @param frame the frame
+    * @return the bytes
+    * @throws IOException if the bytes do not fit in the frame
+    */
+   private static byte[] bytes(DataInputStream frame) throws IOException {
+      int length = frame.readInt();
+      if (length < 0 || length > frame.available())
+         throw new IOException("Truncated frame");
+      byte[] bytes = new byte[length];
+      frame.readFully(bytes);
+      return bytes;
+   }
+}
@@ -0,0 +1,74 @@
+package mipsArchitecture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Execution options applied to every run of a batch or a sweep: the basic
+ * block cache, the JIT, the pipeline model, the data cache hierarchy, and
+ * the step and time limits. Each run gets a simulator of its own, set up
+ * the same way, so the runs share no mutable state.
+ */
+final class RunOptions {
+   /**
+    * Constructs RunOptions object
+    *
+    * @param blocks true to run through the basic block cache
+    * @param jit true to compile hot blocks to JVM bytecode
+    * @param pipeline true to use the 5-stage pipeline model
+    * @param caches data cache level specifications, from L1 down
+    * @param steps number of instructions after which each run is stopped,
+    *              or 0 for no limit
+    * @param millis wall time in milliseconds after which each run is
+    *               stopped, or 0 for no limit
+    */
+   RunOptions(boolean blocks, boolean jit, boolean pipeline,
+              List<String> caches, long steps, long millis) {
+      this.blocks = blocks;
+      this.jit = jit;
+      this.pipeline = pipeline;
+      this.caches = new ArrayList<>(caches);
+      this.steps = steps;
+      this.millis = millis;
+   }
+
+   /**
+    * Sets up a simulator for a single run
+    *
+    * @param mips the simulator
+    * @throws IllegalArgumentException if a data cache specification is
+    *                                  invalid
+    */
+   void apply(Simulator mips) {
+      mips.useLimits(steps, millis);
+      if (blocks)
+         mips.useBlockCache(BlockCache.DEFAULT_CAPACITY);
+      if (jit)
+         mips.useJit(JitCompiler.DEFAULT_THRESHOLD);
+      if (pipeline)
+         mips.usePipeline();
+      Cache cache = null;
+      for (int level = caches.size(); level > 0; --level)
+         cache = Cache.parse("L" + level, caches.get(level - 1), cache);
+      if (cache != null)
+         mips.useDataCache(cache);
+   }
+
+   /**
+    * Execution options applied to every run
+    */
+   private final boolean blocks;
+   private final boolean jit;
+   private final boolean pipeline;
+
+   /**
+    * Data cache level specifications, from L1 down
+    */
+   private final List<String> caches;
+
+   /**
+    * Step and time limits of every run, or 0 for none
+    */
+   private final long steps;
+   private final long millis;
+}
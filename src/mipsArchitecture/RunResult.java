@@ -0,0 +1,281 @@
+package mipsArchitecture;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Outcome of a single run of a batch or a sweep, named by the program's path
+ * or by the number of the input. Results are written one line per run, in
+ * JSON lines format, or in CSV format if the file name ends in .csv, by a
+ * Writer, which also totals the failed runs and the instructions executed.
+ */
+final class RunResult {
+   /**
+    * Constructs RunResult object for a program of a batch
+    *
+    * @param program path of the program
+    */
+   RunResult(Path program) {
+      this.key = "program";
+      this.name = program.toString();
+      this.quoted = true;
+   }
+
+   /**
+    * Constructs RunResult object for an input of a sweep
+    *
+    * @param input number of the input
+    */
+   RunResult(long input) {
+      this.key = "input";
+      this.name = Long.toString(input);
+      this.quoted = false;
+   }
+
+   /**
+    * Records the exception that stopped the run. Its class name stands in
+    * for a missing message, so that the run is never reported as ok.
+    *
+    * @param re the exception
+    */
+   void fail(RuntimeException re) {
+      error = re.getMessage() != null ? re.getMessage() : re.toString();
+   }
+
+   /**
+    * Formats the result as a JSON object on a single line
+    *
+    * @return the JSON text
+    */
+   String json() {
+      StringBuilder text = new StringBuilder("{\"").append(key)
+              .append("\":");
+      if (quoted)
+         quote(text, name);
+      else
+         text.append(name);
+      text.append(",\"status\":");
+      quote(text, error == null ? "ok" : error);
+      text.append(",\"instructions\":").append(instructions);
+      text.append(",\"micros\":").append(nanos / 1000);
+
+      text.append(",\"registers\":[");
+      for (int i = 0; registers != null && i < registers.length; ++i)
+         text.append(i == 0 ? "" : ",").append(registers[i]);
+
+      text.append("],\"memory\":{");
+      String separator = "";
+      for (int i = 0; words != null && i < words.size(); ++i) {
+         int[] word = words.get(i);
+         text.append(separator).append(String.format("\"0x%08x\":%d",
+                 word[0], word[1]));
+         separator = ",";
+      }
+      return text.append("}}").toString();
+   }
+
+   /**
+    * Formats the result as a CSV record. Registers and memory words are
+    * separated by spaces within their fields.
+    *
+    * @return the CSV text
+    */
+   String csv() {
+      StringBuilder text = new StringBuilder();
+      csvField(text, name);
+      text.append(',');
+      csvField(text, error == null ? "ok" : error);
+      text.append(',').append(instructions);
+      text.append(',').append(nanos / 1000).append(',');
+
+      for (int i = 0; registers != null && i < registers.length; ++i)
+         text.append(i == 0 ? "" : " ").append(registers[i]);
+
+      text.append(',');
+      String separator = "";
+      for (int i = 0; words != null && i < words.size(); ++i) {
+         int[] word = words.get(i);
+         text.append(separator).append(String.format("0x%08x=%d",
+                 word[0], word[1]));
+         separator = " ";
+      }
+      return text.toString();
+   }
+
+   /**
+    * Waits for the next run to finish
+    *
+    * @param done the completion service the runs were submitted to
+    * @param what what is being run, for the message of an interruption
+    * @return the result of the run
+    * @throws IOException if the thread is interrupted
+    */
+   static RunResult take(CompletionService<RunResult> done, String what)
+           throws IOException {
+      try {
+         return done.take().get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IOException(what + " interrupted", ie);
+      } catch (ExecutionException ee) {
+         throw new IllegalStateException(ee.getCause());
+      }
+   }
+
+   /**
+    * Appends a string as a JSON string literal
+    *
+    * @param text the JSON text
+    * @param value the string
+    */
+   static void quote(StringBuilder text, String value) {
+      text.append('"');
+      for (int i = 0; value != null && i < value.length(); ++i) {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\')
+            text.append('\\').append(c);
+         else if (c < 0x20)
+            text.append(String.format("\\u%04x", (int) c));
+         else
+            text.append(c);
+      }
+      text.append('"');
+   }
+
+   /**
+    * Appends a string as a CSV field, quoted if needed
+    *
+    * @param text the CSV text
+    * @param value the string
+    */
+   static void csvField(StringBuilder text, String value) {
+      if (value == null)
+         return;
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 &&
+              value.indexOf('\n') < 0)
+         text.append(value);
+      else
+         text.append('"').append(value.replace("\"", "\"\"")).append('"');
+   }
+
+   /**
+    * Writes results to a results file as the runs finish
+    */
+   static final class Writer implements Closeable {
+      /**
+       * Opens a results file, writing the CSV header if it is a CSV file
+       *
+       * @param file path of the results file
+       * @param key name of the column that names each run, program or
+       *            input
+       * @throws IOException if the file cannot be written
+       */
+      Writer(Path file, String key) throws IOException {
+         csv = file.toString().endsWith(".csv");
+         out = Files.newBufferedWriter(file);
+         if (csv) {
+            out.write(key + ",status,instructions,micros,registers,memory");
+            out.newLine();
+         }
+      }
+
+      /**
+       * Writes the result of a run and adds it to the totals
+       *
+       * @param result the result
+       * @throws IOException if the file cannot be written
+       */
+      void write(RunResult result) throws IOException {
+         if (result.error != null)
+            ++failed;
+         instructions += result.instructions;
+         out.write(csv ? result.csv() : result.json());
+         out.newLine();
+      }
+
+      /**
+       * Returns the number of runs that stopped with an error
+       *
+       * @return the number of failed runs
+       */
+      long getFailed() { return failed; }
+
+      /**
+       * Returns the number of instructions executed by all runs
+       *
+       * @return the number of instructions
+       */
+      long getInstructions() { return instructions; }
+
+      /**
+       * Closes the results file
+       *
+       * @throws IOException if the file cannot be written
+       */
+      @Override
+      public void close() throws IOException {
+         out.close();
+      }
+
+      /**
+       * True if the file is written in CSV format, else in JSON lines
+       */
+      private final boolean csv;
+
+      /**
+       * The results file
+       */
+      private final BufferedWriter out;
+
+      /**
+       * Runs that stopped with an error
+       */
+      private long failed;
+
+      /**
+       * Instructions executed by all runs
+       */
+      private long instructions;
+   }
+
+   /**
+    * Name of the JSON member and CSV column that names the run, and the
+    * program path or input number itself, quoted in JSON if it is a path
+    */
+   private final String key;
+   private final String name;
+   private final boolean quoted;
+
+   /**
+    * Error, fault, or limit that stopped the run, or null if it ran to
+    * completion
+    */
+   String error;
+
+   /**
+    * Number of instructions executed
+    */
+   long instructions;
+
+   /**
+    * Wall time of the run
+    */
+   long nanos;
+
+   /**
+    * Final register file, or null if the program did not load
+    */
+   int[] registers;
+
+   /**
+    * Byte address and value of each memory word reported, in address order,
+    * or null if the program did not load
+    */
+   List<int[]> words;
+}
@@ -0,0 +1,121 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Sends one program to a SimulationServer and prints its result: the output
+ * of the program's system calls, how it stopped, the server's timings, and
+ * the final registers. The program is sent as a program image if the file
+ * is one, else as assembly source.
+ */
+public final class SimulationClient {
+   /**
+    * Main method accepts the address of the server and the file path of a
+    * program, as well as an optional input file for its system calls using
+    * the flag '-in', an optional step limit using the flag '-max', and an
+    * optional time limit in seconds using the flag '-timeout'. The flag
+    * '-stats' in place of the program prints the server's metrics instead.
+    *
+    * @param args the command line arguments
+    */
+   public static void main(String[] args) {
+      if (args.length < 2 || args.length % 2 != 0) {
+         printUsage();
+         return;
+      }
+
+      Path input = null;
+      long steps = 0;
+      int millis = 0;
+      try {
+         for (int i = 2; i < args.length; i += 2) {
+            switch (args[i]) {
+               case "-in":      input = Paths.get(args[i + 1]); break;
+               case "-max":     steps = Long.parseLong(args[i + 1]); break;
+               case "-timeout":
+                  millis = (int) (Double.parseDouble(args[i + 1]) * 1000);
+                  break;
+               default:
+                  printUsage();
+                  return;
+            }
+         }
+      } catch (NumberFormatException nfe) {
+         printUsage();
+         return;
+      }
+      if (steps < 0 || millis < 0) {
+         printUsage();
+         return;
+      }
+
+      try (Protocol.Connection connection = Protocol.connect(args[0])) {
+         if (args[1].equals("-stats")) {
+            System.out.println(
+                    connection.send(Protocol.Request.stats()).message);
+            return;
+         }
+         Protocol.Request request = Protocol.Request.program(
+                 Paths.get(args[1]), input, steps, millis);
+         print(connection.send(request));
+      } catch (NoSuchFileException nsfe) {
+         System.err.println("\nFile not found, please try again and ensure " +
+                 "the file path is typed correctly.\n");
+      } catch (IOException ioe) {
+         System.err.println("\nClient error: " + ioe.getMessage() + "\n");
+      }
+   }
+
+   /**
+    * Prints the result of a program
+    *
+    * @param response the server's response
+    */
+   private static void print(Protocol.Response response) {
+      if (response.status == Protocol.ERROR) {
+         System.err.println("\nServer error: " + response.message + "\n");
+         return;
+      }
+
+      System.out.print(new String(response.output,
+              StandardCharsets.US_ASCII));
+      StringBuilder line = new StringBuilder("Status: ")
+              .append(Simulator.STATUS_NAMES[response.status]);
+      if (response.exited)
+         line.append(", exited with code ").append(response.exitCode);
+      if (!response.message.isEmpty())
+         line.append(", ").append(response.message);
+      System.out.println(line);
+      System.out.printf("%d instructions; queued %.1f us, assembled " +
+              "%.1f us, ran %.1f us\n", response.instructions,
+              response.queueNanos / 1e3, response.assembleNanos / 1e3,
+              response.runNanos / 1e3);
+      int count = response.registers.length;
+      for (int i = 0; i < count; ++i) {
+         System.out.printf("%-5s %11d%s", Simulator.REGISTER_NAMES[i],
+                 response.registers[i],
+                 i % 4 == 3 || i == count - 1 ? "\n" : "   ");
+      }
+   }
+
+   /**
+    * Constructs SimulationClient object
+    */
+   private SimulationClient() { }
+
+   /**
+    * Prints the expected command line arguments
+    */
+   private static void printUsage() {
+      System.err.println("\nWrong number of args, please try again.");
+      System.err.println("Example: java mipsArchitecture.SimulationClient " +
+            "<port|host:port|/path/to/socket> <d:/path/to/program|-stats> " +
+            "<-in file> (for optional input of system calls) " +
+            "<-max instructions> <-timeout seconds> (to stop a program " +
+            "that runs too long)");
+   }
+}
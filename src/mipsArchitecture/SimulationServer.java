@@ -0,0 +1,458 @@
+package mipsArchitecture;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simulation daemon that keeps a warm JVM, so that short programs are not
+ * dominated by JVM startup and JIT warm-up. The server listens on a local
+ * TCP port or Unix-domain socket and answers the requests of the Protocol:
+ * each connection is served by its own thread, which reads requests in
+ * turn, runs each program on a fixed pool of worker threads, one per
+ * available processor, and writes the result and its timings back on the
+ * same connection. Before it accepts connections the server runs a
+ * warm-up program on every worker, so that the interpreter is already
+ * compiled by the JIT when the first request arrives. Assembled programs are
+ * kept in a small cache keyed by the SHA-256 hash of the request's program,
+ * so a program sent again is not assembled again. Every run is bounded by
+ * the server's step and time limits, which also apply to a request that
+ * asks for no limit, so that a program that never halts cannot hold a
+ * worker forever.
+ */
+public final class SimulationServer {
+   /**
+    * Main method accepts the address to listen on, a port number, host:port,
+    * or the path of a Unix-domain socket, as well as an optional number of
+    * worker threads using the flag '-threads', an optional number of
+    * warm-up runs using the flag '-warmup', and an optional maximum step
+    * limit using the flag '-max' and time limit in seconds using the flag
+    * '-timeout' of every run
+    *
+    * @param args the command line arguments
+    */
+   public static void main(String[] args) {
+      if (args.length == 0 || args.length % 2 == 0) {
+         printUsage();
+         return;
+      }
+
+      int threads = Runtime.getRuntime().availableProcessors();
+      int warmup = DEFAULT_WARMUP;
+      long maxSteps = DEFAULT_MAX_STEPS;
+      long maxMillis = DEFAULT_MAX_MILLIS;
+      try {
+         for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+               case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+               case "-warmup":  warmup = Integer.parseInt(args[i + 1]); break;
+               case "-max":     maxSteps = Long.parseLong(args[i + 1]); break;
+               case "-timeout":
+                  maxMillis = (long) (Double.parseDouble(args[i + 1]) * 1000);
+                  break;
+               default:
+                  printUsage();
+                  return;
+            }
+         }
+      } catch (NumberFormatException nfe) {
+         printUsage();
+         return;
+      }
+      if (threads < 1 || warmup < 0 || maxSteps < 1 || maxMillis < 1) {
+         printUsage();
+         return;
+      }
+
+      SimulationServer server =
+              new SimulationServer(threads, maxSteps, maxMillis);
+      try {
+         server.warmUp(warmup);
+         server.serve(Protocol.address(args[0]));
+      } catch (IOException ioe) {
+         System.err.println("\nServer error: " + ioe.getMessage() + "\n");
+      } finally {
+         server.workers.shutdownNow();
+      }
+   }
+
+   /**
+    * Constructs SimulationServer object
+    *
+    * @param threads number of worker threads that run programs
+    * @param maxSteps largest step limit of a run
+    * @param maxMillis largest time limit of a run in milliseconds
+    */
+   SimulationServer(int threads, long maxSteps, long maxMillis) {
+      this.threads = threads;
+      this.maxSteps = maxSteps;
+      this.maxMillis = maxMillis;
+      this.workers = Executors.newFixedThreadPool(threads);
+   }
+
+   /**
+    * Runs the warm-up program the given number of times, spread over every
+    * worker
+    *
+    * @param runs number of runs
+    */
+   void warmUp(int runs) {
+      long begin = System.nanoTime();
+      Program program = Assembler.assemble(WARMUP);
+      List<Future<?>> done = new ArrayList<>();
+      for (int worker = 0; worker < threads; ++worker) {
+         int count = runs / threads + (worker < runs % threads ? 1 : 0);
+         done.add(workers.submit(() -> {
+            Machine machine = new Machine(program);
+            for (int i = 0; i < count; ++i) {
+               machine.reset();
+               machine.run();
+            }
+         }));
+      }
+      try {
+         for (Future<?> run : done)
+            run.get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException ee) {
+         throw new IllegalStateException(ee.getCause());
+      }
+      System.out.printf("Warmed up with %d runs in %.3f s\n", runs,
+              (System.nanoTime() - begin) / 1e9);
+   }
+
+   /**
+    * Accepts connections until the process is stopped, serving each on its
+    * own thread. A Unix-domain socket file is deleted when the process
+    * exits.
+    *
+    * @param address the address to listen on
+    * @throws IOException if the server cannot listen on the address
+    */
+   void serve(SocketAddress address) throws IOException {
+      boolean unix = address instanceof UnixDomainSocketAddress;
+      ServerSocketChannel server = unix
+              ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+              : ServerSocketChannel.open();
+      ExecutorService connections = Executors.newCachedThreadPool();
+      try (server) {
+         server.bind(address);
+         if (unix) {
+            Path socket = ((UnixDomainSocketAddress) address).getPath();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+               try {
+                  Files.deleteIfExists(socket);
+               } catch (IOException ioe) {
+                  // nothing more can be done while exiting
+               }
+            }));
+         }
+         System.out.println("Listening on " + server.getLocalAddress() +
+                 " with " + threads + " workers");
+
+         while (true) {
+            SocketChannel channel = server.accept();
+            connections.execute(() -> connection(channel));
+         }
+      } finally {
+         connections.shutdownNow();
+      }
+   }
+
+   /**
+    * Serves the requests of a single connection until the client closes it.
+    * A malformed request is answered with an error, and the connection is
+    * then closed, since the rest of the stream cannot be trusted.
+    *
+    * @param channel the connection
+    */
+   private void connection(SocketChannel channel) {
+      try (Protocol.Connection connection = new Protocol.Connection(channel)) {
+         DataInputStream frame;
+         while ((frame = connection.read()) != null) {
+            long received = System.nanoTime();
+            Protocol.Request request;
+            try {
+               request = Protocol.Request.read(frame);
+            } catch (IOException ioe) {
+               connection.write(Protocol.Response.error(ioe.getMessage()));
+               return;
+            }
+            connection.write(request.kind == Protocol.STATS ? statistics()
+                    : submit(request, received));
+         }
+      } catch (IOException ioe) {
+         // the client went away; nothing to answer
+      }
+   }
+
+   /**
+    * Runs a request on a worker and waits for its result
+    *
+    * @param request the request
+    * @param received System.nanoTime() at which the request arrived
+    * @return the response
+    * @throws IOException if the thread is interrupted
+    */
+   private Protocol.Response submit(Protocol.Request request, long received)
+           throws IOException {
+      try {
+         return workers.submit(() -> execute(request, received)).get();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Server interrupted", ie);
+      } catch (ExecutionException ee) {
+         return Protocol.Response.error(ee.getCause().toString());
+      }
+   }
+
+   /**
+    * Assembles or loads a program, runs it, and gathers its result
+    *
+    * @param request the request
+    * @param received System.nanoTime() at which the request arrived
+    * @return the response
+    */
+   private Protocol.Response execute(Protocol.Request request,
+                                     long received) {
+      long start = System.nanoTime();
+      requests.incrementAndGet();
+
+      Program program;
+      try {
+         program = program(request);
+      } catch (IllegalArgumentException iae) {
+         errors.incrementAndGet();
+         Protocol.Response response =
+                 Protocol.Response.error(iae.getMessage());
+         response.queueNanos = start - received;
+         return response;
+      }
+      long assembled = System.nanoTime();
+
+      Protocol.Response response = new Protocol.Response();
+      response.queueNanos = start - received;
+      response.assembleNanos = assembled - start;
+
+      Machine machine = new Machine(program);
+      machine.setLimits(limit(request.steps, maxSteps),
+              limit(request.millis, maxMillis));
+      machine.reset(request.input.length == 0 ? null
+              : new String(request.input, StandardCharsets.US_ASCII));
+      response.status = (short) machine.run();
+      response.runNanos = System.nanoTime() - assembled;
+
+      response.exited = machine.hasExited();
+      response.exitCode = machine.getExitCode();
+      response.instructions = machine.getInstructionCount();
+      response.registers = new int[Simulator.REGISTER_NAMES.length];
+      for (int i = 0; i < response.registers.length; ++i)
+         response.registers[i] = machine.getRegister(i);
+      response.output = machine.getOutput()
+                               .getBytes(StandardCharsets.US_ASCII);
+      if (machine.getFault() != null)
+         response.message = machine.getFault();
+
+      if (response.status != Machine.HALTED)
+         failures.incrementAndGet();
+      instructions.addAndGet(response.instructions);
+      runNanos.addAndGet(response.runNanos);
+      return response;
+   }
+
+   /**
+    * Returns the program of a request from the cache, assembling or loading
+    * it and caching it if it is not there
+    *
+    * @param request the request
+    * @return the program
+    * @throws IllegalArgumentException if the program does not assemble or
+    *                                  the image is invalid
+    */
+   private Program program(Protocol.Request request) {
+      String key = key(request);
+      Program program;
+      synchronized (programs) {
+         program = programs.get(key);
+      }
+      if (program != null)
+         return program;
+
+      if (request.kind == Protocol.IMAGE) {
+         try {
+            program = ProgramImage.read(request.program);
+         } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe.getMessage(), ioe);
+         }
+      }
+      else {
+         program = Assembler.assemble(
+                 new String(request.program, StandardCharsets.UTF_8));
+      }
+      synchronized (programs) {
+         programs.put(key, program);
+      }
+      return program;
+   }
+
+   /**
+    * Computes the cache key of a request's program
+    *
+    * @param request the request
+    * @return the kind and SHA-256 hash of the program, in hexadecimal
+    */
+   private static String key(Protocol.Request request) {
+      try {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         return request.kind + ":" +
+                 HexFormat.of().formatHex(digest.digest(request.program));
+      } catch (NoSuchAlgorithmException nsae) {
+         throw new IllegalStateException(nsae);
+      }
+   }
+
+   /**
+    * Reports the server's metrics
+    *
+    * @return the response holding the metrics as its message
+    */
+   private Protocol.Response statistics() {
+      Protocol.Response response = new Protocol.Response();
+      response.status = Machine.HALTED;
+      long count = requests.get();
+      long nanos = runNanos.get();
+      int cached;
+      synchronized (programs) {
+         cached = programs.size();
+      }
+      response.message = String.format("Server: %d requests, %d errors, " +
+              "%d failed runs, %d instructions, %d cached programs, " +
+              "%.1f us mean run time, %d workers", count, errors.get(),
+              failures.get(), instructions.get(), cached,
+              count == 0 ? 0.0 : nanos / 1e3 / count, threads);
+      return response;
+   }
+
+   /**
+    * Clamps the limit a request asks for to the server's
+    *
+    * @param requested the requested limit, or 0 for none
+    * @param maximum the server's limit
+    * @return the limit of the run
+    */
+   private static long limit(long requested, long maximum) {
+      return requested == 0 || requested > maximum ? maximum : requested;
+   }
+
+   /**
+    * Prints the expected command line arguments
+    */
+   private static void printUsage() {
+      System.err.println("\nWrong number of args, please try again.");
+      System.err.println("Example: java mipsArchitecture.SimulationServer " +
+            "<port|host:port|/path/to/socket> <-threads n> (for an optional " +
+            "number of worker threads) <-warmup runs> (for an optional " +
+            "number of warm-up runs) <-max instructions> <-timeout seconds> " +
+            "(for optional limits of every run)");
+   }
+
+   /**
+    * Default number of warm-up runs
+    */
+   private static final int DEFAULT_WARMUP = 2000;
+
+   /**
+    * Default largest step limit and time limit in milliseconds of a run
+    */
+   private static final long DEFAULT_MAX_STEPS = 1_000_000_000L;
+   private static final long DEFAULT_MAX_MILLIS = 10_000;
+
+   /**
+    * Number of programs kept assembled
+    */
+   private static final int CACHE_CAPACITY = 256;
+
+   /**
+    * The warm-up program, which loops over arithmetic, memory, and system
+    * calls, already split into tokens
+    */
+   private static final List<List<String>> WARMUP = List.of(
+           List.of(".data"),
+           List.of("buffer:", ".space", "64"),
+           List.of(".text"),
+           List.of("addi", "$t0", "$zero", "500"),
+           List.of("addi", "$t1", "$zero", "buffer"),
+           List.of("loop:", "mul", "$t2", "$t0", "$t0"),
+           List.of("andi", "$t3", "$t0", "15"),
+           List.of("sll", "$t3", "$t3", "2"),
+           List.of("add", "$t3", "$t3", "$t1"),
+           List.of("lw", "$t4", "0", "$t3"),
+           List.of("add", "$t4", "$t4", "$t2"),
+           List.of("sw", "$t4", "0", "$t3"),
+           List.of("addi", "$t0", "$t0", "-1"),
+           List.of("bne", "$t0", "$zero", "loop"),
+           List.of("addi", "$v0", "$zero", "1"),
+           List.of("add", "$a0", "$t4", "$zero"),
+           List.of("syscall"));
+
+   /**
+    * Number of worker threads
+    */
+   private final int threads;
+
+   /**
+    * Largest step limit and time limit in milliseconds of a run
+    */
+   private final long maxSteps;
+   private final long maxMillis;
+
+   /**
+    * Worker threads that run programs
+    */
+   private final ExecutorService workers;
+
+   /**
+    * Assembled programs, keyed by request kind and program hash, evicted
+    * least recently used first
+    */
+   private final Map<String, Program> programs =
+           new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(
+                      Map.Entry<String, Program> eldest) {
+                 return size() > CACHE_CAPACITY;
+              }
+
+              private static final long serialVersionUID = 1L;
+           };
+
+   /**
+    * Requests run, requests that could not be run, runs that did not halt,
+    * instructions executed, and nanoseconds spent running
+    */
+   private final AtomicLong requests = new AtomicLong();
+   private final AtomicLong errors = new AtomicLong();
+   private final AtomicLong failures = new AtomicLong();
+   private final AtomicLong instructions = new AtomicLong();
+   private final AtomicLong runNanos = new AtomicLong();
+}
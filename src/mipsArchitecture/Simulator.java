@@ -1,519 +1,753 @@
 package mipsArchitecture;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class that supports the MIPS Architecture Simulator.
  * The register file, memory, and the 5 stages of the MIPS pipeline are
- * simulated in this class.
+ * simulated in this class. The ALU stage switches on the kind of each
+ * instruction and computes the common instructions inline, so that the
+ * interpreter makes no megamorphic calls on its common path; only the HI
+ * and LO instructions and syscall are looked up in a table of handlers
+ * indexed by aluControl.
  */
 class Simulator {
+   /**
+    * Performs the ALU stage of a rare instruction
+    */
+   private interface Handler {
+      /**
+       * Executes the instruction
+       *
+       * @param s the simulator
+       * @param rd destination register value, or 1st value compared
+       * @param rs 1st source register value
+       * @param rt 2nd source register value
+       * @return the value passed on to the memory stage
+       */
+      int execute(Simulator s, int rd, int rs, int rt);
+   }
+
    /**
     * Constructs Simulator object
     *
-    * @param instructions formatted instructions from input file
+    * @param program assembled program from input file
+    * @param mode debug flag variable
+    */
+   public Simulator(Program program, boolean mode) {
+      this(program, mode, initialMemory(program));
+   }
+
+   /**
+    * Constructs Simulator object running on memory that already holds the
+    * program's data, as a core of a Multicore does
+    *
+    * @param program assembled program from input file
     * @param mode debug flag variable
+    * @param memory the memory
     */
-   public Simulator(ArrayList<String> instructions, boolean mode) {
-      this.instructions = instructions;
+   Simulator(Program program, boolean mode, Memory memory) {
+      this.instructions = program.instructions;
       this.debug = mode;
+      this.memory = memory;
+      for (int i = 0; i < registers.length; ++i)
+         registers[i] = initialRegister(i);
+      this.data = program.data;
+      this.recorder = Metrics.ENABLED ? new Metrics.Recorder(program) : null;
    }
 
    /**
-    * Begins simulation
+    * Creates a memory holding the program's data, as the program starts
+    * with it
+    *
+    * @param program assembled program from input file
+    * @return the memory
     */
-   public void begin() { fetch(); }
+   static Memory initialMemory(Program program) {
+      Memory memory = new Memory();
+      for (int i = 0; i < program.data.length; ++i)
+         if (program.data[i] != 0)
+            memory.storeWord(Program.DATA_BASE + 4 * i, program.data[i]);
+      return memory;
+   }
 
    /**
-    * Determines which instruction is being called, and sets control signals
-    * accordingly. Then passes appropriate instruction arguments to the
-    * register file.
+    * Enables execution through a cache of translated basic blocks in place
+    * of the instruction-by-instruction interpreter. Debug mode always uses
+    * the interpreter, since it reports the state after every instruction.
+    *
+    * @param capacity maximum number of translated blocks to keep
+    */
+   public void useBlockCache(int capacity) {
+      blockCache = new BlockCache(instructions, capacity);
+   }
+
+   /**
+    * Enables compilation of hot basic blocks to JVM bytecode. Implies
+    * execution through the basic block cache.
+    *
+    * @param threshold number of executions after which a block is compiled
+    */
+   public void useJit(int threshold) {
+      if (blockCache == null)
+         useBlockCache(BlockCache.DEFAULT_CAPACITY);
+      jit = new JitCompiler(instructions, threshold);
+   }
+
+   /**
+    * Enables the cycle-accurate 5-stage pipeline model in place of the
+    * instruction-by-instruction interpreter. In debug mode the contents of
+    * the pipeline stages are printed every cycle.
+    */
+   public void usePipeline() {
+      pipelined = true;
+   }
+
+   /**
+    * Enables simulation of a data cache hierarchy between loads and stores
+    * and memory.
+    * The block cache and compiled blocks are not used while the data cache
+    * is simulated, since they access memory directly.
+    *
+    * @param cache the first level of the data cache
+    */
+   public void useDataCache(Cache cache) {
+      dataCache = cache;
+   }
+
+   /**
+    * Records every instruction executed by the interpreter into a trace.
+    * The block cache and compiled blocks are not used while tracing, since
+    * they do not execute instructions one at a time, and the pipeline model
+    * does not record a trace.
+    *
+    * @param trace the trace
+    */
+   public void useTrace(Trace trace) {
+      this.trace = trace;
+   }
+
+   /**
+    * Counts the instructions executed by the interpreter, and prints the
+    * profile after the final output. The block cache and compiled blocks are
+    * not used while profiling, and the pipeline model is not profiled.
+    *
+    * @param profiler the profiler
+    */
+   public void useProfiler(Profiler profiler) {
+      this.profiler = profiler;
+   }
+
+   /**
+    * Selects the format and destination of the final state of registers
+    * and memory, which by default is every register and every touched
+    * memory page, printed as text
+    *
+    * @param writer the writer of the final state
+    */
+   public void useStateWriter(StateWriter writer) {
+      stateWriter = writer;
+   }
+
+   /**
+    * Redirects the input and output of the program's system calls, which
+    * use the console by default
+    *
+    * @param system the system calls
+    */
+   public void useSyscalls(Syscalls system) {
+      this.system = system;
+   }
+
+   /**
+    * Saves checkpoints of the simulation while it runs. The pipeline model
+    * does not take checkpoints.
+    *
+    * @param checkpoint the checkpoint file
+    */
+   public void useCheckpoint(Checkpoint checkpoint) {
+      this.checkpoint = checkpoint;
+   }
+
+   /**
+    * Resumes the simulation from a saved state, instead of starting from the
+    * first instruction with empty memory
+    *
+    * @param state the saved state
+    */
+   public void restore(Checkpoint.State state) {
+      pc = state.pc;
+      instructionCount = state.instructionCount;
+      aluControl = state.signals[0];
+      writeToMem = state.signals[1];
+      readMem = state.signals[2];
+      memIndex = state.signals[3];
+      system.setBreak(state.signals[4]);
+      System.arraycopy(state.registers, 0, registers, 0, registers.length);
+      for (Map.Entry<Integer, int[]> page : state.pages.entrySet())
+         memory.restorePage(page.getKey(), page.getValue());
+      memory.clean();
+   }
+
+   /**
+    * Selects the instructions shown by debug mode
+    *
+    * @param filter the trace records to render
+    */
+   public void filterTrace(Trace.Filter filter) {
+      traceFilter = filter;
+   }
+
+   /**
+    * Stops runaway programs. The limits are checked along with checkpoints,
+    * by comparing the instruction count with the count of the next check,
+    * so they cost nothing per instruction beyond that comparison; the clock
+    * is only read every TIMEOUT_POLL instructions.
+    *
+    * @param steps number of instructions after which the program is
+    *              stopped, or 0 for no limit
+    * @param millis wall time in milliseconds after which the program is
+    *               stopped, or 0 for no limit
+    */
+   public void useLimits(long steps, long millis) {
+      stepLimit = steps > 0 ? steps : Long.MAX_VALUE;
+      timeout = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0));
+   }
+
+   /**
+    * Stops the program with the BREAKPOINT status before it executes the
+    * given instruction. While a breakpoint is set the program runs in the
+    * interpreter, since translated blocks do not stop within a block; the
+    * pipeline model does not stop at breakpoints.
+    *
+    * @param index index of the instruction, or -1 for no breakpoint
+    */
+   void useBreakpoint(int index) {
+      breakpoint = index;
+   }
+
+   /**
+    * Begins simulation. In debug mode, unless a trace file is recorded, the
+    * instructions are traced in memory while the program runs, and the most
+    * recent ones are shown before the final output.
+    *
+    * @return how the program stopped: HALTED, STEP_LIMIT, TIMEOUT, or FAULT
+    */
+   public int begin() {
+      Trace shown = null;
+      if (debug && trace == null && !pipelined) {
+         shown = new Trace(Trace.DEFAULT_CAPACITY);
+         trace = shown;
+      }
+
+      int stopped = run();
+
+      if (shown != null) {
+         System.out.printf("\nTrace of the last %d of %d instructions:\n",
+                 Math.min(shown.getCount(), Trace.DEFAULT_CAPACITY),
+                 shown.getCount());
+         shown.render(System.out, traceFilter);
+      }
+
+      printInfo();
+      if (system.hasExited())
+         System.out.println("Program exited with code " +
+                 system.getExitCode());
+      if (stopped == STEP_LIMIT)
+         System.out.println("Stopped at the step limit of " + stepLimit +
+                 " instructions");
+      else if (stopped == TIMEOUT)
+         System.out.println("Stopped at the time limit of " +
+                 TimeUnit.NANOSECONDS.toMillis(timeout) + " ms");
+      else if (stopped == FAULT)
+         System.out.println("Guest fault: " + fault.describe());
+      if (pipeline != null) {
+         System.out.println(pipeline.statistics());
+      }
+      else if (usesBlocks()) {
+         System.out.println(blockCache.statistics());
+         if (jit != null)
+            System.out.println(jit.statistics());
+      }
+      if (dataCache != null) {
+         System.out.println(dataCache.statistics());
+         if (pipeline == null)
+            System.out.printf("Memory stall cycles: %d, total cycles: %d\n",
+                    memoryStalls, instructionCount + memoryStalls);
+      }
+      if (checkpoint != null)
+         System.out.println(checkpoint.statistics());
+      if (profiler != null)
+         System.out.print(profiler.report());
+      return stopped;
+   }
+
+   /**
+    * Checks whether the program is run through the basic block cache
+    *
+    * @return true if translated blocks are executed
+    */
+   private boolean usesBlocks() {
+      return blockCache != null && !debug && !pipelined &&
+              dataCache == null && trace == null && profiler == null &&
+              breakpoint < 0;
+   }
+
+   /**
+    * Runs the program until it halts, reaches a limit, or faults, without
+    * printing the final output. A guest fault stops the program, not the
+    * simulator, and the output of the program is flushed however it stops.
+    *
+    * @return how the program stopped: HALTED, STEP_LIMIT, TIMEOUT, or FAULT
+    */
+   int run() {
+      return run(Long.MAX_VALUE,
+              timeout > 0 ? System.nanoTime() + timeout : 0);
+   }
+
+   /**
+    * Runs the program for a turn of a Multicore in lockstep, as run() does,
+    * but pausing once the turn's instructions have executed. A paused
+    * program resumes where it left off on the next call.
+    *
+    * @param turn number of instructions after which to pause
+    * @param deadline System.nanoTime() at which the time limit expires, or
+    *                 0 for no time limit
+    * @return RUNNING if the program paused, BREAKPOINT if it reached the
+    *         breakpoint, otherwise how it stopped
+    */
+   int run(long turn, long deadline) {
+      long start = System.nanoTime();
+      long first = instructionCount;
+      if (recorder != null)
+         recorder.start(first);
+      status = RUNNING;
+      this.deadline = deadline;
+      long limit = stepLimit;
+      if (turn < limit - instructionCount)
+         stepLimit = instructionCount + turn;
+      try {
+         if (pipelined) {
+            if (pipeline == null)
+               pipeline = new Pipeline(instructions, registers, memory,
+                       dataCache, system, debug);
+            status = pipeline.run(stepLimit, deadline);
+            instructionCount = pipeline.getRetired();
+         }
+         else {
+            if (checkpoint != null)
+               checkpointAt = checkpoint.due(instructionCount);
+            schedule();
+            if (usesBlocks())
+               runBlocks();
+            else
+               fetch();
+         }
+      } catch (GuestFault gf) {
+         fault = gf;
+         status = FAULT;
+         if (pipeline != null)
+            instructionCount = pipeline.getRetired();
+      } finally {
+         stepLimit = limit;
+         system.flush();
+      }
+
+      if (status == STEP_LIMIT && instructionCount < limit)
+         status = RUNNING;
+      else if (status == RUNNING)
+         status = HALTED;
+      Metrics.ran(recorder, start, first, instructionCount, status,
+              getFault());
+      return status;
+   }
+
+   /**
+    * Returns the number of instructions executed so far
+    *
+    * @return the number of instructions executed
+    */
+   long getInstructionCount() { return instructionCount; }
+
+   /**
+    * Returns the system calls of the program
+    *
+    * @return the system calls
+    */
+   Syscalls getSyscalls() { return system; }
+
+   /**
+    * Returns how the last run stopped
+    *
+    * @return HALTED, STEP_LIMIT, TIMEOUT, FAULT, or BREAKPOINT, or RUNNING
+    *         if it paused
+    */
+   int getStatus() { return status; }
+
+   /**
+    * Stops a program paused at the end of a turn at the time limit, as a
+    * Multicore in lockstep does once its deadline has passed
+    */
+   void timedOut() {
+      if (status == RUNNING)
+         status = TIMEOUT;
+   }
+
+   /**
+    * Returns the fault that stopped the last run
+    *
+    * @return the fault, or null if the program did not fault
+    */
+   GuestFault getFault() { return status == FAULT ? fault : null; }
+
+   /**
+    * Returns a copy of the register file
+    *
+    * @return register values, indexed by register number
+    */
+   int[] getRegisters() { return registers.clone(); }
+
+   /**
+    * Returns the value of a single register
+    *
+    * @param number the register number
+    * @return the value
+    */
+   int getRegister(int number) { return registers[number]; }
+
+   /**
+    * Returns the index of the next instruction to execute
+    *
+    * @return the instruction index, the number of instructions once the
+    *         program has halted
+    */
+   int getPc() { return pc; }
+
+   /**
+    * Sets a register before the program runs
+    *
+    * @param number the register number
+    * @param value the value
+    */
+   void setRegister(int number, int value) { registers[number] = value; }
+
+   /**
+    * Returns the memory of the simulated program
+    *
+    * @return the memory
+    */
+   Memory getMemory() { return memory; }
+
+   /**
+    * Fetches the next decoded instruction, and sets control signals
+    * accordingly. Then passes the instruction on to the register file.
+    * A fault is located at the instruction that caused it.
     */
    private void fetch() {
-      boolean finalOutput = false;
-
-      for (pc = 0; pc < instructions.size(); pc += 4) {
-         switch (instructions.get(pc)) {
-            case "j":
-               aluControl = 1;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), "0", "0");
-               break;
-
-            case "beq":
-               aluControl = 2;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "add":
-            case "addi":
-               aluControl = 3;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "sub":
-               aluControl = 4;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "sw":
-               aluControl = 5;
-               writeToMem = 1;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "lw":
-               aluControl = 6;
-               writeToMem = 0;
-               readMem = 1;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "sll":
-               aluControl = 7;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "srl":
-               aluControl = 8;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "mult":
-               aluControl = 9;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "and":
-               aluControl = 10;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "or":
-               aluControl = 11;
-               writeToMem = 0;
-               readMem = 0;
-               readRegisters(instructions.get(pc + 1), instructions.get(pc + 2),
-                       instructions.get(pc + 3));
-               break;
-
-            case "nop":
-               aluControl = 7; //sll
-               writeToMem = 0;
-               readMem = 0;
-               pc -= 3;
-               readRegisters("0", "0", "0");
-               break;
-
-            default: break;
+      try {
+         interpret();
+      } catch (GuestFault gf) {
+         throw gf.locate(pc);
+      }
+   }
+
+   /**
+    * Executes instructions one at a time until the program halts or a
+    * limit is reached
+    */
+   private void interpret() {
+      for (; pc < instructions.length; ++pc) {
+         if (pc == breakpoint) {
+            status = BREAKPOINT;
+            return;
+         }
+         Instruction instruction = instructions[pc];
+         int current = pc;
+
+         aluControl = instruction.opcode;
+         int kind = Instruction.KINDS[aluControl];
+         boolean atomic = kind == Instruction.ATOMIC;
+         writeToMem = kind == Instruction.STORE || atomic ? 1 : 0;
+         readMem = kind == Instruction.LOAD || atomic ? 1 : 0;
+         readRegisters(instruction);
+         ++instructionCount;
+
+         if (trace != null)
+            record(current, instruction);
+         if (profiler != null)
+            profiler.count(current, pc + 1, memIndex);
+         if (recorder != null)
+            recorder.instruction(current, pc + 1);
+         if (instructionCount >= nextCheck && !check(pc + 1)) {
+            ++pc;
+            return;
          }
+      }
+   }
 
-         if (debug)
-            printInfo(finalOutput);
+   /**
+    * Offers the checkpoint a chance to save the state between instructions,
+    * flushes the runtime metrics when they are due, and checks the step and
+    * time limits
+    *
+    * @param next index of the next instruction to execute
+    * @return true if the program may go on running
+    */
+   private boolean check(int next) {
+      if (instructionCount >= checkpointAt) {
+         checkpoint.save(next, instructionCount, new int[] {
+                 aluControl, writeToMem, readMem, memIndex,
+                 system.getBreak() }, registers, memory);
+         checkpointAt = checkpoint.due(instructionCount);
       }
+      if (recorder != null && instructionCount >= recorder.due())
+         recorder.flush(instructionCount);
 
-      finalOutput = true;
-      printInfo(finalOutput);
+      if (instructionCount >= stepLimit)
+         status = STEP_LIMIT;
+      else if (deadline != 0 && System.nanoTime() - deadline >= 0)
+         status = TIMEOUT;
+      schedule();
+      return status == RUNNING;
    }
 
    /**
-    * Reads contents of registers specified in instruction, passes values to
-    * the ALU for computation.
+    * Sets the instruction count of the next call to check
+    */
+   private void schedule() {
+      nextCheck = Math.min(checkpointAt, stepLimit);
+      if (recorder != null)
+         nextCheck = Math.min(nextCheck, recorder.due());
+      if (deadline != 0)
+         nextCheck = Math.min(nextCheck, instructionCount + TIMEOUT_POLL);
+   }
+
+   /**
+    * Records an executed instruction in the trace
     *
-    * @param rd The destination register of the operation
-    * @param rs The 1st source register of the operation
-    * @param rt The 2nd source register of the operation
+    * @param index index of the instruction
+    * @param instruction the decoded instruction
     */
-   private void readRegisters(String rd, String rs, String rt) {
-      int rdValue,
-          rsValue,
-          rtValue;
+   private void record(int index, Instruction instruction) {
+      int flags = writeToMem * Trace.WRITE_TO_MEM + readMem * Trace.READ_MEM;
+      int register = instruction.destination();
 
-      switch (rs) {
-         case "$t0":
-            rsValue = this.$t0;
-            break;
-         case "$t1":
-            rsValue = this.$t1;
-            break;
-         case "$t2":
-            rsValue = this.$t2;
-            break;
-         case "$t3":
-            rsValue = this.$t3;
-            break;
-         case "$t4":
-            rsValue = this.$t4;
-            break;
-         case "$t5":
-            rsValue = this.$t5;
-            break;
-         case "$t6":
-            rsValue = this.$t6;
-            break;
-         case "$t7":
-            rsValue = this.$t7;
-            break;
-         case "$t8":
-            rsValue = this.$t8;
-            break;
-         case "$t9":
-            rsValue = this.$t9;
-            break;
-         case "$s0":
-            rsValue = this.$s0;
-            break;
-         case "$s1":
-            rsValue = this.$s1;
-            break;
-         case "$s2":
-            rsValue = this.$s2;
-            break;
-         case "$s3":
-            rsValue = this.$s3;
-            break;
-         case "$s4":
-            rsValue = this.$s4;
-            break;
-         case "$s5":
-            rsValue = this.$s5;
-            break;
-         case "$s6":
-            rsValue = this.$s6;
-            break;
-         case "$s7":
-            rsValue = this.$s7;
-            break;
-         case "$v0":
-            rsValue = this.$v0;
-            break;
-         case "$v1":
-            rsValue = this.$v1;
-            break;
-         case "$a0":
-            rsValue = this.$a0;
-            break;
-         case "$a1":
-            rsValue = this.$a1;
-            break;
-         case "$a2":
-            rsValue = this.$a2;
-            break;
-         case "$a3":
-            rsValue = this.$a3;
-            break;
-         case "$zero":
-            rsValue = this.$zero;
-            break;
-         default:
-            rsValue = Integer.parseInt(rs);
-            break;
+      if (writeToMem == 1) {
+         trace.record(index, aluControl, flags | Trace.MEMORY_WRITTEN, 0, 0,
+                 memIndex, instruction.rdImmediate ? instruction.rd
+                                                   : registers[instruction.rd]);
       }
-
-      switch (rt) {
-         case "$t0":
-            rtValue = this.$t0;
-            break;
-         case "$t1":
-            rtValue = this.$t1;
-            break;
-         case "$t2":
-            rtValue = this.$t2;
-            break;
-         case "$t3":
-            rtValue = this.$t3;
-            break;
-         case "$t4":
-            rtValue = this.$t4;
-            break;
-         case "$t5":
-            rtValue = this.$t5;
-            break;
-         case "$t6":
-            rtValue = this.$t6;
-            break;
-         case "$t7":
-            rtValue = this.$t7;
-            break;
-         case "$t8":
-            rtValue = this.$t8;
-            break;
-         case "$t9":
-            rtValue = this.$t9;
-            break;
-         case "$s0":
-            rtValue = this.$s0;
-            break;
-         case "$s1":
-            rtValue = this.$s1;
-            break;
-         case "$s2":
-            rtValue = this.$s2;
-            break;
-         case "$s3":
-            rtValue = this.$s3;
-            break;
-         case "$s4":
-            rtValue = this.$s4;
-            break;
-         case "$s5":
-            rtValue = this.$s5;
-            break;
-         case "$s6":
-            rtValue = this.$s6;
-            break;
-         case "$s7":
-            rtValue = this.$s7;
-            break;
-         case "$v0":
-            rtValue = this.$v0;
-            break;
-         case "$v1":
-            rtValue = this.$v1;
-            break;
-         case "$a0":
-            rtValue = this.$a0;
-            break;
-         case "$a1":
-            rtValue = this.$a1;
-            break;
-         case "$a2":
-            rtValue = this.$a2;
-            break;
-         case "$a3":
-            rtValue = this.$a3;
-            break;
-         case "$zero":
-            rtValue = this.$zero;
-            break;
-         default:
-            rtValue = Integer.parseInt(rt);
-            break;
+      else if (register > 0) {
+         trace.record(index, aluControl, flags | Trace.REGISTER_WRITTEN,
+                 register, registers[register], 0, 0);
+      }
+      else {
+         trace.record(index, aluControl, flags, 0, 0, 0, 0);
       }
+   }
 
-      switch (rd) {
-         case "$t0":
-            rdValue = this.$t0;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t1":
-            rdValue = this.$t1;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t2":
-            rdValue = this.$t2;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t3":
-            rdValue = this.$t3;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t4":
-            rdValue = this.$t4;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t5":
-            rdValue = this.$t5;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t6":
-            rdValue = this.$t6;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t7":
-            rdValue = this.$t7;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t8":
-            rdValue = this.$t8;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$t9":
-            rdValue = this.$t9;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s0":
-            rdValue = this.$s0;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s1":
-            rdValue = this.$s1;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s2":
-            rdValue = this.$s2;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s3":
-            rdValue = this.$s3;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s4":
-            rdValue = this.$s4;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s5":
-            rdValue = this.$s5;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s6":
-            rdValue = this.$s6;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$s7":
-            rdValue = this.$s7;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$v0":
-            rdValue = this.$v0;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$v1":
-            rdValue = this.$v1;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$a0":
-            rdValue = this.$a0;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$a1":
-            rdValue = this.$a1;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$a2":
-            rdValue = this.$a2;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$a3":
-            rdValue = this.$a3;
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
-         case "$zero":
-            rdValue = 0;
-            ALU(rd, rdValue, rsValue, rtValue); 
-            break;
-         default:
-            rdValue = Integer.parseInt(rd);
-            ALU(rd, rdValue, rsValue, rtValue);
-            break;
+   /**
+    * Runs the program one translated basic block at a time, following the
+    * links between blocks where possible. The block that would pass the
+    * step limit is left to the interpreter, so that the program stops at
+    * exactly the same instruction either way. A block that faults has
+    * executed the instructions before the one that faulted, which are
+    * counted, and the program stops at that instruction, as in the
+    * interpreter.
+    */
+   private void runBlocks() {
+      if (pc >= instructions.length)
+         return;
+
+      Block block = blockCache.lookup(pc);
+      while (true) {
+         if (instructionCount + block.length > stepLimit) {
+            fetch();
+            return;
+         }
+         try {
+            pc = block.run(registers, memory, system);
+         } catch (GuestFault gf) {
+            pc = gf.getIndex();
+            instructionCount += pc - block.start;
+            throw gf;
+         }
+         instructionCount += block.length;
+         if (recorder != null)
+            recorder.block(block, pc);
+         if (jit != null)
+            jit.executed(block);
+         if (instructionCount >= nextCheck && !check(pc))
+            return;
+         if (pc >= instructions.length)
+            break;
+         block = blockCache.successor(block, pc);
       }
    }
 
+   /**
+    * Reads contents of registers specified in instruction, passes values to
+    * the ALU for computation. Constant operands are passed through as is.
+    *
+    * @param instruction the decoded instruction
+    */
+   private void readRegisters(Instruction instruction) {
+      int rdValue = instruction.rdImmediate ? instruction.rd
+                                            : registers[instruction.rd];
+      int rsValue = instruction.rsImmediate ? instruction.rs
+                                            : registers[instruction.rs];
+      int rtValue = instruction.rtImmediate ? instruction.rt
+                                            : registers[instruction.rt];
+
+      ALU(instruction.rdImmediate ? 0 : instruction.rd, rdValue, rsValue,
+              rtValue);
+   }
+
    /**
     * Performs operation based on control signal set in the decode phase.
     * Passes results onto the memory stage
     *
-    * @param regDest Name of the destination register
+    * @param regDest Number of the destination register
     * @param rd Destination register value
     * @param rs 1st source register value
     * @param rt 2nd source register value
     */
-   private void ALU(String regDest, int rd, int rs, int rt) {
-      switch (aluControl) {
-         //j
-         case 1:
-            pc = rd - 4;
-            break;
-
-         //beq
-         case 2:
-            if (rd == rs)
-               pc += rt;
-            break;
-
-         //add, add immediate
-         case 3:
-            rd = rs + rt;
+   private void ALU(int regDest, int rd, int rs, int rt) {
+      int value;
+      switch (Instruction.KINDS[aluControl]) {
+         case Instruction.BRANCH:
+            boolean taken;
+            if (aluControl == Instruction.BEQ)
+               taken = rd == rs;
+            else if (aluControl == Instruction.BNE)
+               taken = rd != rs;
+            else
+               taken = Operations.CONDITIONS[aluControl].test(rd, rs);
+            if (taken)
+               pc = rt - 1;
+            value = rd;
             break;
 
-         //subtract
-         case 4:
-            rd = rs - rt;
+         case Instruction.JUMP:
+            value = jump(rd, rs, rt);
             break;
 
-         //store word
-         case 5:
+         case Instruction.LOAD:
             memIndex = rs + rt;
+            value = memIndex;
             break;
 
-         //load word
-         case 6:
-            rd = rs + rt;
-            break;
-
-         //sll
-         case 7:
-            rd = rs << rt;
-            break;
-
-         //srl
-         case 8:
-            rd = rs >> rt;
+         case Instruction.STORE:
+         case Instruction.ATOMIC:
+            memIndex = rs + rt;
+            value = rd;
             break;
 
-         //multiply
-         case 9:
-            rd = rs * rt;
+         case Instruction.HI_LO:
+         case Instruction.SYSTEM:
+            value = HANDLERS[aluControl].execute(this, rd, rs, rt);
             break;
 
-         //and
-         case 10:
-            rd = rs & rt;
+         default:
+            value = compute(rs, rt);
             break;
+      }
 
-         //or
-         case 11:
-            rd = rs | rt;
-            break;
+      writeMemory(regDest, value);
+   }
 
-         default: break;
+   /**
+    * Computes the result of an instruction that writes rd from rs and rt
+    *
+    * @param rs 1st source register value
+    * @param rt 2nd source register value
+    * @return the result
+    */
+   private int compute(int rs, int rt) {
+      switch (aluControl) {
+         case Instruction.ADD:  return rs + rt;
+         case Instruction.SUB:  return rs - rt;
+         case Instruction.AND:  return rs & rt;
+         case Instruction.OR:   return rs | rt;
+         case Instruction.XOR:  return rs ^ rt;
+         case Instruction.NOR:  return ~(rs | rt);
+         case Instruction.SLL:  return rs << rt;
+         case Instruction.SRL:  return rs >>> rt;
+         case Instruction.SRA:  return rs >> rt;
+         case Instruction.MUL:  return rs * rt;
+         case Instruction.SLT:  return rs < rt ? 1 : 0;
+         case Instruction.SLTU: return Integer.compareUnsigned(rs, rt) < 0
+                                       ? 1 : 0;
+         default: return Operations.FUNCTIONS[aluControl].apply(rs, rt);
       }
+   }
+
+   /**
+    * Performs a jump, leaving pc one before its target
+    *
+    * @param rd destination register value
+    * @param rs register value holding the target address of jr and jalr
+    * @param rt instruction index of the target of j and jal
+    * @return the return address for jal and jalr, else rd
+    */
+   private int jump(int rd, int rs, int rt) {
+      int link = rd;
+      if (aluControl == Instruction.JAL || aluControl == Instruction.JALR)
+         link = Operations.returnAddress(pc);
+      if (aluControl == Instruction.J || aluControl == Instruction.JAL)
+         pc = rt - 1;
+      else
+         pc = Operations.jumpIndex(rs, instructions.length) - 1;
+      return link;
+   }
 
-      writeMemory(regDest, rd);
+   /**
+    * Performs a system call, halting the program if it exits
+    *
+    * @param v0 value of $v0, which selects the call
+    * @return the new value of $v0
+    */
+   private int syscall(int v0) {
+      int result = system.call(v0, registers[Syscalls.A0],
+              registers[Syscalls.A1], memory);
+      if (system.hasExited())
+         pc = instructions.length - 1;
+      return result;
    }
 
    /**
     * Performs a memory read/write/nop based on control signals set in decode
-    * phase. Passes destination register name and value onto the register
-    * write-back stage.
+    * phase. Passes destination register number and value onto the register
+    * write-back stage. An atomic instruction both reads and writes memory,
+    * and passes on its result.
     *
-    * @param rdName Name of the destination register
+    * @param rdNumber Number of the destination register
     * @param rdValue Value to be potentially stored in memory
     */
-   private void writeMemory(String rdName, int rdValue) {
+   private void writeMemory(int rdNumber, int rdValue) {
       if (writeToMem == 0) {
-         if (readMem == 1)
-            rdValue = memory[rdValue];
+         if (readMem == 1) {
+            if (dataCache != null)
+               memoryStalls += dataCache.access(rdValue, false) - 1;
+            rdValue = aluControl == Instruction.LW ? memory.loadWord(rdValue)
+                    : Operations.LOADS[aluControl].apply(memory, rdValue);
+         }
 
-         writeRegister(rdName, rdValue);
+         writeRegister(rdNumber, rdValue);
       }
       else if (writeToMem == 1) {
-         memory[memIndex] = rdValue;
-         writeRegister("$null", 0);
+         if (dataCache != null)
+            memoryStalls += dataCache.access(memIndex, true) - 1;
+         if (readMem == 1)
+            writeRegister(rdNumber, Operations.ATOMICS[aluControl].apply(
+                    memory, memIndex, rdValue));
+         else if (aluControl == Instruction.SW)
+            memory.storeWord(memIndex, rdValue);
+         else
+            Operations.STORES[aluControl].apply(memory, memIndex, rdValue);
       }
    }
 
@@ -521,135 +755,52 @@ class Simulator {
     * Performs a register write-back based on control signals set in decode
     * phase. Does not allow write-back to register $zero.
     *
-    * @param rdName Name of the destination register
+    * @param rdNumber Number of the destination register
     * @param rdValue Value to be stored in the destination register
     */
-   private void writeRegister(String rdName, int rdValue) {
-      switch (rdName) {
-         case "$t0":
-            this.$t0 = rdValue;
-            break;
-         case "$t1":
-            this.$t1 = rdValue;
-            break;
-         case "$t2":
-            this.$t2 = rdValue;
-            break;
-         case "$t3":
-            this.$t3 = rdValue;
-            break;
-         case "$t4":
-            this.$t4 = rdValue;
-            break;
-         case "$t5":
-            this.$t5 = rdValue;
-            break;
-         case "$t6":
-            this.$t6 = rdValue;
-            break;
-         case "$t7":
-            this.$t7 = rdValue;
-            break;
-         case "$t8":
-            this.$t8 = rdValue;
-            break;
-         case "$t9":
-            this.$t9 = rdValue;
-            break;
-         case "$s0":
-            this.$s0 = rdValue;
-            break;
-         case "$s1":
-            this.$s1 = rdValue;
-            break;
-         case "$s2":
-            this.$s2 = rdValue;
-            break;
-         case "$s3":
-            this.$s3 = rdValue;
-            break;
-         case "$s4":
-            this.$s4 = rdValue;
-            break;
-         case "$s5":
-            this.$s5 = rdValue;
-            break;
-         case "$s6":
-            this.$s6 = rdValue;
-            break;
-         case "$s7":
-            this.$s7 = rdValue;
-            break;
-         case "$v0":
-            this.$v0 = rdValue;
-            break;
-         case "$v1":
-            this.$v1 = rdValue;
-            break;
-         case "$a0":
-            this.$a0 = rdValue;
-            break;
-         case "$a1":
-            this.$a1 = rdValue;
-            break;
-         case "$a2":
-            this.$a2 = rdValue;
-            break;
-         case "$a3":
-            this.$a3 = rdValue;
-            break;
-         default: break;
-      }
+   private void writeRegister(int rdNumber, int rdValue) {
+      if (rdNumber != 0)
+         registers[rdNumber] = rdValue;
    }
 
    /**
-    * Prints final state of registers and memory after execution.
-    * If debug mode is enabled, registers and control signals are printed after
-    * each instruction is executed.
+    * Translates a register name to its register number. Registers may be
+    * referred to by name, as in $t0, or by number, as in $8.
     *
-    * @param finalOutput Flag variable that indicates state of program
+    * @param name the register name, including the leading $
+    * @return the register number, or -1 if the name is not a register
     */
-   private void printInfo(boolean finalOutput) {
-      System.out.println();
-      if (finalOutput)
-         System.out.println("\nFinal Output:");
-      else
-         System.out.println("Instruction #" + ((pc / 4) + 1));
-      System.out.println("Temporary Registers: ");
-      System.out.printf("$t0: %-5s $t1: %-5s $t2: %-5s $t3: %-5s $t4: %-5s\n",
-              $t0, $t1, $t2, $t3, $t4);
-      System.out.printf("$t5: %-5s $t6: %-5s $t7: %-5s $t8: %-5s $t9: %-5s\n",
-              $t5, $t6, $t7, $t8, $t9);
-      System.out.println("Saved Registers: ");
-      System.out.printf("$s0: %-5s $s1: %-5s $s2: %-5s $s3: %-5s\n",
-              $s0, $s1, $s2, $s3);
-      System.out.printf("$s4: %-5s $s5: %-5s $s6: %-5s $s7: %-5s\n",
-              $s4, $s5, $s6, $s7);
-      System.out.println("Argument Registers: ");
-      System.out.printf("$a0: %-5s $a1: %-5s $a2: %-5s $a3: %-5s\n",
-              $a0, $a1, $a2, $a3);
-      System.out.println("Return Value Registers: ");
-      System.out.printf("$v0: %-5s $v1: %-5s\n", $v0, $v1);
-
-      if (finalOutput) {
-         System.out.println("\nMemory: ");
-         for (int i = 0; i < memory.length; ++i) {
-            if (i < 10)
-               System.out.printf("Memory[" + i + "]:  %-5s", memory[i]);
-            else
-               System.out.printf("Memory[" + i + "]: %-5s", memory[i]);
-            if ((i + 1) % 4 == 0)
-               System.out.println();
-         }
-         System.out.println();
+   static int registerNumber(String name) {
+      Integer number = REGISTER_NUMBERS.get(name);
+      return number == null ? -1 : number;
+   }
+
+   /**
+    * Returns the value a register holds when the program starts
+    *
+    * @param number the register number
+    * @return the initial value
+    */
+   static int initialRegister(int number) {
+      switch (number) {
+         case 28: return GLOBAL_POINTER;
+         case 29: return STACK_POINTER;
+         default: return 0;
       }
+   }
 
-      if (debug) {
-         System.out.println();
-         System.out.println("Control Signals: ");
-         System.out.println("aluControl: " + aluControl);
-         System.out.println("writeToMem: " + writeToMem);
-         System.out.println("readMem: " + readMem + "\n");
+   /**
+    * Writes the final state of registers and memory after execution, in
+    * the selected output format
+    *
+    * @throws IllegalStateException if the state cannot be written
+    */
+   private void printInfo() {
+      try {
+         stateWriter.write(this, data);
+      } catch (IOException ioe) {
+         throw new IllegalStateException("Cannot write the final state: " +
+                 ioe.getMessage(), ioe);
       }
    }
 
@@ -659,9 +810,19 @@ class Simulator {
    private int pc;
 
    /**
-    * Formatted instructions from input file
+    * Number of instructions executed
+    */
+   private long instructionCount;
+
+   /**
+    * Decoded instructions from input file
+    */
+   private Instruction[] instructions;
+
+   /**
+    * Initial words of the data segment, starting at Program.DATA_BASE
     */
-   private ArrayList<String> instructions;
+   private final int[] data;
 
    /**
     * Control signal for ALU operation
@@ -679,59 +840,209 @@ class Simulator {
    private int readMem;
 
    /**
-    * Memory index to be calculated by the store word instruction
+    * Byte address to be calculated by the load and store instructions
     */
    private int memIndex;
 
    /**
-    * Temporary registers $t0 through $t9
+    * Ways a run stops: the program halted by running past its last
+    * instruction or calling exit, reached the step limit, reached the time
+    * limit, faulted, or reached the breakpoint
+    */
+   static final int HALTED = 0;
+   static final int STEP_LIMIT = 1;
+   static final int TIMEOUT = 2;
+   static final int FAULT = 3;
+   static final int BREAKPOINT = 4;
+
+   /**
+    * Names of the ways a run stops, indexed by status
+    */
+   static final String[] STATUS_NAMES = {
+      "halted", "step-limit", "timeout", "fault", "breakpoint"
+   };
+
+   /**
+    * Status of a run that has not stopped, or has paused at the end of a
+    * turn
+    */
+   static final int RUNNING = -1;
+
+   /**
+    * Number of instructions between looks at the clock when a time limit
+    * is set
+    */
+   static final int TIMEOUT_POLL = 1 << 16;
+
+   /**
+    * Register names, indexed by register number. HI and LO follow the
+    * general purpose registers.
+    */
+   static final String[] REGISTER_NAMES = {
+      "$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3",
+      "$t0",   "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7",
+      "$s0",   "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+      "$t8",   "$t9", "$k0", "$k1", "$gp", "$sp", "$fp", "$ra",
+      "$hi",   "$lo"
+   };
+
+   /**
+    * Register numbers, keyed by both register name and $number alias. HI and
+    * LO are only reached through mfhi, mflo, mthi, and mtlo, so they are not
+    * included.
+    */
+   private static final HashMap<String, Integer> REGISTER_NUMBERS =
+           new HashMap<>();
+
+   static {
+      for (int i = 0; i < Operations.HI; ++i) {
+         REGISTER_NUMBERS.put(REGISTER_NAMES[i], i);
+         REGISTER_NUMBERS.put("$" + i, i);
+      }
+   }
+
+   /**
+    * Handler of the ALU stage of each HI_LO and SYSTEM instruction, indexed
+    * by aluControl. The other kinds are handled inline by ALU.
+    */
+   private static final Handler[] HANDLERS =
+           new Handler[Instruction.NAMES.length];
+
+   static {
+      for (int opcode = 1; opcode < HANDLERS.length; ++opcode) {
+         final int op = opcode;
+         if (Instruction.KINDS[opcode] == Instruction.HI_LO)
+            HANDLERS[opcode] = (s, rd, rs, rt) -> {
+               Operations.hiLo(s.registers, op, rs, rt);
+               return rd;
+            };
+      }
+      HANDLERS[Instruction.SYSCALL] = (s, rd, rs, rt) -> s.syscall(rd);
+   }
+
+   /**
+    * Register file, indexed by register number, with HI and LO last.
+    * Register $zero is never written, so it always reads as 0.
+    */
+   private int[] registers = new int[REGISTER_NAMES.length];
+
+   /**
+    * Initial values of the global and stack pointers, as set up by SPIM
+    */
+   static final int GLOBAL_POINTER = 0x10008000;
+   static final int STACK_POINTER = 0x7fffeffc;
+
+   /**
+    * Byte-addressed 32-bit memory
+    */
+   private final Memory memory;
+
+   /**
+    * System calls of the program, reading and writing the console unless
+    * redirected
+    */
+   private Syscalls system = Syscalls.console();
+
+   /**
+    * Writer of the final state of registers and memory
+    */
+   private StateWriter stateWriter =
+           new StateWriter(StateWriter.TEXT, null);
+
+   /**
+    * Translated basic blocks, or null when the interpreter is used
+    */
+   private BlockCache blockCache;
+
+   /**
+    * Compiler for hot basic blocks, or null when blocks are not compiled
+    */
+   private JitCompiler jit;
+
+   /**
+    * Pipeline model flag variable
+    */
+   private boolean pipelined;
+
+   /**
+    * Pipeline model of the last run, or null if the pipeline is not used
+    */
+   private Pipeline pipeline;
+
+   /**
+    * First level of the simulated data cache, or null if none is simulated
+    */
+   private Cache dataCache;
+
+   /**
+    * Cycles spent waiting on the data cache beyond the first cycle of each
+    * memory access
+    */
+   private long memoryStalls;
+
+   /**
+    * Trace of executed instructions, or null if none is recorded
+    */
+   private Trace trace;
+
+   /**
+    * Instructions shown by debug mode
+    */
+   private Trace.Filter traceFilter = new Trace.Filter();
+
+   /**
+    * Profiler of executed instructions, or null if none is used
+    */
+   private Profiler profiler;
+
+   /**
+    * Counter of executed instructions for the runtime metrics, or null if
+    * they are not enabled
+    */
+   private final Metrics.Recorder recorder;
+
+   /**
+    * Checkpoint file, or null if no checkpoints are saved
+    */
+   private Checkpoint checkpoint;
+
+   /**
+    * Instruction count at which the checkpoint is next offered the state
+    */
+   private long checkpointAt = Long.MAX_VALUE;
+
+   /**
+    * Instruction count at which the run loop next calls check, the
+    * earliest of checkpointAt, stepLimit, and the next look at the clock
     */
-   private int $t0 = 0;
-   private int $t1 = 0;
-   private int $t2 = 0;
-   private int $t3 = 0;
-   private int $t4 = 0;
-   private int $t5 = 0;
-   private int $t6 = 0;
-   private int $t7 = 0;
-   private int $t8 = 0;
-   private int $t9 = 0;
+   private long nextCheck = Long.MAX_VALUE;
 
    /**
-    * Saved registers $s0 through $s7
+    * Number of instructions after which the program is stopped
     */
-   private int $s0 = 0;
-   private int $s1 = 0;
-   private int $s2 = 0;
-   private int $s3 = 0;
-   private int $s4 = 0;
-   private int $s5 = 0;
-   private int $s6 = 0;
-   private int $s7 = 0;
+   private long stepLimit = Long.MAX_VALUE;
 
    /**
-    * Argument registers $a0 through $a3
+    * Wall time in nanoseconds after which the program is stopped, or 0 for
+    * no limit, and the System.nanoTime() at which it expires, or 0
     */
-   private int $a0 = 0;
-   private int $a1 = 0;
-   private int $a2 = 0;
-   private int $a3 = 0;
+   private long timeout;
+   private long deadline;
 
    /**
-    * Return value registers $v0, and $v1
+    * How the last run stopped, or RUNNING while it runs
     */
-   private int $v0 = 0;
-   private int $v1 = 0;
+   private int status = RUNNING;
 
    /**
-    * Constant value register $zero
+    * The fault that stopped the last run
     */
-   private static final int $zero = 0;
+   private GuestFault fault;
 
    /**
-    * 8kB addressable memory
+    * Index of the instruction the program stops before, or -1 for none
     */
-   private int[] memory = new int[2000];
+   private int breakpoint = -1;
 
    /**
     * Debug flag variable
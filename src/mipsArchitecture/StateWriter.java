@@ -0,0 +1,396 @@
+package mipsArchitecture;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the final state of a simulation, the registers and memory, in one
+ * of several formats:
+ *
+ * - TEXT: every register, and every word of every touched memory page, four
+ *   per row, as the simulator has always printed them
+ * - DIFF: only the registers and memory words that differ from the state
+ *   the program started in, with memory shown as runs of adjacent words
+ * - JSON: a single JSON document holding the instruction count, how the
+ *   run stopped, the exit code, every register by name, and the runs of
+ *   non-zero memory words; with several cores, everything but the memory
+ *   is given for each core in a "cores" array
+ * - BINARY: a compact state file
+ *
+ * The registers of every core of a Multicore are written in turn, followed
+ * by the memory they share. The state is formatted without
+ * java.util.Formatter and written through a single buffered writer, so a
+ * large memory costs a handful of writes rather than one per row. A binary
+ * state file has the form, all big-endian:
+ *
+ * - int magic number MIPS, short version, short core count
+ * - for each core: short 1 if it exited through a system call, else 0,
+ *   short status, int exit code, long instruction count, int register
+ *   count, then the registers, with HI and LO last
+ * - int run count, then for each run of non-zero memory words its int byte
+ *   address, int word count, and the words
+ */
+final class StateWriter {
+   /**
+    * Output formats
+    */
+   static final int TEXT = 0;
+   static final int DIFF = 1;
+   static final int JSON = 2;
+   static final int BINARY = 3;
+
+   /**
+    * Format names, indexed by format
+    */
+   static final String[] FORMATS = { "text", "diff", "json", "bin" };
+
+   /**
+    * Returns the format of a format name
+    *
+    * @param name the format name
+    * @return the format
+    * @throws IllegalArgumentException if the name is not a format
+    */
+   static int format(String name) {
+      for (int i = 0; i < FORMATS.length; ++i)
+         if (FORMATS[i].equals(name))
+            return i;
+      throw new IllegalArgumentException("Unknown output format " + name +
+              ", expected one of " + String.join(", ", FORMATS));
+   }
+
+   /**
+    * Constructs StateWriter object
+    *
+    * @param format the output format
+    * @param file the file to write, or null for standard output
+    */
+   StateWriter(int format, Path file) {
+      this.format = format;
+      this.file = file;
+   }
+
+   /**
+    * Writes the final state of a simulation
+    *
+    * @param mips the simulator
+    * @param data initial words of the data segment, starting at
+    *             Program.DATA_BASE, which the DIFF format compares against
+    * @throws IOException if the state cannot be written
+    */
+   void write(Simulator mips, int[] data) throws IOException {
+      write(new Simulator[] { mips }, data);
+   }
+
+   /**
+    * Writes the final state of the cores of a Multicore, which share their
+    * memory
+    *
+    * @param cores the simulator of each core
+    * @param data initial words of the data segment, starting at
+    *             Program.DATA_BASE, which the DIFF format compares against
+    * @throws IOException if the state cannot be written
+    */
+   void write(Simulator[] cores, int[] data) throws IOException {
+      OutputStream out = file == null ? System.out
+                                      : Files.newOutputStream(file);
+      try {
+         if (format == BINARY) {
+            DataOutputStream binary = new DataOutputStream(
+                    new BufferedOutputStream(out, BUFFER_SIZE));
+            writeBinary(binary, cores);
+            binary.flush();
+         }
+         else {
+            Writer text = new BufferedWriter(new OutputStreamWriter(out,
+                    StandardCharsets.US_ASCII), BUFFER_SIZE);
+            if (format == JSON)
+               writeJson(text, cores);
+            else
+               writeText(text, cores, format == DIFF ? data : null);
+            text.flush();
+         }
+      } finally {
+         if (file != null)
+            out.close();
+      }
+   }
+
+   /**
+    * Writes the registers and memory as text, four values per row. With the
+    * initial data segment given, only the values that changed are written.
+    *
+    * @param out the writer
+    * @param cores the simulator of each core
+    * @param data initial words of the data segment, or null to write every
+    *             register and every touched memory page
+    * @throws IOException if the state cannot be written
+    */
+   private static void writeText(Writer out, Simulator[] cores, int[] data)
+           throws IOException {
+      boolean diff = data != null;
+      StringBuilder row = new StringBuilder(128);
+
+      out.write(diff ? "\n\nFinal Output (changes only):\n"
+                     : "\n\nFinal Output:\n");
+      for (int core = 0; core < cores.length; ++core) {
+         if (cores.length == 1)
+            out.write("Registers: \n");
+         else
+            out.write((core == 0 ? "" : "\n") + "Registers of core " + core +
+                    ": \n");
+
+         int[] registers = cores[core].getRegisters();
+         int column = 0;
+         row.setLength(0);
+         for (int i = 0; i < registers.length; ++i) {
+            if (diff && registers[i] == Simulator.initialRegister(i))
+               continue;
+            pad(row, Simulator.REGISTER_NAMES[i] + ":", 6);
+            row.append(' ');
+            pad(row, Integer.toString(registers[i]), 12);
+            if (++column == 4) {
+               out.append(row).append('\n');
+               row.setLength(0);
+               column = 0;
+            }
+         }
+         if (column > 0)
+            out.append(row).append('\n');
+      }
+
+      out.write("\nMemory: \n");
+      Memory memory = cores[0].getMemory();
+      for (int number : memory.touchedPages()) {
+         int[] page = memory.page(number);
+         int base = number << Memory.PAGE_BITS;
+         for (int i = 0; i < page.length; ) {
+            if (diff && page[i] == initialWord(data, base + i * 4)) {
+               ++i;
+               continue;
+            }
+
+            row.setLength(0);
+            row.append("[0x");
+            hex(row, base + i * 4);
+            row.append("]  ");
+            int end = Math.min(i + 4, page.length);
+            int start = i;
+            for (; i < end; ++i) {
+               if (diff && page[i] == initialWord(data, base + i * 4))
+                  break;
+               String value = Integer.toString(page[i]);
+               if (i + 1 < start + 4)
+                  pad(row, value, 12);
+               else
+                  row.append(value);
+            }
+            out.append(row).append('\n');
+         }
+      }
+      out.write('\n');
+   }
+
+   /**
+    * Writes the state as a JSON document
+    *
+    * @param out the writer
+    * @param cores the simulator of each core
+    * @throws IOException if the state cannot be written
+    */
+   private static void writeJson(Writer out, Simulator[] cores)
+           throws IOException {
+      if (cores.length == 1) {
+         out.write('{');
+         writeCore(out, cores[0]);
+      }
+      else {
+         out.write("{\"cores\":[");
+         for (int core = 0; core < cores.length; ++core) {
+            out.write(core == 0 ? "{" : ",{");
+            writeCore(out, cores[core]);
+            out.write('}');
+         }
+         out.write(']');
+      }
+
+      out.write(",\"memory\":[");
+      StringBuilder run = new StringBuilder();
+      String separator = "";
+      for (int[] words : runs(cores[0].getMemory())) {
+         run.setLength(0);
+         run.append(separator).append("{\"address\":\"0x");
+         hex(run, words[0]);
+         run.append("\",\"words\":[");
+         for (int i = 1; i < words.length; ++i)
+            run.append(i == 1 ? "" : ",").append(words[i]);
+         run.append("]}");
+         out.append(run);
+         separator = ",";
+      }
+      out.write("]}\n");
+   }
+
+   /**
+    * Writes the JSON members describing a single core, everything but the
+    * memory
+    *
+    * @param out the writer
+    * @param mips the simulator of the core
+    * @throws IOException if the state cannot be written
+    */
+   private static void writeCore(Writer out, Simulator mips)
+           throws IOException {
+      Syscalls system = mips.getSyscalls();
+      out.write("\"instructions\":");
+      out.write(Long.toString(mips.getInstructionCount()));
+      int status = mips.getStatus();
+      out.write(",\"status\":\"");
+      out.write(status < 0 ? "running" : Simulator.STATUS_NAMES[status]);
+      out.write('"');
+      out.write(",\"exitCode\":");
+      out.write(system.hasExited() ? Integer.toString(system.getExitCode())
+                                   : "null");
+
+      out.write(",\"registers\":{");
+      int[] registers = mips.getRegisters();
+      for (int i = 0; i < registers.length; ++i) {
+         out.write(i == 0 ? "\"" : ",\"");
+         out.write(Simulator.REGISTER_NAMES[i]);
+         out.write("\":");
+         out.write(Integer.toString(registers[i]));
+      }
+      out.write('}');
+   }
+
+   /**
+    * Writes the state as a binary state file
+    *
+    * @param out the output stream
+    * @param cores the simulator of each core
+    * @throws IOException if the state cannot be written
+    */
+   private static void writeBinary(DataOutputStream out, Simulator[] cores)
+           throws IOException {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeShort(cores.length);
+      for (Simulator mips : cores) {
+         Syscalls system = mips.getSyscalls();
+         out.writeShort(system.hasExited() ? 1 : 0);
+         out.writeShort(mips.getStatus());
+         out.writeInt(system.getExitCode());
+         out.writeLong(mips.getInstructionCount());
+
+         int[] registers = mips.getRegisters();
+         out.writeInt(registers.length);
+         for (int register : registers)
+            out.writeInt(register);
+      }
+
+      List<int[]> runs = runs(cores[0].getMemory());
+      out.writeInt(runs.size());
+      for (int[] words : runs) {
+         out.writeInt(words[0]);
+         out.writeInt(words.length - 1);
+         for (int i = 1; i < words.length; ++i)
+            out.writeInt(words[i]);
+      }
+   }
+
+   /**
+    * Lists the runs of adjacent non-zero words in every touched memory page
+    *
+    * @param memory the memory
+    * @return for each run, its byte address followed by its words, in
+    *         address order
+    */
+   private static List<int[]> runs(Memory memory) {
+      List<int[]> runs = new ArrayList<>();
+      for (int number : memory.touchedPages()) {
+         int[] page = memory.page(number);
+         int base = number << Memory.PAGE_BITS;
+         for (int i = 0; i < page.length; ++i) {
+            if (page[i] == 0)
+               continue;
+            int start = i;
+            while (i < page.length && page[i] != 0)
+               ++i;
+            int[] run = new int[1 + i - start];
+            run[0] = base + start * 4;
+            System.arraycopy(page, start, run, 1, i - start);
+            runs.add(run);
+         }
+      }
+      return runs;
+   }
+
+   /**
+    * Returns the initial value of a memory word
+    *
+    * @param data initial words of the data segment
+    * @param address byte address of the word
+    * @return the word's value when the program started
+    */
+   private static int initialWord(int[] data, int address) {
+      long offset = (Integer.toUnsignedLong(address) - Program.DATA_BASE) / 4;
+      return address - Program.DATA_BASE >= 0 && offset < data.length
+             ? data[(int) offset] : 0;
+   }
+
+   /**
+    * Appends a value followed by spaces up to the given width, as %-Ns
+    * would
+    *
+    * @param row the text
+    * @param value the value
+    * @param width the minimum width
+    */
+   private static void pad(StringBuilder row, String value, int width) {
+      row.append(value);
+      for (int i = value.length(); i < width; ++i)
+         row.append(' ');
+   }
+
+   /**
+    * Appends a value as 8 hexadecimal digits, as %08x would
+    *
+    * @param row the text
+    * @param value the value
+    */
+   private static void hex(StringBuilder row, int value) {
+      for (int shift = 28; shift >= 0; shift -= 4)
+         row.append(Character.forDigit((value >>> shift) & 0xf, 16));
+   }
+
+   /**
+    * State file header fields
+    */
+   private static final int MAGIC = 0x4d495053;
+   private static final short VERSION = 2;
+
+   /**
+    * Size in bytes of the output buffer
+    */
+   private static final int BUFFER_SIZE = 1 << 16;
+
+   /**
+    * The output format
+    */
+   private final int format;
+
+   /**
+    * The file to write, or null for standard output
+    */
+   private final Path file;
+}
@@ -0,0 +1,434 @@
+package mipsArchitecture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs one program over many inputs, a parameter sweep. The program is
+ * assembled once, and its decoded instructions and initial memory are shared
+ * by every run: each run is a Simulator with its own register file and a
+ * fork of the initial memory, which copies a page only when the run first
+ * writes it. Each run is seeded with one input vector, a value for each of a
+ * fixed set of registers and memory words, and the runs execute in parallel
+ * on a fork-join pool. Results are written to the results file by the
+ * calling thread as each run finishes, one line per input, in JSON lines
+ * format, or in CSV format if the file name ends in .csv, naming the input
+ * by its number, counted from 0 in file order. Only the memory words that
+ * differ from the initial memory are reported. Runs have no input and
+ * discard their output, and the same step and time limits apply to every
+ * run.
+ *
+ * An input file whose name ends in .csv starts with a header naming the
+ * register or word address each column sets, as $t0 or $8 for a register
+ * and as 0x10010000 for the word at that byte address, followed by one row
+ * of decimal or 0x hexadecimal values per input. Blank lines and lines
+ * starting with # are ignored. Any other input file is binary, all
+ * big-endian:
+ *
+ * - int magic number MIPV, short version, short column count
+ * - for each column: short kind, REGISTER or WORD, then int register number
+ *   or byte address
+ * - for each input, an int value per column, up to the end of the file
+ */
+final class Sweep {
+   /**
+    * Kinds of input column
+    */
+   static final int REGISTER = 0;
+   static final int WORD = 1;
+
+   /**
+    * Constructs Sweep object, loading the program's data into the memory
+    * every run is forked from
+    *
+    * @param program assembled program from input file
+    * @param options execution options applied to every run
+    */
+   Sweep(Program program, RunOptions options) {
+      this.program = program;
+      this.options = options;
+
+      memory = Simulator.initialMemory(program);
+   }
+
+   /**
+    * Creates a simulator for a single run, on a fork of the initial memory,
+    * with no input and its output discarded. Its registers and memory may be
+    * set before it runs.
+    *
+    * @return the simulator
+    * @throws IllegalArgumentException if a data cache specification is
+    *                                  invalid
+    */
+   Simulator fork() {
+      Simulator mips = new Simulator(program, false, memory.fork());
+      try {
+         mips.useSyscalls(Syscalls.files(null, null));
+      } catch (IOException ioe) {
+         throw new IllegalStateException(ioe);
+      }
+      options.apply(mips);
+      return mips;
+   }
+
+   /**
+    * Runs the program once for every input and writes the results as they
+    * finish. Inputs are read as runs finish, so that only a few of them are
+    * held in memory at once.
+    *
+    * @param inputs path of the input file
+    * @param results path of the results file
+    * @throws IOException if the input file cannot be read or is invalid, or
+    *                     the results file cannot be written
+    */
+   void run(Path inputs, Path results) throws IOException {
+      int threads = Runtime.getRuntime().availableProcessors();
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      CompletionService<RunResult> done =
+              new ExecutorCompletionService<>(pool);
+
+      long begin = System.nanoTime();
+      long count = 0;
+      long failed, instructions;
+      try (Inputs in = new Inputs(inputs);
+           RunResult.Writer out = new RunResult.Writer(results, "input")) {
+         int running = 0;
+         int[] values = in.next();
+         while (values != null || running > 0) {
+            if (values != null && running < threads * WINDOW) {
+               done.submit(task(count++, in.kinds, in.targets, values));
+               ++running;
+               values = in.next();
+               continue;
+            }
+
+            out.write(RunResult.take(done, "Sweep"));
+            --running;
+         }
+         failed = out.getFailed();
+         instructions = out.getInstructions();
+      } finally {
+         pool.shutdownNow();
+      }
+      long elapsed = System.nanoTime() - begin;
+
+      double seconds = elapsed / 1e9;
+      System.out.printf("Sweep: %d inputs (%d failed) on %d threads in " +
+              "%.3f s, %.1f inputs/s, %.0f instructions/s\n", count, failed,
+              threads, seconds, count / seconds, instructions / seconds);
+   }
+
+   /**
+    * Creates the task that seeds and runs a single input. Faults and limits
+    * are reported in its result rather than thrown.
+    *
+    * @param input number of the input
+    * @param kinds kind of each column
+    * @param targets register number or byte address of each column
+    * @param values value of each column
+    * @return the task
+    */
+   private Callable<RunResult> task(long input, int[] kinds, int[] targets,
+                                    int[] values) {
+      return () -> {
+         RunResult result = new RunResult(input);
+         long begin = System.nanoTime();
+         try {
+            Simulator mips = fork();
+            try {
+               for (int i = 0; i < values.length; ++i) {
+                  if (kinds[i] == REGISTER)
+                     mips.setRegister(targets[i], values[i]);
+                  else
+                     mips.getMemory().storeWord(targets[i], values[i]);
+               }
+
+               int status = mips.run();
+               if (status == Simulator.FAULT)
+                  result.error = mips.getFault().describe();
+               else if (status != Simulator.HALTED)
+                  result.error = Simulator.STATUS_NAMES[status];
+            } finally {
+               result.instructions = mips.getInstructionCount();
+               result.registers = mips.getRegisters();
+               result.words = changes(mips.getMemory());
+            }
+         } catch (RuntimeException re) {
+            result.fail(re);
+         }
+         result.nanos = System.nanoTime() - begin;
+         return result;
+      };
+   }
+
+   /**
+    * Lists the words of a run's memory that differ from the initial memory.
+    * Only the pages the run wrote can differ.
+    *
+    * @param fork the memory of the run
+    * @return pairs of byte address and value, in address order
+    */
+   private List<int[]> changes(Memory fork) {
+      List<int[]> words = new ArrayList<>();
+      for (int number : fork.dirtyPages()) {
+         int[] page = fork.page(number);
+         int[] original = memory.page(number);
+         for (int i = 0; i < page.length; ++i)
+            if (page[i] != (original == null ? 0 : original[i]))
+               words.add(new int[] {
+                       (number << Memory.PAGE_BITS) + i * 4, page[i] });
+      }
+      return words;
+   }
+
+   /**
+    * Reader of the input vectors in a CSV or binary input file
+    */
+   private static final class Inputs implements Closeable {
+      /**
+       * Opens an input file and reads its header
+       *
+       * @param file path of the input file
+       * @throws IOException if the file cannot be read or its header is
+       *                     invalid
+       */
+      Inputs(Path file) throws IOException {
+         this.file = file;
+         if (file.toString().endsWith(".csv")) {
+            text = Files.newBufferedReader(file);
+            binary = null;
+            String line = line();
+            if (line == null)
+               throw new IOException(file + " has no header");
+            String[] names = line.split(",", -1);
+            kinds = new int[names.length];
+            targets = new int[names.length];
+            for (int i = 0; i < names.length; ++i)
+               column(i, names[i].trim());
+         }
+         else {
+            text = null;
+            binary = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file)));
+            try {
+               if (binary.readInt() != MAGIC ||
+                       binary.readShort() != VERSION)
+                  throw new IOException(file + " is not a sweep input file");
+               int columns = binary.readUnsignedShort();
+               if (columns == 0)
+                  throw new IOException(file + " has no columns");
+               kinds = new int[columns];
+               targets = new int[columns];
+               for (int i = 0; i < columns; ++i) {
+                  kinds[i] = binary.readShort();
+                  targets[i] = binary.readInt();
+                  check(i);
+               }
+            } catch (EOFException eofe) {
+               binary.close();
+               throw new IOException(file + " is truncated");
+            } catch (IOException ioe) {
+               binary.close();
+               throw ioe;
+            }
+         }
+      }
+
+      /**
+       * Reads the next input vector
+       *
+       * @return the value of each column, or null at the end of the file
+       * @throws IOException if the file cannot be read or the vector is
+       *                     invalid
+       */
+      int[] next() throws IOException {
+         int[] values = new int[kinds.length];
+         if (binary != null) {
+            byte[] row = new byte[values.length * 4];
+            int first = binary.read();
+            if (first < 0)
+               return null;
+            row[0] = (byte) first;
+            try {
+               binary.readFully(row, 1, row.length - 1);
+            } catch (EOFException eofe) {
+               throw new IOException(file + " is truncated");
+            }
+            ByteBuffer.wrap(row).asIntBuffer().get(values);
+            return values;
+         }
+
+         String line = line();
+         if (line == null)
+            return null;
+         String[] fields = line.split(",", -1);
+         if (fields.length != values.length)
+            throw new IOException(file + " line " + lineNumber +
+                    ": expected " + values.length + " values, found " +
+                    fields.length);
+         for (int i = 0; i < values.length; ++i)
+            values[i] = value(fields[i].trim());
+         return values;
+      }
+
+      /**
+       * Closes the input file
+       *
+       * @throws IOException if the file cannot be closed
+       */
+      @Override
+      public void close() throws IOException {
+         if (text != null)
+            text.close();
+         else
+            binary.close();
+      }
+
+      /**
+       * Reads the next line of a CSV input file that is not blank or a
+       * comment
+       *
+       * @return the line, or null at the end of the file
+       * @throws IOException if the file cannot be read
+       */
+      private String line() throws IOException {
+         String line;
+         do {
+            line = text.readLine();
+            ++lineNumber;
+         } while (line != null &&
+                 (line.trim().isEmpty() || line.trim().startsWith("#")));
+         return line;
+      }
+
+      /**
+       * Sets a column from its name in the header of a CSV input file
+       *
+       * @param i index of the column
+       * @param name a register name or a byte address
+       * @throws IOException if the name is invalid
+       */
+      private void column(int i, String name) throws IOException {
+         if (name.startsWith("$")) {
+            kinds[i] = REGISTER;
+            targets[i] = Simulator.registerNumber(name);
+         }
+         else {
+            kinds[i] = WORD;
+            targets[i] = value(name);
+         }
+         check(i);
+      }
+
+      /**
+       * Checks that a column sets a register other than $zero or an aligned
+       * word
+       *
+       * @param i index of the column
+       * @throws IOException if the column is invalid
+       */
+      private void check(int i) throws IOException {
+         String problem = null;
+         if (kinds[i] == REGISTER && (targets[i] <= 0 ||
+                 targets[i] >= Simulator.REGISTER_NAMES.length))
+            problem = "invalid register";
+         else if (kinds[i] == WORD && (targets[i] & 3) != 0)
+            problem = "unaligned word address";
+         else if (kinds[i] != REGISTER && kinds[i] != WORD)
+            problem = "invalid column kind " + kinds[i];
+         if (problem != null)
+            throw new IOException(file + ": column " + (i + 1) + " has " +
+                    "an " + problem);
+      }
+
+      /**
+       * Parses a decimal or 0x hexadecimal value of a CSV input file,
+       * signed or unsigned
+       *
+       * @param field the text of the value
+       * @return the value
+       * @throws IOException if the value is invalid
+       */
+      private int value(String field) throws IOException {
+         try {
+            long value = Long.decode(field);
+            if (value >= Integer.MIN_VALUE && value <= 0xffffffffL)
+               return (int) value;
+         } catch (NumberFormatException nfe) {
+            // reported below
+         }
+         throw new IOException(file + " line " + lineNumber +
+                 ": invalid value \"" + field + "\"");
+      }
+
+      /**
+       * Path of the input file
+       */
+      private final Path file;
+
+      /**
+       * Reader of a CSV input file, or null
+       */
+      private final BufferedReader text;
+
+      /**
+       * Stream of a binary input file, or null
+       */
+      private final DataInputStream binary;
+
+      /**
+       * Kind of each column, REGISTER or WORD
+       */
+      final int[] kinds;
+
+      /**
+       * Register number or byte address of each column
+       */
+      final int[] targets;
+
+      /**
+       * Number of the last line read from a CSV input file, counted from 1
+       */
+      private int lineNumber;
+   }
+
+   /**
+    * Input file header fields
+    */
+   private static final int MAGIC = 0x4d495056;
+   private static final short VERSION = 1;
+
+   /**
+    * Number of inputs per thread that are read ahead of the runs
+    */
+   private static final int WINDOW = 4;
+
+   /**
+    * The program run for every input
+    */
+   private final Program program;
+
+   /**
+    * Initial memory, holding the program's data, that every run is forked
+    * from and that is never written once the runs start
+    */
+   private final Memory memory;
+
+   /**
+    * Execution options applied to every run
+    */
+   private final RunOptions options;
+}
@@ -0,0 +1,484 @@
+package mipsArchitecture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Emulation of the system calls made by the syscall instruction, numbered as
+ * in SPIM and MARS. The call is selected by $v0 and takes its arguments in
+ * $a0 and $a1:
+ *
+ * - 1 print_int, 4 print_string, 11 print_char: print $a0
+ * - 5 read_int: reads a line holding an integer into $v0
+ * - 8 read_string: reads a line into the $a1 bytes at $a0, as fgets does
+ * - 9 sbrk: grows the heap by $a0 bytes, returning the old break in $v0
+ * - 10 exit, 17 exit2: halts the program, exit2 with the exit code in $a0
+ *
+ * Guest output is gathered in a large buffer that is only written to its
+ * channel when it fills, before the program waits for input, and when the
+ * program ends, so a program that prints in a loop costs one write per
+ * buffer rather than one per call. Guest input is read a buffer at a time in
+ * the same way. Either side may be the console or a file.
+ *
+ * Each core of a Multicore makes its calls through its own view, made by
+ * core(), which halts only that core on exit, and takes a lock on the
+ * shared calls for everything else, so the cores share the input, the
+ * output, and the heap.
+ */
+final class Syscalls {
+   /**
+    * Register numbers of $v0, which selects the call and receives its
+    * result, and of $a0 and $a1, which hold its arguments
+    */
+   static final int V0 = 2;
+   static final int A0 = 4;
+   static final int A1 = 5;
+
+   /**
+    * Byte address of the start of the heap grown by sbrk, as in MARS
+    */
+   static final int HEAP_BASE = 0x10040000;
+
+   /**
+    * Size in bytes of the input and output buffers
+    */
+   static final int BUFFER_SIZE = 1 << 16;
+
+   /**
+    * Size in bytes of the input and output buffers of a program embedded in
+    * another, whose channels are held in memory, so that starting a short
+    * program does not cost the allocation of large buffers
+    */
+   static final int EMBEDDED_BUFFER_SIZE = 1 << 10;
+
+   /**
+    * Creates the system calls of a program run from the console, reading
+    * standard input and writing standard output
+    *
+    * @return the system calls
+    */
+   static Syscalls console() {
+      return new Syscalls(Channels.newChannel(System.in),
+              Channels.newChannel(System.out), false, BUFFER_SIZE);
+   }
+
+   /**
+    * Creates the system calls of a program whose input and output are
+    * redirected to files
+    *
+    * @param input file read by the program, or null to give it no input
+    * @param output file the program's output is written to, or null to
+    *               discard the output
+    * @return the system calls
+    * @throws IOException if a file cannot be opened
+    */
+   static Syscalls files(Path input, Path output) throws IOException {
+      ReadableByteChannel in = input == null ? null
+              : FileChannel.open(input, StandardOpenOption.READ);
+      try {
+         WritableByteChannel out = output == null ? null
+                 : FileChannel.open(output, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING);
+         return new Syscalls(in, out, true, BUFFER_SIZE);
+      } catch (IOException ioe) {
+         if (in != null)
+            in.close();
+         throw ioe;
+      }
+   }
+
+   /**
+    * Creates the system calls of a program embedded in another, reading and
+    * writing channels that stay open
+    *
+    * @param input channel the program reads, or null to give it no input
+    * @param output channel the program writes, or null to discard output
+    * @return the system calls
+    */
+   static Syscalls channels(ReadableByteChannel input,
+                            WritableByteChannel output) {
+      return new Syscalls(input, output, false, EMBEDDED_BUFFER_SIZE);
+   }
+
+   /**
+    * Constructs Syscalls object
+    *
+    * @param input channel the program reads, or null if it has no input
+    * @param output channel the program writes, or null to discard output
+    * @param owned true if the channels are closed along with this object
+    * @param bufferSize size in bytes of the input and output buffers
+    */
+   private Syscalls(ReadableByteChannel input, WritableByteChannel output,
+                    boolean owned, int bufferSize) {
+      this.input = input;
+      this.output = output;
+      this.owned = owned;
+      this.shared = null;
+      this.bufferSize = bufferSize;
+   }
+
+   /**
+    * Constructs Syscalls object for a core
+    *
+    * @param shared the system calls shared by every core
+    */
+   private Syscalls(Syscalls shared) {
+      this.input = null;
+      this.output = null;
+      this.owned = false;
+      this.shared = shared;
+      this.bufferSize = 0;
+   }
+
+   /**
+    * Creates the system calls of one core of a program run on several.
+    * Once the cores have views, these calls must only be made through them.
+    *
+    * @return the view for the core
+    */
+   Syscalls core() {
+      return new Syscalls(this);
+   }
+
+   /**
+    * Performs a system call
+    *
+    * @param code the call, the value of $v0
+    * @param a0 value of $a0
+    * @param a1 value of $a1
+    * @param m the memory
+    * @return the new value of $v0, which is unchanged unless the call
+    *         returns a result
+    * @throws GuestFault if the call is not supported or its arguments are
+    *                     invalid
+    * @throws IllegalStateException if the guest I/O fails
+    */
+   int call(int code, int a0, int a1, Memory m) {
+      if (shared != null) {
+         if (code == 10 || code == 17) {
+            exit(code == 10 ? 0 : a0);
+            return code;
+         }
+         synchronized (shared) {
+            return shared.call(code, a0, a1, m);
+         }
+      }
+
+      try {
+         switch (code) {
+            case 1:
+               print(Integer.toString(a0));
+               return code;
+            case 4:
+               for (int address = a0, c; (c = m.loadByte(address)) != 0;
+                    ++address)
+                  put(c);
+               return code;
+            case 11:
+               put(a0);
+               return code;
+            case 5:
+               return readInt();
+            case 8:
+               readString(m, a0, a1);
+               return code;
+            case 9:
+               return sbrk(a0);
+            case 10:
+               exit(0);
+               return code;
+            case 17:
+               exit(a0);
+               return code;
+            default:
+               throw new GuestFault("Unknown syscall " + code);
+         }
+      } catch (IOException ioe) {
+         throw new IllegalStateException("Guest I/O failed: " +
+                 ioe.getMessage(), ioe);
+      }
+   }
+
+   /**
+    * Checks whether the program has halted through exit or exit2
+    *
+    * @return true if the program has exited
+    */
+   boolean hasExited() { return exited; }
+
+   /**
+    * Returns the exit code passed to exit2, or 0 after exit
+    *
+    * @return the exit code
+    */
+   int getExitCode() { return exitCode; }
+
+   /**
+    * Returns the current end of the heap
+    *
+    * @return byte address of the heap break
+    */
+   int getBreak() {
+      if (shared == null)
+         return heapBreak;
+      synchronized (shared) {
+         return shared.getBreak();
+      }
+   }
+
+   /**
+    * Moves the end of the heap, as when resuming from a checkpoint
+    *
+    * @param address byte address of the heap break
+    */
+   void setBreak(int address) {
+      if (shared == null) {
+         heapBreak = address;
+         return;
+      }
+      synchronized (shared) {
+         shared.setBreak(address);
+      }
+   }
+
+   /**
+    * Writes any buffered output to its channel
+    *
+    * @throws IllegalStateException if the output cannot be written
+    */
+   void flush() {
+      if (shared != null) {
+         synchronized (shared) {
+            shared.flush();
+         }
+         return;
+      }
+
+      try {
+         drain();
+      } catch (IOException ioe) {
+         throw new IllegalStateException("Guest I/O failed: " +
+                 ioe.getMessage(), ioe);
+      }
+   }
+
+   /**
+    * Flushes the output and closes the files opened for the program
+    *
+    * @throws IOException if the output cannot be written or a file cannot
+    *                     be closed
+    */
+   void close() throws IOException {
+      try {
+         drain();
+      } finally {
+         if (owned && input != null)
+            input.close();
+         if (owned && output != null)
+            output.close();
+      }
+   }
+
+   /**
+    * Reads a line holding a decimal integer
+    *
+    * @return the integer
+    * @throws IOException if the input cannot be read
+    */
+   private int readInt() throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = get()) >= 0 && c != '\n')
+         line.append((char) c);
+      if (c < 0 && line.length() == 0)
+         throw new GuestFault("read_int past the end of input");
+
+      String text = line.toString().trim();
+      try {
+         return Integer.parseInt(text);
+      } catch (NumberFormatException nfe) {
+         throw new GuestFault("read_int of invalid input \"" +
+                 text + "\"");
+      }
+   }
+
+   /**
+    * Reads at most length - 1 bytes of a line, including its newline, into
+    * memory, followed by a terminating 0
+    *
+    * @param m the memory
+    * @param address byte address of the buffer
+    * @param length size of the buffer in bytes
+    * @throws IOException if the input cannot be read
+    */
+   private void readString(Memory m, int address, int length)
+           throws IOException {
+      if (length < 1)
+         return;
+
+      int count = 0;
+      while (count < length - 1) {
+         int c = get();
+         if (c < 0)
+            break;
+         m.storeByte(address + count++, c);
+         if (c == '\n')
+            break;
+      }
+      m.storeByte(address + count, 0);
+   }
+
+   /**
+    * Grows the heap, keeping the break aligned to a word
+    *
+    * @param bytes number of bytes to allocate
+    * @return byte address of the allocated memory
+    */
+   private int sbrk(int bytes) {
+      if (bytes < 0)
+         throw new GuestFault("sbrk of a negative amount " +
+                 bytes);
+
+      int address = heapBreak;
+      long end = Integer.toUnsignedLong(address) + ((bytes + 3L) & ~3L);
+      if (end > Integer.toUnsignedLong(Simulator.STACK_POINTER))
+         throw new GuestFault("sbrk of " + bytes +
+                 " bytes runs into the stack");
+      heapBreak = (int) end;
+      return address;
+   }
+
+   /**
+    * Halts the program
+    *
+    * @param code the exit code
+    */
+   private void exit(int code) {
+      exited = true;
+      exitCode = code;
+   }
+
+   /**
+    * Appends the characters of a string to the output
+    *
+    * @param text the string
+    * @throws IOException if the output cannot be written
+    */
+   private void print(String text) throws IOException {
+      byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+      for (byte b : bytes)
+         put(b);
+   }
+
+   /**
+    * Appends a byte to the output, writing the buffer out when it is full
+    *
+    * @param b the byte, in the low 8 bits
+    * @throws IOException if the output cannot be written
+    */
+   private void put(int b) throws IOException {
+      if (out == null)
+         out = ByteBuffer.allocate(bufferSize);
+      if (!out.hasRemaining())
+         drain();
+      out.put((byte) b);
+   }
+
+   /**
+    * Writes the buffered output to its channel
+    *
+    * @throws IOException if the output cannot be written
+    */
+   private void drain() throws IOException {
+      if (out == null)
+         return;
+      out.flip();
+      while (output != null && out.hasRemaining())
+         output.write(out);
+      out.clear();
+   }
+
+   /**
+    * Takes the next byte of input, refilling the buffer when it is empty.
+    * Buffered output is written first, so that a prompt appears before the
+    * program waits for an answer.
+    *
+    * @return the byte, from 0 to 255, or -1 at the end of input
+    * @throws IOException if the input cannot be read
+    */
+   private int get() throws IOException {
+      if (in == null)
+         in = ByteBuffer.allocate(bufferSize).limit(0);
+      if (!in.hasRemaining()) {
+         drain();
+         in.clear();
+         int count = input == null ? -1 : input.read(in);
+         in.flip();
+         if (count <= 0)
+            return -1;
+      }
+      return in.get() & 0xff;
+   }
+
+   /**
+    * Channel the program reads, or null if it has no input
+    */
+   private final ReadableByteChannel input;
+
+   /**
+    * Channel the program writes, or null if its output is discarded
+    */
+   private final WritableByteChannel output;
+
+   /**
+    * True if the channels were opened for the program and are closed with
+    * it
+    */
+   private final boolean owned;
+
+   /**
+    * The system calls shared by every core, or null if these are not the
+    * calls of a single core
+    */
+   private final Syscalls shared;
+
+   /**
+    * Size in bytes of the input and output buffers
+    */
+   private final int bufferSize;
+
+   /**
+    * Input read from the channel but not yet taken by the program, or null
+    * until the program first reads
+    */
+   private ByteBuffer in;
+
+   /**
+    * Output written by the program but not yet written to the channel, or
+    * null until the program first writes
+    */
+   private ByteBuffer out;
+
+   /**
+    * End of the heap, the address sbrk returns next
+    */
+   private int heapBreak = HEAP_BASE;
+
+   /**
+    * True once the program has called exit or exit2
+    */
+   private boolean exited;
+
+   /**
+    * Exit code passed to exit2
+    */
+   private int exitCode;
+}
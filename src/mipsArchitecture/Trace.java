@@ -0,0 +1,331 @@
+package mipsArchitecture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact binary record of every instruction executed by the simulator.
+ * Each instruction is stored as a fixed-size record holding its index, its
+ * opcode, the control signals it set, the register it wrote, and the memory
+ * word it stored. Records are written into a preallocated buffer, so tracing
+ * costs no allocation and no formatting while the program runs. In memory
+ * the buffer is a ring that keeps the most recent records; when a trace file
+ * is given the buffer is written to the file each time it fills. Traces are
+ * rendered as text only after the run, optionally filtered by instruction
+ * number and opcode.
+ *
+ * A trace file begins with the magic number MIPT, a version, and the record
+ * size, followed by the records, all big-endian:
+ *
+ * - int index of the instruction
+ * - byte opcode
+ * - byte flags: writeToMem, readMem, register written, memory written
+ * - byte number of the register written
+ * - byte unused
+ * - int value written to the register
+ * - int byte address written
+ * - int value written to memory
+ */
+final class Trace {
+   /**
+    * Number of records kept in memory by default
+    */
+   static final int DEFAULT_CAPACITY = 1 << 16;
+
+   /**
+    * Bits of the flags byte of a record
+    */
+   static final int WRITE_TO_MEM = 1;
+   static final int READ_MEM = 2;
+   static final int REGISTER_WRITTEN = 4;
+   static final int MEMORY_WRITTEN = 8;
+
+   /**
+    * Constructs a Trace that keeps the most recent records in memory
+    *
+    * @param capacity number of records kept
+    */
+   Trace(int capacity) {
+      this.buffer = ByteBuffer.allocate(capacity * RECORD_SIZE);
+      this.file = null;
+   }
+
+   /**
+    * Constructs a Trace that writes every record to a file
+    *
+    * @param path the trace file, which is replaced if it exists
+    * @throws IOException if the file cannot be created
+    */
+   Trace(Path path) throws IOException {
+      this.buffer = ByteBuffer.allocate(DEFAULT_CAPACITY * RECORD_SIZE);
+      this.file = FileChannel.open(path, StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      buffer.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE);
+   }
+
+   /**
+    * Records an executed instruction
+    *
+    * @param pc index of the instruction
+    * @param opcode the opcode
+    * @param flags WRITE_TO_MEM, READ_MEM, REGISTER_WRITTEN, and
+    *              MEMORY_WRITTEN bits
+    * @param register number of the register written
+    * @param value value written to the register
+    * @param address byte address written
+    * @param stored value written to memory
+    */
+   void record(int pc, int opcode, int flags, int register, int value,
+               int address, int stored) {
+      if (buffer.remaining() < RECORD_SIZE) {
+         if (file != null)
+            flush();
+         else
+            buffer.clear();
+      }
+
+      buffer.putInt(pc).put((byte) opcode).put((byte) flags)
+            .put((byte) register).put((byte) 0).putInt(value)
+            .putInt(address).putInt(stored);
+      ++count;
+   }
+
+   /**
+    * Writes the buffered records to the trace file
+    */
+   private void flush() {
+      buffer.flip();
+      try {
+         while (buffer.hasRemaining())
+            file.write(buffer);
+      } catch (IOException ioe) {
+         throw new IllegalStateException("Cannot write trace: " +
+                 ioe.getMessage());
+      }
+      buffer.clear();
+   }
+
+   /**
+    * Writes any remaining records and closes the trace file, if there is one
+    *
+    * @throws IOException if the file cannot be written
+    */
+   void close() throws IOException {
+      if (file != null) {
+         flush();
+         file.close();
+      }
+   }
+
+   /**
+    * Returns the number of instructions recorded
+    *
+    * @return the number of records
+    */
+   long getCount() { return count; }
+
+   /**
+    * Renders the records kept in memory, oldest first
+    *
+    * @param out destination of the text
+    * @param filter the records to render
+    */
+   void render(PrintStream out, Filter filter) {
+      int kept = (int) Math.min(count, buffer.capacity() / RECORD_SIZE);
+      int first = count > kept ? buffer.position() : 0;
+      long number = count - kept;
+
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < kept; ++i) {
+         int offset = (first + i * RECORD_SIZE) % buffer.capacity();
+         render(line, ++number, buffer.getInt(offset), buffer.get(offset + 4),
+                 buffer.get(offset + 5), buffer.get(offset + 6),
+                 buffer.getInt(offset + 8), buffer.getInt(offset + 12),
+                 buffer.getInt(offset + 16), filter);
+         out.append(line);
+         line.setLength(0);
+      }
+   }
+
+   /**
+    * Renders the records of a trace file
+    *
+    * @param path the trace file
+    * @param out destination of the text
+    * @param filter the records to render
+    * @throws IOException if the file cannot be read, or is not a trace
+    */
+   static void render(Path path, PrintStream out, Filter filter)
+           throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+              Files.newInputStream(path), 1 << 16))) {
+         if (in.readInt() != MAGIC || in.readShort() != VERSION ||
+                 in.readShort() != RECORD_SIZE)
+            throw new IOException(path + " is not a trace file");
+
+         StringBuilder line = new StringBuilder();
+         long number = 0;
+         while (true) {
+            int pc;
+            try {
+               pc = in.readInt();
+            } catch (EOFException eof) {
+               break;
+            }
+            int opcode = in.readByte();
+            int flags = in.readByte();
+            int register = in.readByte();
+            in.readByte();
+            render(line, ++number, pc, opcode, flags, register, in.readInt(),
+                    in.readInt(), in.readInt(), filter);
+            out.append(line);
+            line.setLength(0);
+         }
+      }
+   }
+
+   /**
+    * Formats a single record, if the filter accepts it
+    *
+    * @param line destination of the text
+    * @param number position of the instruction in the execution, from 1
+    * @param pc index of the instruction
+    * @param opcode the opcode
+    * @param flags the flags byte
+    * @param register number of the register written
+    * @param value value written to the register
+    * @param address byte address written
+    * @param stored value written to memory
+    * @param filter the records to render
+    */
+   private static void render(StringBuilder line, long number, int pc,
+                              int opcode, int flags, int register, int value,
+                              int address, int stored, Filter filter) {
+      if (!filter.accepts(pc, opcode))
+         return;
+
+      line.append(number).append(": Instruction #").append(pc + 1)
+          .append(' ').append(Instruction.name(opcode))
+          .append("  aluControl: ").append(opcode)
+          .append(" writeToMem: ").append((flags & WRITE_TO_MEM) != 0 ? 1 : 0)
+          .append(" readMem: ").append((flags & READ_MEM) != 0 ? 1 : 0);
+      String[] names = Simulator.REGISTER_NAMES;
+      if ((flags & REGISTER_WRITTEN) != 0)
+         line.append("  ").append(names[Math.floorMod(register, names.length)])
+             .append(" = ").append(value);
+      if ((flags & MEMORY_WRITTEN) != 0)
+         line.append(String.format("  Memory[0x%08x] = %d", address, stored));
+      line.append('\n');
+   }
+
+   /**
+    * Selects the records to render by instruction number and opcode
+    */
+   static final class Filter {
+      /**
+       * Constructs a Filter that accepts every record
+       */
+      Filter() {
+         Arrays.fill(opcodes, true);
+      }
+
+      /**
+       * Restricts the filter to a range of instruction numbers, as counted
+       * from 1 in the input file
+       *
+       * @param range first and last instruction number, as in 5-9, or a
+       *              single instruction number
+       * @return this filter
+       */
+      Filter instructions(String range) {
+         try {
+            int dash = range.indexOf('-', 1);
+            first = Integer.parseInt(dash < 0 ? range
+                                              : range.substring(0, dash));
+            last = dash < 0 ? first
+                            : Integer.parseInt(range.substring(dash + 1));
+         } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid instruction range " +
+                    range);
+         }
+         return this;
+      }
+
+      /**
+       * Restricts the filter to the given instructions
+       *
+       * @param names comma separated instruction names, as in lw,sw
+       * @return this filter
+       */
+      Filter opcodes(String names) {
+         Arrays.fill(opcodes, false);
+         for (String name : names.split(",")) {
+            int opcode = Instruction.opcode(name.trim());
+            if (opcode < 0)
+               throw new IllegalArgumentException("Unknown instruction " +
+                       name);
+            opcodes[opcode] = true;
+         }
+         return this;
+      }
+
+      /**
+       * Checks whether a record is rendered
+       *
+       * @param pc index of the instruction
+       * @param opcode the opcode
+       * @return true if the record passes the filter
+       */
+      boolean accepts(int pc, int opcode) {
+         return pc + 1 >= first && pc + 1 <= last && opcode >= 0 &&
+                 opcode < opcodes.length && opcodes[opcode];
+      }
+
+      /**
+       * Range of instruction numbers accepted
+       */
+      private int first = Integer.MIN_VALUE;
+      private int last = Integer.MAX_VALUE;
+
+      /**
+       * Opcodes accepted
+       */
+      private final boolean[] opcodes =
+              new boolean[Instruction.NAMES.length];
+   }
+
+   /**
+    * Trace file header fields
+    */
+   private static final int MAGIC = 0x4d495054;
+   private static final short VERSION = 1;
+
+   /**
+    * Size of a record in bytes
+    */
+   private static final int RECORD_SIZE = 20;
+
+   /**
+    * Records not yet written, or the ring of most recent records
+    */
+   private final ByteBuffer buffer;
+
+   /**
+    * Trace file, or null if records are only kept in memory
+    */
+   private final FileChannel file;
+
+   /**
+    * Number of instructions recorded
+    */
+   private long count;
+}
@@ -0,0 +1,67 @@
+package mipsArchitecture;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * Renders a binary trace file recorded with the '-t' flag as text, one line
+ * per executed instruction, after the simulation has finished.
+ */
+public class TraceViewer {
+   /**
+    * Main method accepts the file path of a trace as a command line argument,
+    * as well as an optional range of instruction numbers using the flag '-i'
+    * and optional instruction names using the flag '-op', which select the
+    * instructions shown
+    *
+    * @param args the command line arguments
+    */
+   public static void main(String[] args) {
+      if (args.length == 0 || args.length % 2 == 0) {
+         printUsage();
+         return;
+      }
+
+      Trace.Filter filter = new Trace.Filter();
+      try {
+         for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+               case "-i":  filter.instructions(args[i + 1]); break;
+               case "-op": filter.opcodes(args[i + 1]); break;
+               default:
+                  printUsage();
+                  return;
+            }
+         }
+      } catch (IllegalArgumentException iae) {
+         System.err.println("\n" + iae.getMessage() + "\n");
+         return;
+      }
+
+      PrintStream out = new PrintStream(
+              new BufferedOutputStream(System.out, 1 << 16), false);
+      try {
+         Trace.render(Paths.get(args[0]), out, filter);
+      } catch (NoSuchFileException nsfe) {
+         System.err.println("\nFile not found, please try again and ensure " +
+                 "the file path is typed correctly.\n");
+      } catch (IOException ioe) {
+         System.err.println("\nTrace file error: " + ioe.getMessage() + "\n");
+      } finally {
+         out.flush();
+      }
+   }
+
+   /**
+    * Prints the expected command line arguments
+    */
+   private static void printUsage() {
+      System.err.println("\nWrong number of args, please try again.");
+      System.err.println("Example: java mipsArchitecture.TraceViewer " +
+            "<d:/path/to/trace> <-i first-last> (for optional instruction " +
+            "numbers) <-op lw,sw> (for optional instruction names)");
+   }
+}
@@ -13,10 +13,10 @@ nop
 beq $zero, $zero, 4
 sub $t5, $t2, $t1
 mult $t5, $t2, $t1
-sw $t1, 0($t1)
-sw $t2, 1($t1)
-sw $t3, 2($t1)
-sw $t4, 3($t1)
-sw $t5, 4($t1)
-sw $s2, 5($t1)
-sw $s3, 6($t1)
+sw $t1, 20($zero)
+sw $t2, 24($zero)
+sw $t3, 28($zero)
+sw $t4, 32($zero)
+sw $t5, 36($zero)
+sw $s2, 40($zero)
+sw $s3, 44($zero)
@@ -13,5 +13,5 @@ addi $s1, $s2, 5
 mult $s2, $t0, $t1 
 sub $t3, $t2, $t0
 add $s7, $t4, $t9
-sw $s6, 16($t2)
-lw $s5, 16($t2)
+sw $s6, 84($zero)
+lw $s5, 84($zero)
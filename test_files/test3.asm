@@ -8,4 +8,4 @@ addi $t6, $t6, 21
 addi $t7, $t7, 24
 addi $t8, $t8, 27
 addi $t9, $t9, 30
-sw $t9, 3($t0)
\ No newline at end of file
+sw $t9, 24($zero)
\ No newline at end of file
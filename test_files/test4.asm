@@ -0,0 +1,8 @@
+# sum 1..10 into $s0
+        addi $t0, $zero, 10
+        addi $s0, $zero, 0
+loop:   beq  $t0, $zero, done
+        add  $s0, $s0, $t0
+        addi $t0, $t0, -1
+        j    loop
+done:   sw   $s0, 0($zero)